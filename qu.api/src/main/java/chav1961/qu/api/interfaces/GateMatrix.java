@@ -170,6 +170,32 @@ public interface GateMatrix extends AutoCloseable, SerializableContent {
 		upload(Piece.of(this), out);
 	}
 
+	/**
+	 * <p>Copy matrix piece content into float array. Content is stored row-by-row and column-by-column inside the row as
+	 * real/image pairs for every matrix type (commutation matrix stores 1.0 and 0.0 real values). Fast mode doesn't affect
+	 * the method. Typical usage is to copy a row or column of the matrix:</p>
+	 * <pre>
+	 * matrix.extract(Piece.of(0, row, matrix.getWidth(), 1), target, 0);
+	 * matrix.extract(Piece.of(column, 0, 1, matrix.getHeight()), target, 0);
+	 * </pre>
+	 * @param piece piece to copy content from. Can not be null and must be inside the matrix.
+	 * @param target array to copy content to. Can not be null and must contain at least 2*piece.width()*piece.height() elements from the offset.
+	 * @param offset offset in the target array to copy content to. Can not be less than 0.
+	 * @throws CalculationException on any calculation errors.
+	 */
+	void extract(Piece piece, float[] target, int offset) throws CalculationException;
+
+	/**
+	 * <p>Copy matrix piece content into double array. Content is stored row-by-row and column-by-column inside the row as
+	 * real/image pairs for every matrix type (commutation matrix stores 1.0 and 0.0 real values). Fast mode doesn't affect
+	 * the method.</p>
+	 * @param piece piece to copy content from. Can not be null and must be inside the matrix.
+	 * @param target array to copy content to. Can not be null and must contain at least 2*piece.width()*piece.height() elements from the offset.
+	 * @param offset offset in the target array to copy content to. Can not be less than 0.
+	 * @throws CalculationException on any calculation errors.
+	 */
+	void extract(Piece piece, double[] target, int offset) throws CalculationException;
+
 	/**
 	 * <p>Multiply matrix and return product</p>
 	 * @param another matrix to multiply. Can not be null.
@@ -177,6 +203,17 @@ public interface GateMatrix extends AutoCloseable, SerializableContent {
 	 * @throws CalculationException on any calculation errors.
 	 */
 	GateMatrix multiply(GateMatrix another) throws CalculationException;
+
+	/**
+	 * <p>Multiply matrix and store product into existing matrix. Target matrix content will be replaced with the product values, so
+	 * it can be reused between sequential calls without any allocations</p>
+	 * @param another matrix to multiply. Can not be null.
+	 * @param target matrix to store product to. Can not be null, must be compatible with the product and can't be the same as the current or another matrix.
+	 * @return target matrix. Can not be null.
+	 * @throws CalculationException on any calculation errors.
+	 * @throws IllegalArgumentException when target matrix is not compatible with the product.
+	 */
+	GateMatrix multiplyInto(GateMatrix another, GateMatrix target) throws CalculationException;
 	
 	/**
 	 * <p>Multiply and transpose matrix and return product</p>
@@ -185,6 +222,16 @@ public interface GateMatrix extends AutoCloseable, SerializableContent {
 	 * @throws CalculationException on any calculation errors.
 	 */
 	GateMatrix multiplyAndTranspose(GateMatrix another) throws CalculationException;
+
+	/**
+	 * <p>Multiply and transpose matrix and store product into existing matrix. Target matrix content will be replaced with the product values</p>
+	 * @param another matrix to multiply. Can not be null.
+	 * @param target matrix to store product to. Can not be null, must be compatible with the product and can't be the same as the current or another matrix.
+	 * @return target matrix. Can not be null.
+	 * @throws CalculationException on any calculation errors.
+	 * @throws IllegalArgumentException when target matrix is not compatible with the product.
+	 */
+	GateMatrix multiplyAndTransposeInto(GateMatrix another, GateMatrix target) throws CalculationException;
 	
 	/**
 	 * <p>Transpose matrix and return new matrix</p>
@@ -192,6 +239,15 @@ public interface GateMatrix extends AutoCloseable, SerializableContent {
 	 * @throws CalculationException on any calculation errors.
 	 */
 	GateMatrix transpose() throws CalculationException;
+
+	/**
+	 * <p>Transpose matrix and store result into existing matrix. Target matrix content will be replaced with the transposed values</p>
+	 * @param target matrix to store result to. Can not be null, must be compatible with the result and can't be the same as the current matrix.
+	 * @return target matrix. Can not be null.
+	 * @throws CalculationException on any calculation errors.
+	 * @throws IllegalArgumentException when target matrix is not compatible with the result.
+	 */
+	GateMatrix transposeInto(GateMatrix target) throws CalculationException;
 	
 	/**
 	 * <p>Scratch rows and columns for source matrix and return new reduced matrix</p> 
@@ -201,15 +257,42 @@ public interface GateMatrix extends AutoCloseable, SerializableContent {
 	 * @throws CalculationException on any calculation errors.
 	 */
 	GateMatrix reduce(int qibitNo, int qubitValue) throws CalculationException;
+
+	/**
+	 * <p>Scratch rows and columns for source matrix and store reduced matrix into existing matrix. Target matrix content will be replaced 
+	 * with the reduced values</p> 
+	 * @param qibitNo qubit number to scratch. Can not be less than 0.
+	 * @param qubitValue qubit value to scratch. Can be 0 or 1 only.
+	 * @param target matrix to store result to. Can not be null, must be compatible with the result and can't be the same as the current matrix.
+	 * @return target matrix. Can not be null.
+	 * @throws CalculationException on any calculation errors.
+	 * @throws IllegalArgumentException when target matrix is not compatible with the result.
+	 */
+	GateMatrix reduceInto(int qibitNo, int qubitValue, GateMatrix target) throws CalculationException;
 	
 	/**
-	 * <p>Cast matrix from one type to another</p>
+	 * <p>Cast matrix from one type to another. Casting to the type the matrix already has returns the matrix itself. Casting to
+	 * commutation matrix is available for permutation matrices only (exactly one 1+0i value in every row and column)</p>
 	 * @param type target type of the casted matrix. Can not be null.
 	 * @return new casted matrix. Can not be null
 	 * @throws CalculationException on any calculation errors.
+	 * @throws IllegalStateException when matrix content can't be represented by the matrix type required.
 	 */
 	GateMatrix cast(GateMatrixType type) throws CalculationException;
 
+	/**
+	 * <p>Get the cheapest equivalent representation of the matrix by it's actual content. Permutation matrix (exactly one 1+0i value 
+	 * in every row and column) is represented as {@linkplain GateMatrixType#COMMITATION_MATRIX}, matrix with low fill ratio is 
+	 * represented as {@linkplain GateMatrixType#SPARSE_MATRIX}, and any other matrix is represented as {@linkplain GateMatrixType#DENSE_MATRIX}.
+	 * Content of the matrix is inspected in one pass. Typical use is to optimize every product of the gate pipeline:</p>
+	 * <pre>
+	 * state = gate.multiply(state).optimize();
+	 * </pre>
+	 * @return optimized matrix. Returns the matrix itself when it's representation is already the cheapest one. Can not be null
+	 * @throws CalculationException on any calculation errors.
+	 */
+	GateMatrix optimize() throws CalculationException;
+
 	/**
 	 * <p>Execute callback for each matrix cell. When fast mode is off, process all matrix cells, when false node is on,
 	 * process only non-zero matrix elements</p> 
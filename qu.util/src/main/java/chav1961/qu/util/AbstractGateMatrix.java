@@ -5,6 +5,8 @@ import java.io.DataInput;
 
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import chav1961.purelib.basic.exceptions.CalculationException;
 import chav1961.qu.api.interfaces.GateMatrix;
@@ -12,7 +14,10 @@ import chav1961.qu.api.interfaces.GateMatrixType;
 import chav1961.qu.api.interfaces.Piece;
 
 public abstract class AbstractGateMatrix implements GateMatrix {
-	private static final int	NUMBER_OF_PROCESSORS = Runtime.getRuntime().availableProcessors();
+	/**
+	 * <p>Minimal number of elementary operations to process in one parallel task. Smaller pieces of work are processed serially.</p>
+	 */
+	protected static final long	SERIAL_THRESHOLD = 1 << 16;
 	
 	private final GateMatrixType	type;
 	private final long			width;
@@ -20,6 +25,7 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 	private final boolean		parallelModeEnable;
 	private boolean				parallelMode = false;
 	private boolean				fastMode = false;
+	private ParallelContext		parallelContext = ParallelContext.COMMON;
 
 	protected static enum ComplexOp {
 		ADD,
@@ -52,6 +58,8 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 	public abstract void close() throws CalculationException;
 	protected abstract void downloadInternal(Piece piece, DataInput in, ForEachCallback callback) throws IOException;
 	protected abstract void uploadInternal(Piece piece, DataOutput out, ForEachCallback callback) throws IOException;
+	protected abstract void extractInternal(Piece piece, float[] target, int offset) throws CalculationException;
+	protected abstract void extractInternal(Piece piece, double[] target, int offset) throws CalculationException;
 	
 	protected abstract GateMatrix multiplyInternal(GateMatrix another) throws CalculationException;
 	protected abstract GateMatrix multiplyAndTransposeInternal(GateMatrix another) throws CalculationException;
@@ -64,7 +72,61 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 	protected abstract GateMatrix transposeInternalP() throws CalculationException;
 	protected abstract GateMatrix reduceInternalP(int qubitNo, int qubitValue) throws CalculationException;
 	protected abstract void forEachInternalP(Piece piece, ForEachCallback callback) throws CalculationException;
-	
+
+	/*
+	 * Matrices which can't calculate result into the target directly calculate new result and store it into the target, see GateMatrixCasts
+	 */
+	protected GateMatrix multiplyIntoInternal(GateMatrix another, GateMatrix target) throws CalculationException {
+		return storeInto(multiplyInternal(another), target, false);
+	}
+
+	protected GateMatrix multiplyAndTransposeIntoInternal(GateMatrix another, GateMatrix target) throws CalculationException {
+		return storeInto(multiplyAndTransposeInternal(another), target, false);
+	}
+
+	protected GateMatrix transposeIntoInternal(GateMatrix target) throws CalculationException {
+		return storeInto(transposeInternal(), target, false);
+	}
+
+	protected GateMatrix reduceIntoInternal(int qubitNo, int qubitValue, GateMatrix target) throws CalculationException {
+		return storeInto(reduceInternal(qubitNo, qubitValue), target, false);
+	}
+
+	protected GateMatrix multiplyIntoInternalP(GateMatrix another, GateMatrix target) throws CalculationException {
+		return multiplyIntoInternal(another, target);
+	}
+
+	protected GateMatrix multiplyAndTransposeIntoInternalP(GateMatrix another, GateMatrix target) throws CalculationException {
+		return multiplyAndTransposeIntoInternal(another, target);
+	}
+
+	protected GateMatrix transposeIntoInternalP(GateMatrix target) throws CalculationException {
+		return transposeIntoInternal(target);
+	}
+
+	protected GateMatrix reduceIntoInternalP(int qubitNo, int qubitValue, GateMatrix target) throws CalculationException {
+		return reduceIntoInternal(qubitNo, qubitValue, target);
+	}
+
+	/*
+	 * Generic casts read the matrix row-by-row, see GateMatrixCasts. Implementations override them when they can convert their content directly
+	 */
+	protected GateMatrix castInternal(GateMatrixType type) throws CalculationException {
+		return GateMatrixCasts.cast(this, type, false);
+	}
+
+	protected GateMatrix castInternalP(GateMatrixType type) throws CalculationException {
+		return GateMatrixCasts.cast(this, type, true);
+	}
+
+	protected GateMatrix optimizeInternal() throws CalculationException {
+		return GateMatrixCasts.optimize(this, false);
+	}
+
+	protected GateMatrix optimizeInternalP() throws CalculationException {
+		return GateMatrixCasts.optimize(this, true);
+	}
+
 	@Override
 	public long getWidth() {
 		return width;
@@ -116,6 +178,32 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 		}
 	}
 	
+	/**
+	 * <p>Get parallel context of the matrix</p>
+	 * @return parallel context. Can't be null
+	 */
+	public ParallelContext getParallelContext() {
+		return parallelContext;
+	}
+
+	/**
+	 * <p>Set parallel context of the matrix. All the parallel calculations of the matrix will be executed in the context pool, and all the 
+	 * matrices created by the calculations will inherit the context</p>
+	 * @param context context to set. Can't be null
+	 * @return previous context
+	 */
+	public ParallelContext setParallelContext(final ParallelContext context) {
+		if (context == null) {
+			throw new NullPointerException("Parallel context can't be null");
+		}
+		else {
+			final ParallelContext	result = parallelContext;
+			
+			this.parallelContext = context;
+			return result;
+		}
+	}
+	
 	@Override
 	public void download(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
 		if (piece == null || !isPieceValid(piece)) {
@@ -148,6 +236,38 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 		}
 	}
 
+	@Override
+	public void extract(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		if (piece == null || !isPieceValid(piece)) {
+			throw new IllegalArgumentException("Piece is null or not inside the matrix");
+		}
+		else if (target == null) {
+			throw new NullPointerException("Target array can't be null");
+		}
+		else if (offset < 0 || offset + 2 * piece.width() * piece.height() > target.length) {
+			throw new IllegalArgumentException("Target array length ["+target.length+"] is too small to store piece content from offset ["+offset+"]");
+		}
+		else {
+			extractInternal(piece, target, offset);
+		}
+	}
+
+	@Override
+	public void extract(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		if (piece == null || !isPieceValid(piece)) {
+			throw new IllegalArgumentException("Piece is null or not inside the matrix");
+		}
+		else if (target == null) {
+			throw new NullPointerException("Target array can't be null");
+		}
+		else if (offset < 0 || offset + 2 * piece.width() * piece.height() > target.length) {
+			throw new IllegalArgumentException("Target array length ["+target.length+"] is too small to store piece content from offset ["+offset+"]");
+		}
+		else {
+			extractInternal(piece, target, offset);
+		}
+	}
+
 	@Override
 	public GateMatrix multiply(final GateMatrix another) throws CalculationException {
 		if (another == null) {
@@ -157,10 +277,30 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 			throw new IllegalArgumentException("Another matrix height ["+another.getHeight()+"] is differ with current matrix width ["+getWidth()+"]");
 		}
 		else if (isParallelMode()){
-			return multiplyInternalP(another);
+			return inherit(multiplyInternalP(another));
 		}
 		else {
-			return multiplyInternal(another);
+			return inherit(multiplyInternal(another));
+		}
+	}
+
+	@Override
+	public GateMatrix multiplyInto(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another == null) {
+			throw new NullPointerException("Another matrix can't be null");
+		}
+		else if (another.getHeight() != getWidth()) {
+			throw new IllegalArgumentException("Another matrix height ["+another.getHeight()+"] is differ with current matrix width ["+getWidth()+"]");
+		}
+		else {
+			checkTarget(target, another.getWidth(), getHeight(), another);
+			
+			if (isParallelMode()){
+				return multiplyIntoInternalP(another, target);
+			}
+			else {
+				return multiplyIntoInternal(another, target);
+			}
 		}
 	}
 
@@ -173,16 +313,42 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 			throw new IllegalArgumentException("Another matrix height ["+another.getHeight()+"] is differ with current matrix width ["+getWidth()+"]");
 		}
 		else if (isParallelMode()){
-			return multiplyAndTransposeInternalP(another);
+			return inherit(multiplyAndTransposeInternalP(another));
 		}
 		else {
-			return multiplyAndTransposeInternal(another);
+			return inherit(multiplyAndTransposeInternal(another));
+		}
+	}
+	
+	@Override
+	public GateMatrix multiplyAndTransposeInto(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another == null) {
+			throw new NullPointerException("Another matrix can't be null");
+		}
+		else if (another.getHeight() != getWidth()) {
+			throw new IllegalArgumentException("Another matrix height ["+another.getHeight()+"] is differ with current matrix width ["+getWidth()+"]");
+		}
+		else {
+			checkTarget(target, getHeight(), another.getWidth(), another);
+			
+			if (isParallelMode()){
+				return multiplyAndTransposeIntoInternalP(another, target);
+			}
+			else {
+				return multiplyAndTransposeIntoInternal(another, target);
+			}
 		}
 	}
 	
 	@Override
 	public GateMatrix transpose() throws CalculationException {
-		return isParallelMode() ? transposeInternalP() :  transposeInternal();
+		return inherit(isParallelMode() ? transposeInternalP() :  transposeInternal());
+	}
+
+	@Override
+	public GateMatrix transposeInto(final GateMatrix target) throws CalculationException {
+		checkTarget(target, getHeight(), getWidth(), this);
+		return isParallelMode() ? transposeIntoInternalP(target) :  transposeIntoInternal(target);
 	}
 	
 	@Override
@@ -197,31 +363,59 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 			throw new IllegalArgumentException("Qubit value ["+qubitValue+"] can be either 0 or 1 only");
 		}
 		else if (isParallelMode()) {
-			return reduceInternalP(qubitNo, qubitValue);
+			return inherit(reduceInternalP(qubitNo, qubitValue));
 		}
 		else {
-			return reduceInternal(qubitNo, qubitValue);
+			return inherit(reduceInternal(qubitNo, qubitValue));
+		}
+	}
+
+	@Override
+	public GateMatrix reduceInto(final int qubitNo, final int qubitValue, final GateMatrix target) throws CalculationException {
+		if (getWidth() != getHeight()) {
+			throw new IllegalStateException("This method is applicable for square matrices only");
+		}
+		else if (qubitNo < 0 || (1L << qubitNo) >= getWidth()) {
+			throw new IllegalArgumentException("Qubit number ["+qubitNo+"] out of range 0.."+logWidth(getWidth()));
+		}
+		else if (qubitValue != 0 && qubitValue != 1) {
+			throw new IllegalArgumentException("Qubit value ["+qubitValue+"] can be either 0 or 1 only");
+		}
+		else {
+			checkTarget(target, getWidth() / 2, getHeight() / 2, this);
+			
+			if (isParallelMode()) {
+				return reduceIntoInternalP(qubitNo, qubitValue, target);
+			}
+			else {
+				return reduceIntoInternal(qubitNo, qubitValue, target);
+			}
 		}
 	}
 
 	@Override
 	public GateMatrix cast(final GateMatrixType type) throws CalculationException {
-		// TODO Auto-generated method stub
 		if (type == null) {
 			throw new NullPointerException("Matrix type can't be null");
 		}
+		else if (type == getType()) {
+			return this;
+		}
+		else if (isParallelMode()) {
+			return inherit(castInternalP(type));
+		}
 		else {
-			switch (type) {
-				case COMMITATION_MATRIX	:
-					break;
-				case DENSE_MATRIX	:
-					break;
-				case SPARSE_MATRIX	:
-					break;
-				default :
-					throw new UnsupportedOperationException("Matrix type ["+type+"] is not supported yet");
-			}
-			return null;
+			return inherit(castInternal(type));
+		}
+	}
+
+	@Override
+	public GateMatrix optimize() throws CalculationException {
+		if (isParallelMode()) {
+			return inherit(optimizeInternalP());
+		}
+		else {
+			return inherit(optimizeInternal());
 		}
 	}
 
@@ -241,6 +435,21 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 		}
 	}
 
+	/*
+	 * Target matrix must have awaited size and must not share content with any operand, because operands are read while target is written
+	 */
+	private void checkTarget(final GateMatrix target, final long width, final long height, final GateMatrix another) {
+		if (target == null) {
+			throw new NullPointerException("Target matrix can't be null");
+		}
+		else if (target == this || target == another) {
+			throw new IllegalArgumentException("Target matrix can't be the same as any of the operands");
+		}
+		else if (target.getWidth() != width || target.getHeight() != height) {
+			throw new IllegalArgumentException("Target matrix size ["+target.getWidth()+"*"+target.getHeight()+"] is differ with awaited size ["+width+"*"+height+"]");
+		}
+	}
+
 	protected boolean isVector() {
 		return isVector(this);
 	}
@@ -253,40 +462,150 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 		return Piece.of(0, 0, matrix.getWidth(), matrix.getHeight());
 	}
 	
-	protected static Piece[] parallelSplit(final Piece source) {
-		if (isVector(source)) {
-			if (source.width() == 1) {
-				return parallelSplitY(source, NUMBER_OF_PROCESSORS);
-			}
-			else {
-				return parallelSplitX(source, NUMBER_OF_PROCESSORS);
-			}
+	/*
+	 * Execute parallel task for the given piece in the pool of the parallel context. Pieces too small to split are processed in the caller thread 
+	 * without any pool interaction, so parallel mode is safe for matrices of any size. 
+	 */
+	protected void invokeTask(final ForkJoinTask<?> task, final Piece piece, final long cellCost) {
+		if (isSplittable(piece, cellCost)) {
+			parallelContext.invoke(task);
 		}
 		else {
-			return parallelSplitX(source, NUMBER_OF_PROCESSORS);
+			task.invoke();
 		}
 	}
 
-	private static Piece[] parallelSplitX(final Piece source, final int counter) {
-		final Piece[]	result = new Piece[counter];
-		final long		step = (source.width() + counter - 1) / counter;
-		int		where = 0;
-		
-		for(long index = source.x(), maxIndex = source.x() + source.width(); index < maxIndex; index += step) {
-			result[where++] = Piece.of(index, source.y(), Math.min(step, maxIndex - index), source.height());
+	/*
+	 * Execute parallel task with the given total number of elementary operations. Used by tasks which split the work by their own cost model
+	 * (for example, by number of non-zero values of the sparse matrix) instead of the piece area.
+	 */
+	protected void invokeTask(final ForkJoinTask<?> task, final long totalCost) {
+		if (totalCost >= 2 * SERIAL_THRESHOLD) {
+			parallelContext.invoke(task);
+		}
+		else {
+			task.invoke();
+		}
+	}
+
+	/*
+	 * Invoke range task (see RangeTask and LongRangeTask). Fork/join framework can wrap exception of the kernel thrown in the another thread,
+	 * so calculation exception is unwrapped and thrown as is.
+	 */
+	protected void invokeRangeTask(final ForkJoinTask<?> task, final long totalCost) throws CalculationException {
+		try {
+			invokeTask(task, totalCost);
+		} catch (RuntimeException exc) {
+			throw unwrap(exc);
+		}
+	}
+
+	/*
+	 * Invoke kernel for the piece. Piece is split by range task into strips across it's longest side. Strip bounds are aligned to the given
+	 * alignment (block size of the tiled kernels). Cell cost is a number of elementary operations to calculate one cell of the piece.
+	 */
+	protected void invokeRangeTask(final Piece piece, final long cellCost, final int alignment, final PieceKernel kernel) throws CalculationException {
+		final long	area = piece.width() * piece.height();
+
+		if (piece.width() >= piece.height()) {
+			final int	strips = (int) ((piece.width() + alignment - 1) / alignment);
+
+			invokeRangeTask(new RangeTask((from, to)->{
+					final long	xFrom = piece.x() + (long) from * alignment, xTo = Math.min(piece.x() + piece.width(), piece.x() + (long) to * alignment);
+
+					kernel.process(Piece.of(xFrom, piece.y(), xTo - xFrom, piece.height()));
+				}, piece.height() * alignment * cellCost, 0, strips), area * cellCost);
+		}
+		else {
+			final int	strips = (int) ((piece.height() + alignment - 1) / alignment);
+
+			invokeRangeTask(new RangeTask((from, to)->{
+					final long	yFrom = piece.y() + (long) from * alignment, yTo = Math.min(piece.y() + piece.height(), piece.y() + (long) to * alignment);
+
+					kernel.process(Piece.of(piece.x(), yFrom, piece.width(), yTo - yFrom));
+				}, piece.width() * alignment * cellCost, 0, strips), area * cellCost);
+		}
+	}
+
+	/*
+	 * Join range task forked before
+	 */
+	protected static void joinRangeTask(final ForkJoinTask<?> task) throws CalculationException {
+		try {
+			task.join();
+		} catch (RuntimeException exc) {
+			throw unwrap(exc);
+		}
+	}
+
+	/*
+	 * Store result into the target and release the result
+	 */
+	protected static GateMatrix storeInto(final GateMatrix result, final GateMatrix target, final boolean parallel) throws CalculationException {
+		try {
+			return GateMatrixCasts.copyInto((AbstractGateMatrix)result, target, parallel);
+		} finally {
+			result.close();
+		}
+	}
+
+	/*
+	 * Matrices created by any operation inherit parallel context of the source matrix 
+	 */
+	protected GateMatrix inherit(final GateMatrix result) {
+		if (result instanceof AbstractGateMatrix) {
+			((AbstractGateMatrix)result).parallelContext = parallelContext;
 		}
 		return result;
 	}
-	
-	private static Piece[] parallelSplitY(final Piece source, final int counter) {
-		final Piece[]	result = new Piece[counter];
-		final long		step = (source.height() + counter - 1) / counter;
-		int		where = 0;
+
+	/*
+	 * Piece can be split when amount of elementary operations to process it exceeds twice serial threshold. Cell cost is a number of elementary
+	 * operations to calculate one cell of the piece (for example, depth of the matrix multiplication)
+	 */
+	protected static boolean isSplittable(final Piece piece, final long cellCost) {
+		final long	area = piece.width() * piece.height();
 		
-		for(long index = source.y(), maxIndex = source.y() + source.height(); index < maxIndex; index += step) {
-			result[where++] = Piece.of(source.x(), index, source.width(), Math.min(step, maxIndex - index));
+		return area > 1 && area * cellCost >= 2 * SERIAL_THRESHOLD;
+	}
+
+	/*
+	 * Split piece into two halves across it's longest side. Split point is aligned to the given alignment (block size of the tiled kernels)
+	 * when possible.
+	 */
+	protected static Piece[] splitPiece(final Piece piece, final long alignment) {
+		if (piece.width() >= piece.height()) {
+			return splitPieceX(piece, alignment);
 		}
-		return result;
+		else {
+			final long	half = alignedHalf(piece.height(), alignment);
+			
+			return new Piece[] {Piece.of(piece.x(), piece.y(), piece.width(), half), Piece.of(piece.x(), piece.y() + half, piece.width(), piece.height() - half)};
+		}
+	}
+
+	/*
+	 * Split piece into two column strips. Piece width must be greater than 1.
+	 */
+	protected static Piece[] splitPieceX(final Piece piece, final long alignment) {
+		final long	half = alignedHalf(piece.width(), alignment);
+		
+		return new Piece[] {Piece.of(piece.x(), piece.y(), half, piece.height()), Piece.of(piece.x() + half, piece.y(), piece.width() - half, piece.height())};
+	}
+
+	/*
+	 * Number of indices in the 0..index-1 range which have the given qubit value. Used to calculate target position of the reduced strips. 
+	 */
+	protected static long countReduced(final long index, final long mask, final long val) {
+		final long	period = mask << 1, rest = index & (period - 1);
+		
+		return (index / period) * mask + (val == 0 ? Math.min(rest, mask) : Math.max(0, rest - mask));
+	}
+	
+	private static long alignedHalf(final long size, final long alignment) {
+		final long	half = size / 2, aligned = half - half % alignment;
+		
+		return aligned > 0 ? aligned : half;
 	}
 	
 	protected static boolean isVector(final GateMatrix matrix) {
@@ -297,6 +616,15 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 		return piece.width() == 1 || piece.height() == 1; 
 	}
 
+	private static RuntimeException unwrap(final RuntimeException exc) throws CalculationException {
+		for (Throwable cause = exc; cause != null; cause = cause.getCause()) {
+			if (cause instanceof CalculationException) {
+				throw (CalculationException)cause;
+			}
+		}
+		return exc;
+	}
+
 	private boolean isPieceValid(final Piece piece) {
 		if (piece.x() < 0 || piece.x() >= getWidth()) {
 			return false;
@@ -323,4 +651,100 @@ public abstract class AbstractGateMatrix implements GateMatrix {
 		}
 		return "0";
 	}
+
+	/**
+	 * <p>Kernel to process range of rows</p>
+	 */
+	@FunctionalInterface
+	protected static interface RangeKernel {
+		void process(int from, int to) throws CalculationException;
+	}
+
+	/**
+	 * <p>Task to process range of rows. Range is split into halves until the rest of work is less than {@linkplain #SERIAL_THRESHOLD}.
+	 * {@linkplain CalculationException} thrown by the kernel completes the task exceptionally, so it's thrown by the invoking thread. Use
+	 * {@linkplain #invokeRangeTask(ForkJoinTask, long)} and {@linkplain #joinRangeTask(ForkJoinTask)} to get it as is.</p>
+	 */
+	protected static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final RangeKernel	kernel;
+		private final long			cellCost;
+		private final int			from;
+		private final int			to;
+		
+		protected RangeTask(final RangeKernel kernel, final long cellCost, final int from, final int to) {
+			this.kernel = kernel;
+			this.cellCost = cellCost;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1 && (to - from) * cellCost >= 2 * SERIAL_THRESHOLD) {
+				final int	half = (from + to) >>> 1;
+				
+				invokeAll(new RangeTask(kernel, cellCost, from, half), new RangeTask(kernel, cellCost, half, to));
+			}
+			else {
+				try {
+					kernel.process(from, to);
+				} catch (CalculationException e) {
+					completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>Kernel to process piece of the matrix</p>
+	 */
+	@FunctionalInterface
+	protected static interface PieceKernel {
+		void process(Piece piece) throws CalculationException;
+	}
+
+	/**
+	 * <p>Kernel to process range of rows of the long-indexed matrices</p>
+	 */
+	@FunctionalInterface
+	protected static interface LongRangeKernel {
+		void process(long from, long to) throws CalculationException;
+	}
+
+	/**
+	 * <p>Long-indexed version of the {@linkplain RangeTask}</p>
+	 */
+	protected static class LongRangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final LongRangeKernel	kernel;
+		private final long				cellCost;
+		private final long				from;
+		private final long				to;
+
+		protected LongRangeTask(final LongRangeKernel kernel, final long cellCost, final long from, final long to) {
+			this.kernel = kernel;
+			this.cellCost = cellCost;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1 && (to - from) * cellCost >= 2 * SERIAL_THRESHOLD) {
+				final long	half = (from + to) >>> 1;
+
+				invokeAll(new LongRangeTask(kernel, cellCost, from, half), new LongRangeTask(kernel, cellCost, half, to));
+			}
+			else {
+				try {
+					kernel.process(from, to);
+				} catch (CalculationException e) {
+					completeExceptionally(e);
+				}
+			}
+		}
+	}
 }
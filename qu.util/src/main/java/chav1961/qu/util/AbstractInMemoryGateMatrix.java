@@ -4,10 +4,28 @@ import chav1961.purelib.basic.exceptions.CalculationException;
 import chav1961.qu.api.interfaces.GateMatrixType;
 
 abstract class AbstractInMemoryGateMatrix extends AbstractGateMatrix {
+	/**
+	 * <p>Max size of the Java array supported by JVM</p>
+	 */
+	protected static final int	MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
 	AbstractInMemoryGateMatrix(final GateMatrixType type, final long width, final long height, final boolean parallelModeOn) {
 		super(type, width, height, parallelModeOn);
 	}
 
+	/*
+	 * Size of the in-memory array to allocate. Sizes exceeding Java array limits are rejected instead of silent int overflow, matrices of such
+	 * sizes need to be backed by chunked arrays (see ChunkedFloatArray)
+	 */
+	protected static int toArraySize(final long size) {
+		if (size < 0 || size > MAX_ARRAY_SIZE) {
+			throw new IllegalArgumentException("Array size ["+size+"] out of range 0.."+MAX_ARRAY_SIZE+". Use chunked (Long...) matrix implementations for such sizes");
+		}
+		else {
+			return (int) size;
+		}
+	}
+
 	@Override
 	public void close() throws CalculationException {
 		// TODO Auto-generated method stub
@@ -1,87 +1,611 @@
 package chav1961.qu.util;
 
-import java.io.DataInput;
-import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import chav1961.purelib.basic.exceptions.CalculationException;
-import chav1961.qu.api.interfaces.GateMatrix;
 import chav1961.qu.api.interfaces.GateMatrixType;
 import chav1961.qu.api.interfaces.Piece;
 
-class AbstractLargeGateMatrix extends AbstractGateMatrix {
+/**
+ * <p>This class is a parent of all file-backed matrices. Matrix content is stored in the file row-by-row, every cell takes
+ * {@value #CELL_SIZE} bytes. File is never mapped as a whole. Instead, it's split into the windows of the bounded size, and every window
+ * is mapped on demand. Window size is aligned to whole rows (row tiles) when the row is shorter than window size, and to cell size
+ * otherwise, so any row segment is either inside the window or split by window bounds into a few pieces.</p>
+ * <p>Mapped windows are kept in the bounded cache with LRU eviction, keyed by window index (index of the row tile, when the row is shorter
+ * than window size). So streaming access to the matrix maps every window only once, and repeated access to the neighbouring pieces reuses
+ * mappings already made. Every window modified is marked as dirty, and dirty windows of the persistent matrix are forced to the file on
+ * eviction and on {@linkplain #close()} call. Windows of the temporary matrix are dropped without forcing, because the file is removed
+ * on closing, and the content modified is kept by the operating system until the window will be mapped again. {@linkplain #flush()}
+ * forces dirty windows of any matrix. Cache hit and miss counters are available to tune window and cache sizes.</p>
+ * <p>Sequential scans read ahead: when the scan enters the next window, a few windows after it (prefetch depth) are mapped into the cache
+ * and loaded into the memory by the background thread, so processing of the current window overlaps with reading of the next ones.
+ * Windows read ahead don't affect hit and miss counters.</p>
+ * <p>Matrix file can be either temporary (it's removed on {@linkplain #close()} call or JVM exit), or persistent. Persistent file is kept
+ * after closing and can be reopened later. Every file starts with the self-describing header of {@value #HEADER_SIZE} bytes (all values are
+ * big-endian):</p>
+ * <ul>
+ * <li>int - magic ({@value #MAGIC})</li>
+ * <li>int - layout version ({@value #LAYOUT_VERSION})</li>
+ * <li>int - byte order of the content (0 - big-endian, 1 - little-endian). Content is always stored in the native byte order</li>
+ * <li>int - matrix type ({@linkplain GateMatrixType} ordinal)</li>
+ * <li>int - value class (0 - float, 1 - double)</li>
+ * <li>int - cell size (in bytes)</li>
+ * <li>long - matrix width</li>
+ * <li>long - matrix height</li>
+ * </ul>
+ * <p>Rest of the header is reserved and filled with zeroes. Opening the file reads the header only, and the content is mapped lazily
+ * window by window, when it's required.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+abstract class AbstractLargeGateMatrix extends AbstractGateMatrix {
+	/**
+	 * <p>Size of the matrix cell in the file (in bytes)</p>
+	 */
+	protected static final int	CELL_SIZE = 8;
+
+	/**
+	 * <p>Size of the file header (in bytes). Content of the matrix starts immediately after the header</p>
+	 */
+	protected static final int	HEADER_SIZE = 64;
+
+	/**
+	 * <p>Magic of the matrix file</p>
+	 */
+	protected static final int	MAGIC = 0x51754D78;
+
+	/**
+	 * <p>Layout version of the matrix file</p>
+	 */
+	protected static final int	LAYOUT_VERSION = 1;
+
+	/**
+	 * <p>Default size of the window mapped (in bytes)</p>
+	 */
+	protected static final long	DEFAULT_WINDOW_SIZE = 64L << 20;
+
+	/**
+	 * <p>Default max number of windows mapped at the same time</p>
+	 */
+	protected static final int	DEFAULT_CACHE_SIZE = 16;
+
+	/**
+	 * <p>Default number of windows to read ahead</p>
+	 */
+	protected static final int	DEFAULT_PREFETCH_DEPTH = 2;
+
+	private static final ExecutorService	PREFETCHER = Executors.newSingleThreadExecutor((r)->{
+												final Thread	t = new Thread(r, "LargeGateMatrixPrefetcher");
+												
+												t.setDaemon(true);
+												return t;
+											});
+
+	private static final Class<?>[]	VALUE_CLASSES = {float.class, double.class};
+
 	private final File			file;
+	private final boolean		temporary;
 	private final FileChannel	channel;
-	
-	protected AbstractLargeGateMatrix(final GateMatrixType type, final long width, final long height) throws CalculationException {
-		super(type, width, height);
+	private final long			contentSize;
+	private final long			windowSize;
+	private final LinkedHashMap<Long, Window>	windows = new LinkedHashMap<>(DEFAULT_CACHE_SIZE, 0.75f, true);
+	private final Set<Long>		pending = new HashSet<>();
+	private int					cacheSize = DEFAULT_CACHE_SIZE;
+	private int					prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+	private long				lastReadAhead = -1;
+	private long				hits = 0, misses = 0;
+
+	/**
+	 * <p>Create new matrix in the temporary file</p>
+	 * @param type matrix type
+	 * @param valueClass value class of the matrix
+	 * @param width matrix width
+	 * @param height matrix height
+	 * @param parallelModeOn enable parallel mode
+	 * @param windowSize window size (in bytes)
+	 * @throws CalculationException on any I/O errors
+	 */
+	protected AbstractLargeGateMatrix(final GateMatrixType type, final Class<?> valueClass, final long width, final long height, final boolean parallelModeOn, final long windowSize) throws CalculationException {
+		this(type, valueClass, null, width, height, parallelModeOn, windowSize);
+	}
+
+	/**
+	 * <p>Create new matrix in the given file. File must not exist</p>
+	 * @param type matrix type
+	 * @param valueClass value class of the matrix
+	 * @param file file to create matrix in. Null means temporary file
+	 * @param width matrix width
+	 * @param height matrix height
+	 * @param parallelModeOn enable parallel mode
+	 * @param windowSize window size (in bytes)
+	 * @throws CalculationException on any I/O errors
+	 */
+	protected AbstractLargeGateMatrix(final GateMatrixType type, final Class<?> valueClass, final File file, final long width, final long height, final boolean parallelModeOn, final long windowSize) throws CalculationException {
+		super(type, width, height, parallelModeOn);
+		this.contentSize = width * height * CELL_SIZE;
+		this.windowSize = alignWindowSize(width, windowSize);
+		this.temporary = file == null;
 		try {
-			this.file = File.createTempFile("temp", ".matrix");
-			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE);
-			this.file.deleteOnExit();
+			if (temporary) {
+				this.file = File.createTempFile("temp", ".matrix");
+				this.file.deleteOnExit();
+				this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			else {
+				this.file = file;
+				this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+			}
+			writeHeader(channel, type, valueClass, width, height);
+			// Write the last byte to allocate the whole file. Unwritten file content is sparse and filled with zeroes
+			this.channel.write(ByteBuffer.allocate(1), HEADER_SIZE + contentSize - 1);
 		} catch (IOException e) {
 			throw new CalculationException(e);
 		}
 	}
 
-	@Override
-	protected void downloadInternal(Piece piece, DataInput in) throws IOException {
-		// TODO Auto-generated method stub
-		
+	/**
+	 * <p>Open matrix in the existing file. Header of the file must be read by {@linkplain #readHeader(File, GateMatrixType, Class)} before.
+	 * Nothing is mapped on opening</p>
+	 * @param header header of the file
+	 * @param file file to open matrix in
+	 * @param parallelModeOn enable parallel mode
+	 * @param windowSize window size (in bytes)
+	 * @throws CalculationException on any I/O errors
+	 */
+	protected AbstractLargeGateMatrix(final Header header, final File file, final boolean parallelModeOn, final long windowSize) throws CalculationException {
+		super(header.type, header.width, header.height, parallelModeOn);
+		this.contentSize = header.width * header.height * CELL_SIZE;
+		this.windowSize = alignWindowSize(header.width, windowSize);
+		this.temporary = false;
+		this.file = file;
+		try {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			final long	size = channel.size();
+
+			if (size < HEADER_SIZE + contentSize) {
+				channel.close();
+				throw new IOException("File ["+file+"] is truncated: size ["+size+"] is less than awaited ["+(HEADER_SIZE + contentSize)+"]");
+			}
+		} catch (IOException e) {
+			throw new CalculationException(e);
+		}
 	}
 
+	/**
+	 * <p>Close the matrix. Cache is evicted and the channel is closed under the matrix lock, so windows being read ahead will never be mapped
+	 * after closing. Repeated call of the method is ignored</p>
+	 */
 	@Override
-	protected void uploadInternal(Piece piece, DataOutput out) throws IOException {
-		// TODO Auto-generated method stub
-		
+	public void close() throws CalculationException {
+		try {
+			synchronized(this) {
+				if (!channel.isOpen()) {
+					return;
+				}
+				else {
+					evict(0);
+					if (!temporary) {
+						channel.force(true);
+					}
+					channel.close();
+				}
+			}
+			if (temporary) {
+				file.delete();
+			}
+		} catch (IOException e) {
+			throw new CalculationException(e);
+		}
 	}
 
-	@Override
-	protected GateMatrix multiplyInternal(GateMatrix another) {
-		// TODO Auto-generated method stub
-		return null;
+	/**
+	 * <p>Get file of the matrix</p>
+	 * @return file of the matrix. Can't be null
+	 */
+	public File getFile() {
+		return file;
 	}
 
-	@Override
-	protected GateMatrix multiplyAndTransposeInternal(GateMatrix another) {
-		// TODO Auto-generated method stub
-		return null;
+	/**
+	 * <p>Is matrix file temporary</p>
+	 * @return true if matrix file will be removed on closing
+	 */
+	public boolean isTemporary() {
+		return temporary;
 	}
 
-	@Override
-	protected GateMatrix transposeInternal() {
-		// TODO Auto-generated method stub
-		return null;
+	/**
+	 * <p>Force all the modified windows to the file. Windows remain mapped</p>
+	 */
+	public synchronized void flush() {
+		for (Window window : windows.values()) {
+			window.force();
+		}
 	}
 
-	@Override
-	protected GateMatrix reduceInternal(int qubitNo, int qubitValue) {
-		// TODO Auto-generated method stub
-		return null;
+	/**
+	 * <p>Get max number of windows mapped at the same time</p>
+	 * @return max number of windows mapped
+	 */
+	public synchronized int getCacheSize() {
+		return cacheSize;
 	}
 
-	@Override
-	protected void forEachInternal(Piece piece, ForEachCallback callback) throws CalculationException {
-		// TODO Auto-generated method stub
-		
+	/**
+	 * <p>Set max number of windows mapped at the same time. Least recently used windows exceeding new size are evicted immediately</p>
+	 * @param size max number of windows mapped. Must be positive
+	 * @return previous cache size
+	 */
+	public synchronized int setCacheSize(final int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Cache size ["+size+"] must be greater than 0");
+		}
+		else {
+			final int	result = cacheSize;
+
+			cacheSize = size;
+			evict(size);
+			return result;
+		}
 	}
 
-	@Override
-	public void close() throws CalculationException {
-		// TODO Auto-generated method stub
+	/**
+	 * <p>Get number of windows to read ahead</p>
+	 * @return number of windows to read ahead. 0 means read ahead is off
+	 */
+	public synchronized int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * <p>Set number of windows to read ahead. Windows are read ahead into the cache, so effective depth never exceeds cache size - 1</p>
+	 * @param depth number of windows to read ahead. 0 turns read ahead off. Can't be negative
+	 * @return previous prefetch depth
+	 */
+	public synchronized int setPrefetchDepth(final int depth) {
+		if (depth < 0) {
+			throw new IllegalArgumentException("Prefetch depth ["+depth+"] can't be negative");
+		}
+		else {
+			final int	result = prefetchDepth;
+
+			prefetchDepth = depth;
+			return result;
+		}
+	}
+
+	/**
+	 * <p>Get number of window requests served by the cache</p>
+	 * @return number of cache hits
+	 */
+	public synchronized long getCacheHits() {
+		return hits;
+	}
+
+	/**
+	 * <p>Get number of window requests which required window mapping</p>
+	 * @return number of cache misses
+	 */
+	public synchronized long getCacheMisses() {
+		return misses;
+	}
+
+	/**
+	 * <p>Get window size of the matrix</p>
+	 * @return window size (in bytes). Always aligned to cell size
+	 */
+	protected long getWindowSize() {
+		return windowSize;
+	}
+
+	/**
+	 * <p>Get mapping of the first row of the piece. Mapping returned starts with the (x,y) cell of the piece and ends with either the last cell of
+	 * the piece row or the window bound. Returned buffer is independent of any other buffers returned, so it can be used in parallel. To process
+	 * the whole piece row, call this method for the rest of the row, until the row end will be reached:</p>
+	 * <pre>
+	 * for (long x = piece.x(), maxX = piece.x() + piece.width(); x < maxX; ) {
+	 *    final ByteBuffer	buffer = getMapping(Piece.of(x, y, maxX - x, 1), false);
+	 *
+	 *    // process buffer.remaining() / CELL_SIZE cells
+	 *    x += buffer.remaining() / CELL_SIZE;
+	 * }
+	 * </pre>
+	 * @param piece piece to get mapping for. Only first row of the piece is mapped
+	 * @param modify true if the mapping will be modified. Window of the mapping is marked as dirty
+	 * @return mapping of the first row of the piece (or it's part) in the native byte order
+	 * @throws CalculationException on any I/O errors
+	 */
+	protected ByteBuffer getMapping(final Piece piece, final boolean modify) throws CalculationException {
+		final long	from = toOffset(piece.x(), piece.y()), to = from + piece.width() * CELL_SIZE;
+		final long	index = from / windowSize, windowStart = index * windowSize;
+		final ByteBuffer	window = getWindow(index, modify).duplicate();
+
+		window.limit((int) (Math.min(to, windowStart + window.capacity()) - windowStart)).position((int) (from - windowStart));
+		return window.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * <p>Read row segment from the matrix. Nothing is read ahead, so sequential scans must call {@linkplain #readAhead(long, long)} themselves</p>
+	 * @param x first cell of the row segment
+	 * @param y row of the row segment
+	 * @param target array to read interleaved real and image values to
+	 * @param offset offset in the array
+	 * @param count number of cells to read
+	 * @throws CalculationException on any I/O errors
+	 */
+	protected void read(final long x, final long y, final float[] target, final int offset, final int count) throws CalculationException {
+		for (long current = x, maxX = x + count; current < maxX; ) {
+			final ByteBuffer	buffer = getMapping(Piece.of(current, y, maxX - current, 1), false);
+			final int			cells = buffer.remaining() / CELL_SIZE;
+
+			buffer.asFloatBuffer().get(target, (int) (offset + 2 * (current - x)), 2 * cells);
+			current += cells;
+		}
+	}
+
+	/**
+	 * <p>Notify the matrix that sequential scan reached the (x,y) cell and will continue forward. When the cell is in the other window than
+	 * the previous notification had, next windows are scheduled to read ahead. Notifications inside the same window are ignored, so
+	 * it's cheap to call this method for every row of the scan</p>
+	 * @param x cell reached
+	 * @param y row of the cell reached
+	 */
+	protected synchronized void readAhead(final long x, final long y) {
+		final long	index = toOffset(x, y) / windowSize;
+
+		if (index != lastReadAhead) {
+			final long	last = Math.min(index + Math.min(prefetchDepth, cacheSize - 1), (contentSize - 1) / windowSize);
+
+			lastReadAhead = index;
+			for (long next = index + 1; next <= last; next++) {
+				if (!windows.containsKey(next) && pending.add(next)) {
+					final long	windowIndex = next;
+
+					PREFETCHER.execute(()->prefetch(windowIndex));
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>Write row segment to the matrix</p>
+	 * @param x first cell of the row segment
+	 * @param y row of the row segment
+	 * @param source array to write interleaved real and image values from
+	 * @param offset offset in the array
+	 * @param count number of cells to write
+	 * @throws CalculationException on any I/O errors
+	 */
+	protected void write(final long x, final long y, final float[] source, final int offset, final int count) throws CalculationException {
+		for (long current = x, maxX = x + count; current < maxX; ) {
+			final ByteBuffer	buffer = getMapping(Piece.of(current, y, maxX - current, 1), true);
+			final int			cells = buffer.remaining() / CELL_SIZE;
+
+			buffer.asFloatBuffer().put(source, (int) (offset + 2 * (current - x)), 2 * cells);
+			current += cells;
+		}
+	}
+
+	/**
+	 * <p>Copy the whole matrix content to another matrix with the same content size. Content is copied by the channels, without any mapping</p>
+	 * @param target matrix to copy content to
+	 * @throws CalculationException on any I/O errors
+	 */
+	protected void copyContent(final AbstractLargeGateMatrix target) throws CalculationException {
 		try {
-			channel.close();
-			file.delete();
+			target.channel.position(HEADER_SIZE);
+			for (long position = 0; position < contentSize; ) {
+				position += channel.transferTo(HEADER_SIZE + position, contentSize - position, target.channel);
+			}
 		} catch (IOException e) {
 			throw new CalculationException(e);
 		}
 	}
-	
-	protected MappedByteBuffer getMapping(final Piece piece) throws CalculationException {
-		return null;
+
+	/**
+	 * <p>Read and validate header of the matrix file</p>
+	 * @param file file to read header from
+	 * @param type matrix type awaited
+	 * @param valueClass value class awaited
+	 * @return header read
+	 * @throws CalculationException on any I/O errors or when the file doesn't contain matrix awaited
+	 */
+	protected static Header readHeader(final File file, final GateMatrixType type, final Class<?> valueClass) throws CalculationException {
+		try(final FileChannel	channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer	buffer = ByteBuffer.allocate(HEADER_SIZE);
+
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			if (buffer.flip().remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+				throw new IOException("File ["+file+"] is not a matrix file");
+			}
+			else {
+				final int		version = buffer.getInt(), order = buffer.getInt(), typeIndex = buffer.getInt(), classIndex = buffer.getInt(), cellSize = buffer.getInt();
+				final long		width = buffer.getLong(), height = buffer.getLong();
+
+				if (version != LAYOUT_VERSION) {
+					throw new IOException("File ["+file+"] has unsupported layout version ["+version+"], only "+LAYOUT_VERSION+" is supported");
+				}
+				else if (order != toOrderCode(ByteOrder.nativeOrder())) {
+					throw new IOException("File ["+file+"] content byte order is differ with native byte order "+ByteOrder.nativeOrder());
+				}
+				else if (typeIndex != type.ordinal() || classIndex != toValueClassCode(valueClass) || cellSize != CELL_SIZE) {
+					throw new IOException("File ["+file+"] doesn't contain "+type+" matrix of "+valueClass+" values");
+				}
+				else if (width <= 0 || height <= 0) {
+					throw new IOException("File ["+file+"] has invalid matrix size ["+width+"*"+height+"]");
+				}
+				else {
+					return new Header(type, width, height);
+				}
+			}
+		} catch (IOException e) {
+			throw new CalculationException(e);
+		}
+	}
+
+	private static void writeHeader(final FileChannel channel, final GateMatrixType type, final Class<?> valueClass, final long width, final long height) throws IOException {
+		final ByteBuffer	buffer = ByteBuffer.allocate(HEADER_SIZE);
+
+		buffer.putInt(MAGIC).putInt(LAYOUT_VERSION).putInt(toOrderCode(ByteOrder.nativeOrder())).putInt(type.ordinal())
+			.putInt(toValueClassCode(valueClass)).putInt(CELL_SIZE).putLong(width).putLong(height).position(0);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, buffer.position());
+		}
+	}
+
+	private static int toOrderCode(final ByteOrder order) {
+		return order == ByteOrder.BIG_ENDIAN ? 0 : 1;
+	}
+
+	private static int toValueClassCode(final Class<?> valueClass) {
+		for (int index = 0; index < VALUE_CLASSES.length; index++) {
+			if (VALUE_CLASSES[index] == valueClass) {
+				return index;
+			}
+		}
+		throw new IllegalArgumentException("Value class ["+valueClass+"] is not supported");
+	}
+
+	/*
+	 * Window is aligned to whole rows when the row is shorter than window, and to cell size otherwise
+	 */
+	private static long alignWindowSize(final long width, final long windowSize) {
+		if (windowSize < CELL_SIZE || windowSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Window size ["+windowSize+"] out of range "+CELL_SIZE+".."+Integer.MAX_VALUE);
+		}
+		else {
+			final long	rowSize = width * CELL_SIZE;
+
+			return rowSize <= windowSize ? windowSize - windowSize % rowSize : windowSize - windowSize % CELL_SIZE;
+		}
+	}
+
+	private long toOffset(final long x, final long y) {
+		return (y * getWidth() + x) * CELL_SIZE;
+	}
+
+	/*
+	 * Get window with the given index from the cache, or map it and place into the cache. Least recently used windows are evicted to keep
+	 * cache size.
+	 */
+	private synchronized MappedByteBuffer getWindow(final long index, final boolean modify) throws CalculationException {
+		Window	window = windows.get(index);
+
+		if (window == null) {
+			misses++;
+			try {
+				window = mapWindow(index);
+			} catch (IOException e) {
+				throw new CalculationException(e);
+			}
+		}
+		else {
+			hits++;
+		}
+		window.dirty |= modify;
+		return window.buffer;
+	}
+
+	/*
+	 * Map window and place it into the cache. Least recently used windows are evicted to keep cache size.
+	 */
+	private Window mapWindow(final long index) throws IOException {
+		final long		windowStart = index * windowSize;
+		final Window	window;
+
+		evict(cacheSize - 1);
+		window = new Window(channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + windowStart, Math.min(windowSize, contentSize - windowStart)));
+		windows.put(index, window);
+		return window;
+	}
+
+	/*
+	 * Read ahead window with the given index. Window is mapped under the matrix lock, but it's content is loaded without any locks. Read ahead
+	 * is a hint only, so window failed to map is skipped, and the error is thrown by the foreground mapping of the window
+	 */
+	private void prefetch(final long index) {
+		final MappedByteBuffer	buffer;
+
+		synchronized(this) {
+			pending.remove(index);
+			if (!channel.isOpen() || windows.containsKey(index)) {
+				return;
+			}
+			else {
+				try {
+					buffer = mapWindow(index).buffer;
+				} catch (IOException e) {
+					return;
+				}
+			}
+		}
+		buffer.load();
+	}
+
+	/*
+	 * Wait until all the windows scheduled to read ahead will be processed
+	 */
+	static void awaitPrefetch() throws InterruptedException, ExecutionException {
+		PREFETCHER.submit(()->{}).get();
+	}
+
+	/*
+	 * Evict least recently used windows until the cache size will be the given one. Dirty windows of the persistent matrix are forced to the
+	 * file before eviction, windows of the temporary matrix are just dropped
+	 */
+	private void evict(final int size) {
+		for (Iterator<Window> iterator = windows.values().iterator(); windows.size() > size && iterator.hasNext(); ) {
+			final Window	window = iterator.next();
+
+			iterator.remove();
+			if (!temporary) {
+				window.force();
+			}
+		}
+	}
+
+	/**
+	 * <p>Header of the matrix file</p>
+	 */
+	protected static class Header {
+		private final GateMatrixType	type;
+		private final long				width;
+		private final long				height;
+
+		private Header(final GateMatrixType type, final long width, final long height) {
+			this.type = type;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	private static class Window {
+		private final MappedByteBuffer	buffer;
+		private boolean					dirty = false;
+
+		private Window(final MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		private void force() {
+			if (dirty) {
+				buffer.force();
+				dirty = false;
+			}
+		}
 	}
 }
@@ -0,0 +1,539 @@
+package chav1961.qu.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+/**
+ * <p>This class is a commutation matrix defined by permutation of the index bits. Bit <b>k</b> of the row index is moved to the bit <b>bits[k]</b>
+ * of the column index where '1' is placed, so qubit SWAP of <b>n</b> qubits is described by the <b>n</b>-element array instead of the 2<sup>n</sup>
+ * index table of the {@linkplain CommutationalInMemoryMatrix}. Column of every row is calculated on demand, only bits really moved by the
+ * permutation are processed. The matrix is immutable, so it doesn't support any download. In the fast mode column numbers are uploaded as int,
+ * or as long when matrix width exceeds {@linkplain Integer#MAX_VALUE}, like {@linkplain LongCommutationalInMemoryMatrix} does.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+public class BitPermutationMatrix extends AbstractInMemoryGateMatrix {
+	private final int[]		bits;
+	private final long		fixedMask;
+	private final int[]		movedFrom;
+	private final int[]		movedTo;
+
+	BitPermutationMatrix(final int[] bits, final boolean parallelModeOn) {
+		super(GateMatrixType.COMMITATION_MATRIX, size(bits), size(bits), parallelModeOn);
+		long	mask = 0;
+		int		moved = 0;
+
+		for (int bit = 0; bit < bits.length; bit++) {
+			if (bits[bit] == bit) {
+				mask |= 1L << bit;
+			}
+			else {
+				moved++;
+			}
+		}
+		this.bits = bits.clone();
+		this.fixedMask = mask;
+		this.movedFrom = new int[moved];
+		this.movedTo = new int[moved];
+		for (int bit = 0, where = 0; bit < bits.length; bit++) {
+			if (bits[bit] != bit) {
+				movedFrom[where] = bit;
+				movedTo[where++] = bits[bit];
+			}
+		}
+	}
+
+	/**
+	 * <p>Create qubit SWAP matrix</p>
+	 * @param numberOfQubits number of qubits. Must be in 1..62 range
+	 * @param first first qubit to swap
+	 * @param second second qubit to swap
+	 * @param parallelModeOn enable parallel mode for the matrix
+	 * @return matrix created. Can't be null
+	 */
+	public static BitPermutationMatrix swap(final int numberOfQubits, final int first, final int second, final boolean parallelModeOn) {
+		if (numberOfQubits <= 0 || numberOfQubits > 62) {
+			throw new IllegalArgumentException("Number of qubits ["+numberOfQubits+"] out of range 1..62");
+		}
+		else if (first < 0 || first >= numberOfQubits) {
+			throw new IllegalArgumentException("First qubit ["+first+"] out of range 0.."+(numberOfQubits-1));
+		}
+		else if (second < 0 || second >= numberOfQubits) {
+			throw new IllegalArgumentException("Second qubit ["+second+"] out of range 0.."+(numberOfQubits-1));
+		}
+		else {
+			final int[]	bits = new int[numberOfQubits];
+
+			for (int bit = 0; bit < bits.length; bit++) {
+				bits[bit] = bit;
+			}
+			bits[first] = second;
+			bits[second] = first;
+			return new BitPermutationMatrix(bits, parallelModeOn);
+		}
+	}
+
+	/**
+	 * <p>Create bit permutation matrix</p>
+	 * @param parallelModeOn enable parallel mode for the matrix
+	 * @param bits bit permutation. Bit k of the row index is moved to the bits[k] bit of the column index. Can't be null and must be a permutation of 0..bits.length-1
+	 * @return matrix created. Can't be null
+	 */
+	public static BitPermutationMatrix of(final boolean parallelModeOn, final int... bits) {
+		return new BitPermutationMatrix(bits, parallelModeOn);
+	}
+
+	@Override
+	public Class<?> getValueClass() {
+		return int.class;
+	}
+
+	/**
+	 * <p>Get bit permutation of the matrix</p>
+	 * @return bit permutation. Bit k of the row index is moved to the bits[k] bit of the column index
+	 */
+	public int[] getBits() {
+		return bits.clone();
+	}
+
+	/*
+	 * Get column of '1' for the given row
+	 */
+	long permute(final long row) {
+		long	result = row & fixedMask;
+
+		for (int index = 0; index < movedFrom.length; index++) {
+			result |= ((row >> movedFrom[index]) & 1L) << movedTo[index];
+		}
+		return result;
+	}
+
+	@Override
+	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
+		throw new UnsupportedOperationException("Bit permutation matrix is immutable and doesn't support download");
+	}
+
+	@Override
+	protected void uploadInternal(final Piece piece, final DataOutput out, final ForEachCallback callback) throws IOException {
+		if (isFastMode()) {
+			final boolean	longColumns = getWidth() > Integer.MAX_VALUE;
+
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				if (longColumns) {
+					out.writeLong(permute(y));
+				}
+				else {
+					out.writeInt((int) permute(y));
+				}
+			}
+		}
+		else {
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				final long	column = permute(y);
+
+				for(long x = piece.x(), maxX = piece.x() + piece.width(); x < maxX; x++) {
+					out.writeBoolean(column == x);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final long	xFrom = piece.x(), xTo = piece.x() + piece.width();
+
+		for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+			final long	column = permute(y);
+
+			if (isFastMode()) {
+				if (column >= xFrom && column < xTo) {
+					callback.process(column, y, 1, 0);
+				}
+			}
+			else {
+				for(long x = xFrom; x < xTo; x++) {
+					callback.process(x, y, column == x ? 1 : 0, 0);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final long	xFrom = piece.x(), xTo = piece.x() + piece.width();
+		final int	size = (int) (2 * piece.width());
+
+		Arrays.fill(target, offset, (int) (offset + size * piece.height()), 0.0f);
+		for(long y = piece.y(), maxY = piece.y() + piece.height(), where = offset; y < maxY; y++, where += size) {
+			final long	column = permute(y);
+
+			if (column >= xFrom && column < xTo) {
+				target[(int) (where + 2 * (column - xFrom))] = 1.0f;
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final long	xFrom = piece.x(), xTo = piece.x() + piece.width();
+		final int	size = (int) (2 * piece.width());
+
+		Arrays.fill(target, offset, (int) (offset + size * piece.height()), 0.0);
+		for(long y = piece.y(), maxY = piece.y() + piece.height(), where = offset; y < maxY; y++, where += size) {
+			final long	column = permute(y);
+
+			if (column >= xFrom && column < xTo) {
+				target[(int) (where + 2 * (column - xFrom))] = 1.0;
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, false);
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, false).transpose();
+	}
+
+	/*
+	 * Transposed bit permutation is an inverse bit permutation
+	 */
+	@Override
+	protected GateMatrix transposeInternal() throws CalculationException {
+		final int[]	inverse = new int[bits.length];
+
+		for (int bit = 0; bit < bits.length; bit++) {
+			inverse[bits[bit]] = bit;
+		}
+		return new BitPermutationMatrix(inverse, isParallelMode());
+	}
+
+	/*
+	 * When the qubit reduced is not moved by the permutation, reduced matrix is a bit permutation of the rest bits. Otherwise some rows kept
+	 * are moved into the columns dropped, so the matrix is materialized and reduced as a commutation matrix.
+	 */
+	@Override
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue, false);
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true);
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true).transpose();
+	}
+
+	@Override
+	protected GateMatrix transposeInternalP() throws CalculationException {
+		return transposeInternal();
+	}
+
+	@Override
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue, true);
+	}
+
+	@Override
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final long	xFrom = piece.x(), width = piece.width();
+
+		execute((from, to)->forEachInternal(Piece.of(xFrom, from, width, to - from), callback), piece.y(), piece.y() + piece.height(), isFastMode() ? 1 : width, true);
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		return multiplyIntoInternal(another, target, false);
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		return multiplyIntoInternal(another, target, true);
+	}
+
+	@Override
+	protected GateMatrix castInternal(final GateMatrixType type) throws CalculationException {
+		return castInternal(type, false);
+	}
+
+	@Override
+	protected GateMatrix castInternalP(final GateMatrixType type) throws CalculationException {
+		return castInternal(type, true);
+	}
+
+	/*
+	 * Cast to the index table is a materialization of the matrix. Any other cast of the long-indexed matrix is a generic one, see GateMatrixCasts
+	 */
+	private GateMatrix castInternal(final GateMatrixType type, final boolean parallel) throws CalculationException {
+		if (type == GateMatrixType.COMMITATION_MATRIX) {
+			return toCommutational(parallel);
+		}
+		else if (getHeight() > MAX_ARRAY_SIZE) {
+			return GateMatrixCasts.cast(this, type, parallel);
+		}
+		else {
+			return ((CommutationalInMemoryMatrix)toCommutational(parallel)).castInternal(type, parallel);
+		}
+	}
+
+	private GateMatrix reduceInternal(final int qubitNo, final int qubitValue, final boolean parallel) throws CalculationException {
+		if (bits.length == 1) {
+			// The only bit is never moved, so 2*2 matrix is an identity one, and it's reduced to 1*1 identity permutation
+			return new CommutationalInMemoryMatrix(1, 1, isParallelMode(), new int[] {0});
+		}
+		else if (bits[qubitNo] == qubitNo) {
+			final int[]	reduced = new int[bits.length - 1];
+
+			for (int bit = 0; bit < bits.length; bit++) {
+				if (bit != qubitNo) {
+					reduced[bit < qubitNo ? bit : bit - 1] = bits[bit] < qubitNo ? bits[bit] : bits[bit] - 1;
+				}
+			}
+			return new BitPermutationMatrix(reduced, isParallelMode());
+		}
+		else {
+			final AbstractGateMatrix	materialized = toCommutational(parallel);
+
+			materialized.setParallelMode(parallel);
+			return materialized.reduce(qubitNo, qubitValue);
+		}
+	}
+
+	/*
+	 * Multiplying by permutation matrix reorders rows of another matrix, so every product is calculated as a pure memory gather. Product of
+	 * two bit permutations is a composition of the bit permutations and doesn't depend on the matrix size. Rows are gathered by the column
+	 * calculated on demand, so index table of the matrix is never built.
+	 */
+	private GateMatrix multiplyInternal(final GateMatrix another, final boolean parallel) throws CalculationException {
+		if (another instanceof BitPermutationMatrix) {
+			final int[]	anotherBits = ((BitPermutationMatrix)another).bits;
+			final int[]	composed = new int[bits.length];
+
+			for (int bit = 0; bit < bits.length; bit++) {
+				composed[bit] = anotherBits[bits[bit]];
+			}
+			return new BitPermutationMatrix(composed, isParallelMode());
+		}
+		else if (another instanceof SparseInMemoryFloatGateMatrix) {
+			return multiplyInternal((SparseInMemoryFloatGateMatrix)another, parallel);
+		}
+		else {
+			final GateMatrix	result = newProduct(another);
+
+			gather(another, result, parallel);
+			return result;
+		}
+	}
+
+	/*
+	 * Gather directly into the target when the target has the product type, otherwise calculate product and copy it into the target
+	 */
+	private GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target, final boolean parallel) throws CalculationException {
+		if (gather(another, target, parallel)) {
+			return target;
+		}
+		else {
+			return storeInto(multiplyInternal(another, parallel), target, parallel);
+		}
+	}
+
+	private GateMatrix newProduct(final GateMatrix another) {
+		if (another instanceof CommutationalInMemoryMatrix) {
+			return new CommutationalInMemoryMatrix(another.getWidth(), getHeight(), isParallelMode());
+		}
+		else if (another instanceof LongCommutationalInMemoryMatrix) {
+			return new LongCommutationalInMemoryMatrix(another.getWidth(), getHeight(), isParallelMode());
+		}
+		else if (another instanceof LongDenseInMemoryFloatGateVector && another.getWidth() == 1) {
+			final ChunkedFloatArray	vector = ((LongDenseInMemoryFloatGateVector)another).getContent();
+
+			return new LongDenseInMemoryFloatGateVector(1, getHeight(), isParallelMode(), new ChunkedFloatArray(vector.length(), vector.getSegmentBits()));
+		}
+		else if (another.getWidth() == 1) {
+			return new DenseInMemoryFloatGateVector(1, getHeight(), isParallelMode());
+		}
+		else {
+			return new DenseInMemoryFloatGateMatrix(another.getWidth(), getHeight(), isParallelMode());
+		}
+	}
+
+	/*
+	 * Gather rows of another matrix into the target. Returns false when the target type differs from the product type
+	 */
+	private boolean gather(final GateMatrix another, final GateMatrix target, final boolean parallel) throws CalculationException {
+		if (another instanceof CommutationalInMemoryMatrix) {
+			if (target instanceof CommutationalInMemoryMatrix) {
+				final int[]	source = ((CommutationalInMemoryMatrix)another).getColumns(), result = ((CommutationalInMemoryMatrix)target).getColumns();
+
+				execute((from, to)->{
+					for (long y = from; y < to; y++) {
+						result[(int) y] = source[(int) permute(y)];
+					}
+				}, 0, result.length, 1, parallel);
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+		else if (another instanceof LongCommutationalInMemoryMatrix) {
+			if (target instanceof LongCommutationalInMemoryMatrix) {
+				final ChunkedLongArray	source = ((LongCommutationalInMemoryMatrix)another).getColumns(), result = ((LongCommutationalInMemoryMatrix)target).getColumns();
+
+				execute((from, to)->{
+					for (long y = from; y < to; y++) {
+						result.set(y, source.get(permute(y)));
+					}
+				}, 0, getHeight(), 1, parallel);
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+		else if (another instanceof LongDenseInMemoryFloatGateVector) {
+			if (target instanceof LongDenseInMemoryFloatGateVector && another.getWidth() == 1) {
+				final ChunkedFloatArray	vector = ((LongDenseInMemoryFloatGateVector)another).getContent(), result = ((LongDenseInMemoryFloatGateVector)target).getContent();
+
+				execute((from, to)->{
+					for (long y = from; y < to; y++) {
+						final long	column = permute(y);
+
+						result.set(2 * y, vector.get(2 * column));
+						result.set(2 * y + 1, vector.get(2 * column + 1));
+					}
+				}, 0, getHeight(), 1, parallel);
+				return true;
+			}
+			else {
+				return false;
+			}
+		}
+		else if (another instanceof BitPermutationMatrix || another instanceof SparseInMemoryFloatGateMatrix) {
+			return false;
+		}
+		else if (target instanceof DenseInMemoryFloatGateVector && another.getWidth() == 1) {
+			final float[]	vector = DenseInMemoryFloatGateMatrix.toVectorContent(another), result = ((DenseInMemoryFloatGateVector)target).getContent();
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					final int	row = (int) y, column = (int) permute(y);
+
+					result[2 * row] = vector[2 * column];
+					result[2 * row + 1] = vector[2 * column + 1];
+				}
+			}, 0, getHeight(), 1, parallel);
+			return true;
+		}
+		else if (target instanceof DenseInMemoryFloatGateMatrix) {
+			final float[][]	rows = DenseInMemoryFloatGateMatrix.toRows(another), result = ((DenseInMemoryFloatGateMatrix)target).getContent();
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					System.arraycopy(rows[(int) permute(y)], 0, result[(int) y], 0, result[(int) y].length);
+				}
+			}, 0, getHeight(), another.getWidth(), parallel);
+			return true;
+		}
+		else {
+			return false;
+		}
+	}
+
+	/*
+	 * Product with sparse matrix is a sparse matrix with the reordered rows, see CommutationalInMemoryMatrix.multiplyInternal(...)
+	 */
+	private GateMatrix multiplyInternal(final SparseInMemoryFloatGateMatrix another, final boolean parallel) throws CalculationException {
+		final int[]		sourcePointers = another.getRowPointers(), sourceColumns = another.getColumns();
+		final float[]	sourceValues = another.getValues();
+		final int		height = (int) getHeight();
+		final int[]		pointers = new int[height + 1];
+
+		for (int y = 0; y < height; y++) {
+			final int	column = (int) permute(y);
+
+			pointers[y + 1] = pointers[y] + sourcePointers[column + 1] - sourcePointers[column];
+		}
+		final int[]		targetColumns = new int[pointers[height]];
+		final float[]	targetValues = new float[2 * targetColumns.length];
+
+		execute((from, to)->{
+			for (long y = from; y < to; y++) {
+				final int	row = (int) y, start = sourcePointers[(int) permute(y)], length = pointers[row + 1] - pointers[row];
+
+				System.arraycopy(sourceColumns, start, targetColumns, pointers[row], length);
+				System.arraycopy(sourceValues, 2 * start, targetValues, 2 * pointers[row], 2 * length);
+			}
+		}, 0, height, Math.max(1, targetColumns.length / height), parallel);
+		return new SparseInMemoryFloatGateMatrix(another.getWidth(), getHeight(), isParallelMode(), pointers, targetColumns, targetValues);
+	}
+
+	/*
+	 * Index table of the matrix. Used for casts and reduces with the moved qubit only, gathers calculate columns on demand. Index table of the
+	 * matrix exceeding Java array size is long-indexed.
+	 */
+	private AbstractGateMatrix toCommutational(final boolean parallel) throws CalculationException {
+		if (getHeight() > MAX_ARRAY_SIZE) {
+			final ChunkedLongArray	columns = new ChunkedLongArray(getHeight());
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					columns.set(y, permute(y));
+				}
+			}, 0, columns.length(), 1, parallel);
+			return new LongCommutationalInMemoryMatrix(getWidth(), getHeight(), isParallelMode(), columns);
+		}
+		else {
+			final int[]	columns = new int[(int) getHeight()];
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					columns[(int) y] = (int) permute(y);
+				}
+			}, 0, columns.length, 1, parallel);
+			return new CommutationalInMemoryMatrix(getWidth(), getHeight(), isParallelMode(), columns);
+		}
+	}
+
+	private void execute(final LongRangeKernel kernel, final long from, final long to, final long cellCost, final boolean parallel) throws CalculationException {
+		if (parallel) {
+			invokeRangeTask(new LongRangeTask(kernel, cellCost, from, to), (to - from) * cellCost);
+		}
+		else {
+			kernel.process(from, to);
+		}
+	}
+
+	private static long size(final int[] bits) {
+		if (bits == null) {
+			throw new NullPointerException("Bits can't be null");
+		}
+		else if (bits.length == 0 || bits.length > 62) {
+			throw new IllegalArgumentException("Number of bits ["+bits.length+"] out of range 1..62");
+		}
+		else {
+			long	used = 0;
+
+			for (int bit : bits) {
+				if (bit < 0 || bit >= bits.length || (used & (1L << bit)) != 0) {
+					throw new IllegalArgumentException("Bits "+Arrays.toString(bits)+" is not a permutation of 0.."+(bits.length-1));
+				}
+				used |= 1L << bit;
+			}
+			return 1L << bits.length;
+		}
+	}
+}
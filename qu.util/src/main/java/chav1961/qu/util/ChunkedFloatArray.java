@@ -0,0 +1,118 @@
+package chav1961.qu.util;
+
+import java.util.Arrays;
+
+/**
+ * <p>This class is a long-indexed float array. It's content is kept in the sequence of the fixed-size segments (2^27 elements by default),
+ * so it's size is limited by available memory only, not by Java array size limit. All the segments except the last one have the same size,
+ * so segment and offset of any element are calculated by shift and mask.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+final class ChunkedFloatArray {
+	/**
+	 * <p>Default segment size (in bits)</p>
+	 */
+	static final int	SEGMENT_BITS = 27;
+
+	private final long		length;
+	private final int		segmentBits;
+	private final long		segmentMask;
+	private final float[][]	segments;
+
+	ChunkedFloatArray(final long length) {
+		this(length, SEGMENT_BITS);
+	}
+
+	ChunkedFloatArray(final long length, final int segmentBits) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Length ["+length+"] can't be negative");
+		}
+		else if (segmentBits <= 0 || segmentBits > 30) {
+			throw new IllegalArgumentException("Segment bits ["+segmentBits+"] out of range 1..30");
+		}
+		else if (((length - 1) >> segmentBits) >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Length ["+length+"] is too long for segment bits ["+segmentBits+"]");
+		}
+		else {
+			this.length = length;
+			this.segmentBits = segmentBits;
+			this.segmentMask = (1L << segmentBits) - 1;
+			this.segments = new float[(int) ((length + segmentMask) >> segmentBits)][];
+
+			for (int index = 0; index < segments.length; index++) {
+				segments[index] = new float[(int) Math.min(1L << segmentBits, length - ((long) index << segmentBits))];
+			}
+		}
+	}
+
+	long length() {
+		return length;
+	}
+
+	int getSegmentBits() {
+		return segmentBits;
+	}
+
+	float get(final long index) {
+		return segments[(int) (index >> segmentBits)][(int) (index & segmentMask)];
+	}
+
+	void set(final long index, final float value) {
+		segments[(int) (index >> segmentBits)][(int) (index & segmentMask)] = value;
+	}
+
+	/*
+	 * Bulk read and write. Content is copied segment-by-segment with System.arraycopy
+	 */
+	void get(final long index, final float[] target, final int offset, final int count) {
+		long	from = index;
+		int		where = offset, rest = count;
+
+		while (rest > 0) {
+			final float[]	segment = segments[(int) (from >> segmentBits)];
+			final int		start = (int) (from & segmentMask), size = Math.min(rest, segment.length - start);
+
+			System.arraycopy(segment, start, target, where, size);
+			from += size;
+			where += size;
+			rest -= size;
+		}
+	}
+
+	void set(final long index, final float[] source, final int offset, final int count) {
+		long	from = index;
+		int		where = offset, rest = count;
+
+		while (rest > 0) {
+			final float[]	segment = segments[(int) (from >> segmentBits)];
+			final int		start = (int) (from & segmentMask), size = Math.min(rest, segment.length - start);
+
+			System.arraycopy(source, where, segment, start, size);
+			from += size;
+			where += size;
+			rest -= size;
+		}
+	}
+
+	void fill(final long from, final long to, final float value) {
+		long	current = from;
+
+		while (current < to) {
+			final float[]	segment = segments[(int) (current >> segmentBits)];
+			final int		start = (int) (current & segmentMask), size = (int) Math.min(to - current, segment.length - start);
+
+			Arrays.fill(segment, start, start + size, value);
+			current += size;
+		}
+	}
+
+	ChunkedFloatArray copy() {
+		final ChunkedFloatArray	result = new ChunkedFloatArray(length, segmentBits);
+
+		for (int index = 0; index < segments.length; index++) {
+			System.arraycopy(segments[index], 0, result.segments[index], 0, segments[index].length);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,56 @@
+package chav1961.qu.util;
+
+/**
+ * <p>This class is a long-indexed long array. It's content is kept in the sequence of the fixed-size segments (2^27 elements by default),
+ * the same way as {@linkplain ChunkedFloatArray} does.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+final class ChunkedLongArray {
+	private final long		length;
+	private final int		segmentBits;
+	private final long		segmentMask;
+	private final long[][]	segments;
+
+	ChunkedLongArray(final long length) {
+		this(length, ChunkedFloatArray.SEGMENT_BITS);
+	}
+
+	ChunkedLongArray(final long length, final int segmentBits) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Length ["+length+"] can't be negative");
+		}
+		else if (segmentBits <= 0 || segmentBits > 30) {
+			throw new IllegalArgumentException("Segment bits ["+segmentBits+"] out of range 1..30");
+		}
+		else if (((length - 1) >> segmentBits) >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Length ["+length+"] is too long for segment bits ["+segmentBits+"]");
+		}
+		else {
+			this.length = length;
+			this.segmentBits = segmentBits;
+			this.segmentMask = (1L << segmentBits) - 1;
+			this.segments = new long[(int) ((length + segmentMask) >> segmentBits)][];
+
+			for (int index = 0; index < segments.length; index++) {
+				segments[index] = new long[(int) Math.min(1L << segmentBits, length - ((long) index << segmentBits))];
+			}
+		}
+	}
+
+	long length() {
+		return length;
+	}
+
+	int getSegmentBits() {
+		return segmentBits;
+	}
+
+	long get(final long index) {
+		return segments[(int) (index >> segmentBits)][(int) (index & segmentMask)];
+	}
+
+	void set(final long index, final long value) {
+		segments[(int) (index >> segmentBits)][(int) (index & segmentMask)] = value;
+	}
+}
@@ -3,6 +3,7 @@ package chav1961.qu.util;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
 import chav1961.purelib.basic.exceptions.CalculationException;
 import chav1961.qu.api.interfaces.GateMatrix;
@@ -13,13 +14,17 @@ class CommutationalInMemoryMatrix extends AbstractInMemoryGateMatrix {
 	private final int[]	columns;
 
 	CommutationalInMemoryMatrix(final long width, final long height, boolean parallelModeOn) {
-		this(width, height, parallelModeOn, new int[(int) height]);
+		this(width, height, parallelModeOn, new int[toArraySize(height)]);
 	}
 
-	private CommutationalInMemoryMatrix(final long width, final long height, boolean parallelModeOn, final int[] columns) {
+	CommutationalInMemoryMatrix(final long width, final long height, boolean parallelModeOn, final int[] columns) {
 		super(GateMatrixType.COMMITATION_MATRIX, width, height, parallelModeOn);
 		this.columns = columns;
 	}
+
+	int[] getColumns() {
+		return columns;
+	}
 	
 	@Override
 	protected void downloadInternal(final Piece piece, final DataInput in, ForEachCallback callback) throws IOException {
@@ -61,38 +66,7 @@ class CommutationalInMemoryMatrix extends AbstractInMemoryGateMatrix {
 
 	@Override
 	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException  {
-		// TODO Auto-generated method stub
-		
-		if (another instanceof AbstractInMemoryGateMatrix) {
-			switch (another.getType()) {
-				case COMMITATION_MATRIX	:
-					return multiplyInternal((CommutationalInMemoryMatrix)another);
-				case SPARSE_MATRIX	:
-					if (another.getValueClass() == float.class) {
-						return multiplyInternal((SparseInMemoryFloatGateMatrix)another);
-					}
-					break;
-				case DENSE_MATRIX	:
-					if (another.getValueClass() == float.class) {
-						return multiplyInternal((DenseInMemoryFloatGateMatrix)another);
-					}
-					break;
-				default:
-					throw new UnsupportedOperationException("Matrix type to multiply ["+another.getType()+"] is not supported yet");
-			}
-		}
-		else {
-			final boolean	wasFast = another.setFastMode(false);
-
-			if (isVector(another)) {
-				
-				another.forEach(null);
-			}
-			else {
-			}
-			another.setFastMode(wasFast);
-		}
-		return null;
+		return multiplyInternal(another, false);
 	}
 
 	@Override
@@ -101,49 +75,62 @@ class CommutationalInMemoryMatrix extends AbstractInMemoryGateMatrix {
 	}
 
 	@Override
-	protected GateMatrix transposeInternal() {
-		final int[]	source = columns;
-		final int[]	target = new int[(int) getWidth()];
-		
-		for(int index = 0; index < source.length; index++) {
-			target[source[index]] = index;
-		}
-		return new CommutationalInMemoryMatrix(getHeight(), getWidth(), isParallelMode(), target);
+	protected GateMatrix transposeInternal() throws CalculationException {
+		return transposeInternal(false);
 	}
 
 	@Override
-	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) {
-		final int	mask = 1 << qubitNo;
-		final int	value = qubitValue == 0 ? 0 : mask;
-		final int[]	source = columns;
-		final int[]	target = new int[(int) (getHeight() >> 1)];
-		
-		for(int index = value, where = 0; index < source.length; index+= mask) {
-			if ((index & mask) == value) {
-				target[where++] = source[index];
-			}
-		}
-		return new CommutationalInMemoryMatrix(getHeight(), getWidth(), isParallelMode(), target);
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue, false);
 	}
 
 	@Override
-	protected void forEachInternal(Piece piece, ForEachCallback callback) throws CalculationException {
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
 		final int[]	source = columns;
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
 		
 		if (isFastMode()) {
 			for(int y = (int) piece.y(), maxY = (int) (piece.y()+piece.height()); y < maxY; y++) {
-				callback.process(y, source[y], 1, 0);
+				if (source[y] >= xFrom && source[y] < xTo) {
+					callback.process(source[y], y, 1, 0);
+				}
 			}
 		}
 		else {
 			for(int y = (int) piece.y(), maxY = (int) (piece.y()+piece.height()); y < maxY; y++) {
-				for(int x = (int) piece.x(), maxX = (int) (piece.x()+piece.width()); x < maxX; x++) {
-					callback.process(y, source[y], source[y] == x ? 1 : 0, 0);
+				for(int x = xFrom; x < xTo; x++) {
+					callback.process(x, y, source[y] == x ? 1 : 0, 0);
 				}
 			}
 		}
 	}
 
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final int[]	source = columns;
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width()), size = 2 * (xTo - xFrom);
+		
+		Arrays.fill(target, offset, (int) (offset + size * piece.height()), 0.0f);
+		for(int y = (int) piece.y(), maxY = (int) (piece.y()+piece.height()), where = offset; y < maxY; y++, where += size) {
+			if (source[y] >= xFrom && source[y] < xTo) {
+				target[where + 2 * (source[y] - xFrom)] = 1.0f;
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final int[]	source = columns;
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width()), size = 2 * (xTo - xFrom);
+		
+		Arrays.fill(target, offset, (int) (offset + size * piece.height()), 0.0);
+		for(int y = (int) piece.y(), maxY = (int) (piece.y()+piece.height()), where = offset; y < maxY; y++, where += size) {
+			if (source[y] >= xFrom && source[y] < xTo) {
+				target[where + 2 * (source[y] - xFrom)] = 1.0;
+			}
+		}
+	}
+
 	@Override
 	public void close() throws CalculationException {
 		super.close();
@@ -155,47 +142,325 @@ class CommutationalInMemoryMatrix extends AbstractInMemoryGateMatrix {
 	}
 	
 	@Override
-	protected GateMatrix multiplyInternalP(GateMatrix another) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true);
 	}
 
 	@Override
-	protected GateMatrix multiplyAndTransposeInternalP(GateMatrix another) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true).transpose();
 	}
 
 	@Override
 	protected GateMatrix transposeInternalP() throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+		return transposeInternal(true);
 	}
 
 	@Override
-	protected GateMatrix reduceInternalP(int qubitNo, int qubitValue) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue, true);
 	}
 
 	@Override
-	protected void forEachInternalP(Piece piece, ForEachCallback callback) throws CalculationException {
-		// TODO Auto-generated method stub
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final long	xFrom = piece.x(), width = piece.width();
 		
+		execute((from, to)->forEachInternal(Piece.of(xFrom, from, width, to - from), callback), (int) piece.y(), (int) (piece.y() + piece.height()), isFastMode() ? 1 : width, true);
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		return multiplyIntoInternal(another, target, false);
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		return multiplyIntoInternal(another, target, true);
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternal(final GateMatrix target) throws CalculationException {
+		return transposeIntoInternal(target, false);
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternalP(final GateMatrix target) throws CalculationException {
+		return transposeIntoInternal(target, true);
 	}
 
-	private GateMatrix multiplyInternal(final CommutationalInMemoryMatrix another) throws CalculationException  {
-		// TODO Auto-generated method stub
-		return null;
+	@Override
+	protected GateMatrix castInternal(final GateMatrixType type) throws CalculationException {
+		return castInternal(type, false);
 	}
 
-	private GateMatrix multiplyInternal(final SparseInMemoryFloatGateMatrix another) throws CalculationException  {
-		// TODO Auto-generated method stub
-		return null;
+	@Override
+	protected GateMatrix castInternalP(final GateMatrixType type) throws CalculationException {
+		return castInternal(type, true);
 	}
 
-	private GateMatrix multiplyInternal(final DenseInMemoryFloatGateMatrix another) throws CalculationException  {
-		// TODO Auto-generated method stub
-		return null;
+	/*
+	 * Permutation matrix has implicit 1+0i values, so cast to sparse matrix has exactly one value in every row, and cast to dense matrix
+	 * scatters ones into the zero-filled matrix.
+	 */
+	GateMatrix castInternal(final GateMatrixType type, final boolean parallel) throws CalculationException {
+		switch (type) {
+			case SPARSE_MATRIX	:
+				final int[]		pointers = new int[columns.length + 1];
+				final float[]	values = new float[2 * columns.length];
+				
+				execute((from, to)->{
+					for (int y = from; y < to; y++) {
+						pointers[y + 1] = y + 1;
+						values[2 * y] = 1;
+					}
+				}, 1, parallel);
+				return new SparseInMemoryFloatGateMatrix(getWidth(), getHeight(), isParallelMode(), pointers, columns.clone(), values);
+			case DENSE_MATRIX	:
+				final DenseInMemoryFloatGateMatrix	result = new DenseInMemoryFloatGateMatrix(getWidth(), getHeight(), isParallelMode());
+				final float[][]						rows = result.getContent();
+				
+				execute((from, to)->{
+					for (int y = from; y < to; y++) {
+						rows[y][2 * columns[y]] = 1;
+					}
+				}, 1, parallel);
+				return result;
+			default :
+				return GateMatrixCasts.cast(this, type, parallel);
+		}
+	}
+
+	/*
+	 * Transposed permutation is an inverse permutation. Every row writes it's own target cell, so scatter can be executed in parallel without any locks.
+	 */
+	private GateMatrix transposeInternal(final boolean parallel) throws CalculationException {
+		final int[]	source = columns;
+		final int[]	target = new int[(int) getWidth()];
+		
+		execute((from, to)->inverse(source, target, from, to), 0, source.length, 1, parallel);
+		return new CommutationalInMemoryMatrix(getHeight(), getWidth(), isParallelMode(), target);
+	}
+
+	/*
+	 * Reduce keeps rows and columns with the given qubit value. Target place of every row kept is calculated directly, so compaction can be executed 
+	 * in parallel. When the permutation moves any kept row into the column dropped, reduced matrix has zero rows and can't be a permutation matrix any 
+	 * more, so it's returned as a sparse matrix.  
+	 */
+	private GateMatrix reduceInternal(final int qubitNo, final int qubitValue, final boolean parallel) throws CalculationException {
+		final long	mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final int[]	source = columns;
+		final int[]	target = new int[source.length / 2];
+		int			dropped = 0;
+		
+		execute((from, to)->reduce(source, target, mask, val, from, to), 0, source.length, 1, parallel);
+		for (int value : target) {
+			if (value < 0) {
+				dropped++;
+			}
+		}
+		if (dropped == 0) {
+			return new CommutationalInMemoryMatrix(getWidth() / 2, getHeight() / 2, isParallelMode(), target);
+		}
+		else {
+			final int[]		pointers = new int[target.length + 1];
+			final int[]		sparseColumns = new int[target.length - dropped];
+			final float[]	values = new float[2 * sparseColumns.length];
+			
+			for (int y = 0, where = 0; y < target.length; y++) {
+				if (target[y] >= 0) {
+					sparseColumns[where] = target[y];
+					values[2 * where++] = 1;
+				}
+				pointers[y + 1] = where;
+			}
+			return new SparseInMemoryFloatGateMatrix(getWidth() / 2, getHeight() / 2, isParallelMode(), pointers, sparseColumns, values);
+		}
+	}
+
+	/*
+	 * Multiplying by permutation matrix reorders rows of another matrix: row y of the product is the row columns[y] of another matrix. So every 
+	 * product is calculated as a pure memory gather without any floating point operations.
+	 */
+	GateMatrix multiplyInternal(final GateMatrix another, final boolean parallel) throws CalculationException  {
+		if (another instanceof CommutationalInMemoryMatrix) {
+			return multiplyInternal((CommutationalInMemoryMatrix)another, parallel);
+		}
+		else if (another instanceof BitPermutationMatrix) {
+			final BitPermutationMatrix	permutation = (BitPermutationMatrix)another;
+			final int[]					target = new int[columns.length];
+			
+			execute((from, to)->{
+				for (int y = from; y < to; y++) {
+					target[y] = (int) permutation.permute(columns[y]);
+				}
+			}, 1, parallel);
+			return new CommutationalInMemoryMatrix(another.getWidth(), getHeight(), isParallelMode(), target);
+		}
+		else if (another instanceof SparseInMemoryFloatGateMatrix) {
+			return multiplyInternal((SparseInMemoryFloatGateMatrix)another, parallel);
+		}
+		else if (another.getWidth() == 1) {
+			final float[]						vector = DenseInMemoryFloatGateMatrix.toVectorContent(another);
+			final DenseInMemoryFloatGateVector	result = new DenseInMemoryFloatGateVector(1, getHeight(), isParallelMode());
+			final float[]						target = result.getContent();
+			
+			execute((from, to)->gatherVector(columns, vector, target, from, to), 1, parallel);
+			return result;
+		}
+		else {
+			final float[][]						rows = DenseInMemoryFloatGateMatrix.toRows(another);
+			final DenseInMemoryFloatGateMatrix	result = new DenseInMemoryFloatGateMatrix(another.getWidth(), getHeight(), isParallelMode());
+			final float[][]						target = result.getContent();
+			
+			execute((from, to)->gatherRows(columns, rows, target, from, to), another.getWidth(), parallel);
+			return result;
+		}
+	}
+
+	/*
+	 * Gathers go directly into the target when the target has the product type, otherwise product is calculated and copied into the target.
+	 */
+	private GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target, final boolean parallel) throws CalculationException {
+		if (target instanceof CommutationalInMemoryMatrix && another instanceof CommutationalInMemoryMatrix) {
+			final int[]	source = ((CommutationalInMemoryMatrix)another).columns, result = ((CommutationalInMemoryMatrix)target).columns;
+			
+			execute((from, to)->compose(columns, source, result, from, to), 1, parallel);
+			return target;
+		}
+		else if (target instanceof CommutationalInMemoryMatrix && another instanceof BitPermutationMatrix) {
+			final BitPermutationMatrix	permutation = (BitPermutationMatrix)another;
+			final int[]					result = ((CommutationalInMemoryMatrix)target).columns;
+			
+			execute((from, to)->{
+				for (int y = from; y < to; y++) {
+					result[y] = (int) permutation.permute(columns[y]);
+				}
+			}, 1, parallel);
+			return target;
+		}
+		else if (another instanceof CommutationalInMemoryMatrix || another instanceof BitPermutationMatrix || another instanceof SparseInMemoryFloatGateMatrix) {
+			return storeInto(multiplyInternal(another, parallel), target, parallel);
+		}
+		else if (target instanceof DenseInMemoryFloatGateVector && another.getWidth() == 1) {
+			final float[]	vector = DenseInMemoryFloatGateMatrix.toVectorContent(another), result = ((DenseInMemoryFloatGateVector)target).getContent();
+			
+			execute((from, to)->gatherVector(columns, vector, result, from, to), 1, parallel);
+			return target;
+		}
+		else if (target instanceof DenseInMemoryFloatGateMatrix) {
+			final float[][]	rows = DenseInMemoryFloatGateMatrix.toRows(another), result = ((DenseInMemoryFloatGateMatrix)target).getContent();
+			
+			execute((from, to)->gatherRows(columns, rows, result, from, to), another.getWidth(), parallel);
+			return target;
+		}
+		else {
+			return storeInto(multiplyInternal(another, parallel), target, parallel);
+		}
+	}
+
+	/*
+	 * Inverse permutation is scattered directly into the permutation target
+	 */
+	private GateMatrix transposeIntoInternal(final GateMatrix target, final boolean parallel) throws CalculationException {
+		if (target instanceof CommutationalInMemoryMatrix) {
+			final int[]	source = columns, result = ((CommutationalInMemoryMatrix)target).columns;
+			
+			execute((from, to)->inverse(source, result, from, to), 0, source.length, 1, parallel);
+			return target;
+		}
+		else {
+			return storeInto(transposeInternal(parallel), target, parallel);
+		}
+	}
+
+	/*
+	 * Product of two permutation matrices is a permutation matrix, so it's a gather of the another matrix columns.
+	 */
+	private GateMatrix multiplyInternal(final CommutationalInMemoryMatrix another, final boolean parallel) throws CalculationException  {
+		final int[]	source = another.columns;
+		final int[]	target = new int[columns.length];
+		
+		execute((from, to)->compose(columns, source, target, from, to), 1, parallel);
+		return new CommutationalInMemoryMatrix(another.getWidth(), getHeight(), isParallelMode(), target);
+	}
+
+	/*
+	 * Product with sparse matrix is a sparse matrix with the reordered rows. Row pointers of the product are calculated serially, then rows 
+	 * are copied into their places.
+	 */
+	private GateMatrix multiplyInternal(final SparseInMemoryFloatGateMatrix another, final boolean parallel) throws CalculationException  {
+		final int[]		sourcePointers = another.getRowPointers(), sourceColumns = another.getColumns();
+		final float[]	sourceValues = another.getValues();
+		final int[]		pointers = new int[columns.length + 1];
+		
+		for (int y = 0; y < columns.length; y++) {
+			pointers[y + 1] = pointers[y] + sourcePointers[columns[y] + 1] - sourcePointers[columns[y]];
+		}
+		final int[]		targetColumns = new int[pointers[columns.length]];
+		final float[]	targetValues = new float[2 * targetColumns.length];
+		
+		execute((from, to)->gatherSparse(columns, sourcePointers, sourceColumns, sourceValues, pointers, targetColumns, targetValues, from, to), Math.max(1, targetColumns.length / columns.length), parallel);
+		return new SparseInMemoryFloatGateMatrix(another.getWidth(), getHeight(), isParallelMode(), pointers, targetColumns, targetValues);
+	}
+
+	/*
+	 * Execute kernel for the whole row range. Cell cost is number of elementary operations to process one row.
+	 */
+	private void execute(final RangeKernel kernel, final long cellCost, final boolean parallel) throws CalculationException {
+		execute(kernel, 0, columns.length, cellCost, parallel);
+	}
+
+	private void execute(final RangeKernel kernel, final int from, final int to, final long cellCost, final boolean parallel) throws CalculationException {
+		if (parallel) {
+			invokeRangeTask(new RangeTask(kernel, cellCost, from, to), (to - from) * cellCost);
+		}
+		else {
+			kernel.process(from, to);
+		}
+	}
+	
+	static void compose(final int[] left, final int[] right, final int[] target, final int from, final int to) {
+		for (int index = from; index < to; index++) {
+			target[index] = right[left[index]];
+		}
+	}
+
+	static void inverse(final int[] source, final int[] target, final int from, final int to) {
+		for (int index = from; index < to; index++) {
+			target[source[index]] = index;
+		}
+	}
+
+	/*
+	 * Columns dropped by reduce are marked as -1 in the target
+	 */
+	static void reduce(final int[] source, final int[] target, final long mask, final long val, final int from, final int to) {
+		for (int y = from; y < to; y++) {
+			if ((y & mask) == val) {
+				target[(int) countReduced(y, mask, val)] = (source[y] & mask) == val ? (int) countReduced(source[y], mask, val) : -1;
+			}
+		}
+	}
+
+	static void gatherVector(final int[] columns, final float[] vector, final float[] target, final int from, final int to) {
+		for (int y = from; y < to; y++) {
+			target[2 * y] = vector[2 * columns[y]];
+			target[2 * y + 1] = vector[2 * columns[y] + 1];
+		}
+	}
+
+	static void gatherRows(final int[] columns, final float[][] rows, final float[][] target, final int from, final int to) {
+		for (int y = from; y < to; y++) {
+			System.arraycopy(rows[columns[y]], 0, target[y], 0, target[y].length);
+		}
+	}
+
+	static void gatherSparse(final int[] columns, final int[] sourcePointers, final int[] sourceColumns, final float[] sourceValues, final int[] pointers, final int[] targetColumns, final float[] targetValues, final int from, final int to) {
+		for (int y = from; y < to; y++) {
+			final int	start = sourcePointers[columns[y]], length = pointers[y + 1] - pointers[y];
+			
+			System.arraycopy(sourceColumns, start, targetColumns, pointers[y], length);
+			System.arraycopy(sourceValues, 2 * start, targetValues, 2 * pointers[y], 2 * length);
+		}
 	}
 }
@@ -0,0 +1,94 @@
+package chav1961.qu.util;
+
+/**
+ * <p>This class contains row-wide complex kernels for interleaved (real, image, real, image...) arrays. Complex multiplication
+ * of the interleaved values can't be vectorized directly, because it mixes neighbour array elements. To avoid it, kernels use
+ * a <b>swapped</b> copy of the right operand, where every (real, image) pair is replaced with (-image, real) pair. With such a copy,
+ * complex multiply-and-add is a plain element-wise expression:</p>
+ * <pre>
+ * target[i] += leftReal * right[i] + leftImage * swapped[i]
+ * </pre>
+ * <p>and JIT compiler emits SIMD instructions for it, processing a few complex values per one instruction. All the arrays are
+ * always processed from the 0 index, because JIT compiler can't vectorize loops for possibly overlapped arrays with different
+ * start indices.</p>
+ * <p>Planar (separate real and image arrays) kernels don't need any swapped copies and are vectorized as-is.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+final class ComplexKernels {
+	private ComplexKernels() {
+	}
+
+	/**
+	 * <p>Build swapped copy of the interleaved complex values.</p>
+	 * @param source source values
+	 * @param length number of floats to process. Must be even
+	 * @param swapped target array to store swapped values to
+	 */
+	static void swap(final float[] source, final int length, final float[] swapped) {
+		for (int index = 0; index < length; index += 2) {
+			swapped[index] = -source[index + 1];
+			swapped[index + 1] = source[index];
+		}
+	}
+
+	/**
+	 * <p>Build swapped copy of the interleaved complex values.</p>
+	 * @param source source values
+	 * @param length number of doubles to process. Must be even
+	 * @param swapped target array to store swapped values to
+	 */
+	static void swap(final double[] source, final int length, final double[] swapped) {
+		for (int index = 0; index < length; index += 2) {
+			swapped[index] = -source[index + 1];
+			swapped[index + 1] = source[index];
+		}
+	}
+
+	/**
+	 * <p>Multiply complex value by the interleaved complex row and add result to the target row.</p>
+	 * @param leftReal real part of the complex value
+	 * @param leftImage image part of the complex value
+	 * @param right right row
+	 * @param swapped swapped copy of the right row
+	 * @param target target row
+	 * @param length number of floats to process. Must be even
+	 */
+	static void multiplyAndAdd(final float leftReal, final float leftImage, final float[] right, final float[] swapped, final float[] target, final int length) {
+		for (int index = 0; index < length; index++) {
+			target[index] += leftReal * right[index] + leftImage * swapped[index];
+		}
+	}
+
+	/**
+	 * <p>Multiply complex value by the interleaved complex row and add result to the target row.</p>
+	 * @param leftReal real part of the complex value
+	 * @param leftImage image part of the complex value
+	 * @param right right row
+	 * @param swapped swapped copy of the right row
+	 * @param target target row
+	 * @param length number of doubles to process. Must be even
+	 */
+	static void multiplyAndAdd(final double leftReal, final double leftImage, final double[] right, final double[] swapped, final double[] target, final int length) {
+		for (int index = 0; index < length; index++) {
+			target[index] += leftReal * right[index] + leftImage * swapped[index];
+		}
+	}
+
+	/**
+	 * <p>Multiply complex value by the planar complex row and add result to the target planar row.</p>
+	 * @param leftReal real part of the complex value
+	 * @param leftImage image part of the complex value
+	 * @param rightReal real parts of the right row
+	 * @param rightImage image parts of the right row
+	 * @param targetReal real parts of the target row
+	 * @param targetImage image parts of the target row
+	 * @param length number of complex values to process
+	 */
+	static void multiplyAndAdd(final float leftReal, final float leftImage, final float[] rightReal, final float[] rightImage, final float[] targetReal, final float[] targetImage, final int length) {
+		for (int index = 0; index < length; index++) {
+			targetReal[index] += leftReal * rightReal[index] - leftImage * rightImage[index];
+			targetImage[index] += leftReal * rightImage[index] + leftImage * rightReal[index];
+		}
+	}
+}
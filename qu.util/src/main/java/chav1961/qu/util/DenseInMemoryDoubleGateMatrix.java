@@ -0,0 +1,382 @@
+package chav1961.qu.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+/**
+ * <p>This class is a double-precision dense matrix implementation. It's content is stored row-by-row as interleaved real/image
+ * double values, and all the arithmetic operations are calculated with the double precision.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+public class DenseInMemoryDoubleGateMatrix extends AbstractInMemoryGateMatrix {
+	private static final int	BLOCK_SIZE = 48;
+
+	private final double[][]	content;
+
+	DenseInMemoryDoubleGateMatrix(final long width, final long height, final boolean parallelModeOn) {
+		super(GateMatrixType.DENSE_MATRIX, width, height, parallelModeOn);
+		this.content = new double[toArraySize(height)][toArraySize(2*width)];
+	}
+
+	DenseInMemoryDoubleGateMatrix(final long width, final long height, final boolean parallelModeOn, final double[][] content) {
+		super(GateMatrixType.DENSE_MATRIX, width, height, parallelModeOn);
+		this.content = content;
+	}
+
+	@Override
+	public Class<?> getValueClass() {
+		return double.class;
+	}
+
+	double[][] getContent() {
+		return content;
+	}
+
+	@Override
+	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
+		final double[][]	temp = content;
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			final double[] line = temp[y];
+
+			for(int x = xFrom; x < xTo; x++) {
+				final double	real = in.readDouble();
+				final double	image = in.readDouble();
+
+				try {
+					if (callback.process(x, y, real, image)) {
+						line[2*x] = real;
+						line[2*x+1] = image;
+					}
+				} catch (CalculationException e) {
+					throw new IOException(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void uploadInternal(final Piece piece, final DataOutput out, final ForEachCallback callback) throws IOException {
+		final double[][]	temp = content;
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			final double[] line = temp[y];
+
+			for(int x = xFrom; x < xTo; x++) {
+				final double	real = line[2*x];
+				final double	image = line[2*x+1];
+
+				try {
+					if (callback.process(x, y, real, image)) {
+						out.writeDouble(real);
+						out.writeDouble(image);
+					}
+				} catch (CalculationException e) {
+					throw new IOException(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
+		return multiplyIntoInternal(another, new DenseInMemoryDoubleGateMatrix(another.getWidth(), getHeight(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
+		return multiplyAndTransposeIntoInternal(another, new DenseInMemoryDoubleGateMatrix(getHeight(), another.getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix transposeInternal() throws CalculationException {
+		return transposeIntoInternal(new DenseInMemoryDoubleGateMatrix(getHeight(), getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceIntoInternal(qubitNo, qubitValue, new DenseInMemoryDoubleGateMatrix(getWidth()/2, getHeight()/2, isParallelMode()));
+	}
+
+	@Override
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final double[][]	temp = content;
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			final double[] line = temp[y];
+
+			for(int x = xFrom; x < xTo; x++) {
+				callback.process(x, y, line[2*x], line[2*x+1]);
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final int	xFrom = (int) piece.x(), size = (int) (2 * piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), where = offset; y < maxY; y++) {
+			final double[] line = content[y];
+
+			for(int x = 2 * xFrom, maxX = 2 * xFrom + size; x < maxX; x++) {
+				target[where++] = (float) line[x];
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final int	xFrom = (int) piece.x(), size = (int) (2 * piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), where = offset; y < maxY; y++, where += size) {
+			System.arraycopy(content[y], 2 * xFrom, target, where, size);
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyIntoInternalP(another, new DenseInMemoryDoubleGateMatrix(another.getWidth(), getHeight(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyAndTransposeIntoInternalP(another, new DenseInMemoryDoubleGateMatrix(getHeight(), another.getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix transposeInternalP() throws CalculationException {
+		return transposeIntoInternalP(new DenseInMemoryDoubleGateMatrix(getHeight(), getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceIntoInternalP(qubitNo, qubitValue, new DenseInMemoryDoubleGateMatrix(getWidth()/2, getHeight()/2, isParallelMode()));
+	}
+
+	@Override
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		invokeRangeTask(piece, 1, 1, (part)->forEachInternal(part, callback));
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		multiplyInternalDense(content, toDenseContent(another), toTargetRows(target), productPiece(another));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		multiplyAndTransposeInternalDense(content, toDenseContent(another), toTargetRows(target), productPiece(another));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternal(final GateMatrix target) throws CalculationException {
+		transposeInternal(totalPiece(this), content, toTargetRows(target));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix reduceIntoInternal(final int qubitNo, final int qubitValue, final GateMatrix target) throws CalculationException {
+		final long	mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+
+		reduceInternal(totalPiece(this), content, toTargetRows(target), mask, val, 0);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final double[][]	right = toDenseContent(another), rows = toTargetRows(target);
+
+		invokeRangeTask(productPiece(another), getWidth(), BLOCK_SIZE, (piece)->multiplyInternalDense(content, right, rows, piece));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final double[][]	right = toDenseContent(another), rows = toTargetRows(target);
+
+		invokeRangeTask(productPiece(another), getWidth(), BLOCK_SIZE, (piece)->multiplyAndTransposeInternalDense(content, right, rows, piece));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternalP(final GateMatrix target) throws CalculationException {
+		final double[][]	rows = toTargetRows(target);
+
+		invokeRangeTask(totalPiece(this), 1, BLOCK_SIZE, (piece)->transposeInternal(piece, content, rows));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix reduceIntoInternalP(final int qubitNo, final int qubitValue, final GateMatrix target) throws CalculationException {
+		final long		mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final double[][]	rows = toTargetRows(target);
+
+		// Reduced rows are counted from the top of the piece, so the matrix is split into column strips only
+		invokeRangeTask(new RangeTask((from, to)->reduceInternal(Piece.of(from, 0, to - from, getHeight()), content, rows, mask, val, (int) countReduced(from, mask, val)), getHeight(), 0, (int) getWidth()), getWidth() * getHeight());
+		return target;
+	}
+
+	private Piece productPiece(final GateMatrix another) {
+		return Piece.of(0, 0, another.getWidth(), getHeight());
+	}
+
+	private static double[][] toTargetRows(final GateMatrix target) {
+		if (target instanceof DenseInMemoryDoubleGateMatrix) {
+			return ((DenseInMemoryDoubleGateMatrix)target).content;
+		}
+		else {
+			throw new IllegalArgumentException("Target matrix ["+target.getClass().getSimpleName()+"] is not compatible with the dense double matrix result");
+		}
+	}
+
+	/*
+	 * Get content of any matrix as double-precision rows. Content of the double-precision dense matrix is returned as-is, any other
+	 * matrix is extracted row-by-row.
+	 */
+	private static double[][] toDenseContent(final GateMatrix another) throws CalculationException {
+		if (another instanceof DenseInMemoryDoubleGateMatrix) {
+			return ((DenseInMemoryDoubleGateMatrix)another).content;
+		}
+		else {
+			final double[][]	result = new double[(int) another.getHeight()][(int) (2 * another.getWidth())];
+
+			for (int y = 0; y < result.length; y++) {
+				another.extract(Piece.of(0, y, another.getWidth(), 1), result[y], 0);
+			}
+			return result;
+		}
+	}
+
+	public static void multiplyInternalDense(final double[][] left, final double[][] right, final double[][] target, final Piece piece) throws CalculationException {
+		multiplyInternalTiled(left, right, target, piece, false);
+	}
+
+	public static void multiplyAndTransposeInternalDense(final double[][] left, final double[][] right, final double[][] target, final Piece piece) throws CalculationException {
+		multiplyInternalTiled(left, right, target, piece, true);
+	}
+
+	/*
+	 * Tiled multiplication. See DenseInMemoryFloatGateMatrix.multiplyInternalTiled(...) for details. Block size is smaller than
+	 * float one to keep double panel and tile in the same cache size.
+	 */
+	private static void multiplyInternalTiled(final double[][] left, final double[][] right, final double[][] target, final Piece piece, final boolean transpose) {
+		final int		xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+		final int		yFrom = (int) piece.y(), yTo = (int) (piece.y() + piece.height());
+		final int		depth = right.length;
+		final double[][]	panel = new double[BLOCK_SIZE][2 * BLOCK_SIZE];
+		final double[][]	swapped = new double[BLOCK_SIZE][2 * BLOCK_SIZE];
+		final double[][]	tile = new double[BLOCK_SIZE][2 * BLOCK_SIZE];
+
+		for (int xBlock = xFrom; xBlock < xTo; xBlock += BLOCK_SIZE) {
+			final int	blockWidth = Math.min(BLOCK_SIZE, xTo - xBlock);
+
+			for (int yBlock = yFrom; yBlock < yTo; yBlock += BLOCK_SIZE) {
+				final int	blockHeight = Math.min(BLOCK_SIZE, yTo - yBlock);
+
+				for (int y = 0; y < blockHeight; y++) {
+					Arrays.fill(tile[y], 0, 2 * blockWidth, 0.0);
+				}
+				for (int kBlock = 0; kBlock < depth; kBlock += BLOCK_SIZE) {
+					final int	blockDepth = Math.min(BLOCK_SIZE, depth - kBlock);
+
+					packPanel(right, panel, swapped, kBlock, blockDepth, xBlock, blockWidth);
+					multiplyTile(left, panel, swapped, tile, yBlock, blockHeight, kBlock, blockDepth, blockWidth);
+				}
+				storeTile(tile, target, xBlock, blockWidth, yBlock, blockHeight, transpose);
+			}
+		}
+	}
+
+	private static void packPanel(final double[][] right, final double[][] panel, final double[][] swapped, final int kBlock, final int blockDepth, final int xBlock, final int blockWidth) {
+		for (int k = 0; k < blockDepth; k++) {
+			System.arraycopy(right[kBlock + k], 2 * xBlock, panel[k], 0, 2 * blockWidth);
+			ComplexKernels.swap(panel[k], 2 * blockWidth, swapped[k]);
+		}
+	}
+	
+	private static void multiplyTile(final double[][] left, final double[][] panel, final double[][] swapped, final double[][] tile, final int yBlock, final int blockHeight, final int kBlock, final int blockDepth, final int blockWidth) {
+		final int	rowSize = 2 * blockWidth;
+		
+		for (int y = 0; y < blockHeight; y++) {
+			final double[]	leftLine = left[yBlock + y];
+			final double[]	tileLine = tile[y];
+			
+			for (int k = 0; k < blockDepth; k++) {
+				final double	leftReal = leftLine[2 * (kBlock + k)], leftImage = leftLine[2 * (kBlock + k) + 1];
+				
+				if (leftReal != 0 || leftImage != 0) {
+					ComplexKernels.multiplyAndAdd(leftReal, leftImage, panel[k], swapped[k], tileLine, rowSize);
+				}
+			}
+		}
+	}
+
+	private static void storeTile(final double[][] tile, final double[][] target, final int xBlock, final int blockWidth, final int yBlock, final int blockHeight, final boolean transpose) {
+		if (transpose) {
+			for (int y = 0; y < blockHeight; y++) {
+				final double[]	tileLine = tile[y];
+				
+				for (int x = 0; x < blockWidth; x++) {
+					final double[]	targetLine = target[xBlock + x];
+					
+					targetLine[2 * (yBlock + y)] = tileLine[2 * x];
+					targetLine[2 * (yBlock + y) + 1] = tileLine[2 * x + 1];
+				}
+			}
+		}
+		else {
+			for (int y = 0; y < blockHeight; y++) {
+				System.arraycopy(tile[y], 0, target[yBlock + y], 2 * xBlock, 2 * blockWidth);
+			}
+		}
+	}
+
+	private static void transposeInternal(final Piece piece, final double[][] source, final double[][] target) throws CalculationException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for (int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
+			final double[]	line = source[y];
+
+			for (int x = xFrom; x < xTo; x++) {
+				target[x][2*y] = line[2*x];
+				target[x][2*y+1] = line[2*x+1];
+			}
+		}
+	}
+
+	/*
+	 * Reduce matrix. Piece describes column strip to reduce, xFrom is the first target column for the strip.
+	 */
+	private static void reduceInternal(final Piece piece, final double[][] source, final double[][] target, final long mask, final long val, final int xFrom) throws CalculationException {
+		final int	xStart = (int) piece.x(), xEnd = (int) (piece.x() + piece.width());
+
+		for (int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), yTo = 0; y < maxY; y++) {
+			if ((y & mask) == val) {
+				final double[]	from = source[y];
+				final double[]	to = target[yTo];
+
+				for (int x = xStart, xTo = xFrom; x < xEnd; x++) {
+					if ((x & mask) == val) {
+						to[2*xTo] = from[2*x];
+						to[2*xTo+1] = from[2*x+1];
+						xTo++;
+					}
+				}
+				yTo++;
+			}
+		}
+	}
+}
@@ -3,24 +3,24 @@ package chav1961.qu.util;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveAction;
+import java.util.Arrays;
 
 import chav1961.purelib.basic.exceptions.CalculationException;
-import chav1961.purelib.streams.DataOutputAdapter;
 import chav1961.qu.api.interfaces.GateMatrix;
 import chav1961.qu.api.interfaces.GateMatrixType;
 import chav1961.qu.api.interfaces.Piece;
 
 public class DenseInMemoryFloatGateMatrix extends AbstractInMemoryGateMatrix {
+	private static final int	BLOCK_SIZE = 64;
+	
 	private final float[][]	content;
 
 	DenseInMemoryFloatGateMatrix(final long width, final long height, final boolean parallelModeOn) {
 		super(GateMatrixType.DENSE_MATRIX, width, height, parallelModeOn);
-		this.content = new float[(int) height][(int) (2*width)];
+		this.content = new float[toArraySize(height)][toArraySize(2*width)];
 	}
 
-	private DenseInMemoryFloatGateMatrix(final long width, final long height, final boolean parallelModeOn, final float[][] content) {
+	DenseInMemoryFloatGateMatrix(final long width, final long height, final boolean parallelModeOn, final float[][] content) {
 		super(GateMatrixType.DENSE_MATRIX, width, height, parallelModeOn);
 		this.content = content;
 	}
@@ -29,6 +29,10 @@ public class DenseInMemoryFloatGateMatrix extends AbstractInMemoryGateMatrix {
 	public Class<?> getValueClass() {
 		return float.class;
 	}
+
+	float[][] getContent() {
+		return content;
+	}
 	
 	@Override
 	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
@@ -80,154 +84,22 @@ public class DenseInMemoryFloatGateMatrix extends AbstractInMemoryGateMatrix {
 
 	@Override
 	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
-		final float[][]	left = content;
-		final float[][]	result = new float[(int) getHeight()][(int) (2 * another.getWidth())];
-		final float[]	sum = new float[2];
-		
-		if (another instanceof DenseInMemoryFloatGateMatrix) {
-			final DenseInMemoryFloatGateMatrix	mat = (DenseInMemoryFloatGateMatrix)another;
-			final float[][]	right = mat.content;
-			
-			for(int y = 0; y < getHeight(); y++) {
-				final float[]	leftLine = left[y];
-
-				for(int x = 0; x < mat.getWidth(); x++) {
-					sum[0] = sum[1] = 0;
-
-					for(int index = 0; index < getWidth(); index++) {
-						calcAndAdd(leftLine[2*index], leftLine[2*index+1], ComplexOp.MULTIPLY, right[2*index][x], right[2*index+1][x], sum, 0);
-					}
-					result[y][2*x] = sum[0];
-					result[y][2*x+1] = sum[1];
-				}
-			}
-			return new DenseInMemoryFloatGateMatrix(getWidth(), mat.getHeight(), isParallelMode(), result);
-		}
-// TODO Auto-generated method stub
-//		else if (another instanceof SparseInMemoryGateMatrix) {
-//			
-//		}
-//		else if (another instanceof InMemoryCommutationalMatrix) {
-//			
-//		}
-		else {
-			for(int y = 0; y < getHeight(); y++) {
-				final float[]	leftLine = left[y];
-
-				for(int x = 0; x < another.getWidth(); x++) {
-					sum[0] = sum[1] = 0;
-
-					try {
-						another.upload(Piece.of(0, x, getWidth(), 1), new DataOutputAdapter() {
-							int	index = 0;
-							float	real, image;
-							
-							@Override
-							public void writeFloat(float v) throws IOException {
-								if ((index & 0x01) == 0) {
-									real = v;
-								}
-								else {
-									image = v;
-									calcAndAdd(leftLine[2*index], leftLine[2*index+1], ComplexOp.MULTIPLY, real, image, sum, 0);
-									index++;
-								}
-							}
-						});
-					} catch (IOException e) {
-						throw new CalculationException(e.getLocalizedMessage(), e);
-					}
-					result[y][2*x] = sum[0];
-					result[y][2*x+1] = sum[1];
-				}
-			}
-			return new DenseInMemoryFloatGateMatrix(getWidth(), another.getHeight(), isParallelMode(), result);
-		}
+		return multiplyIntoInternal(another, newProduct(another));
 	}
 
 	@Override
 	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
-		final float[][]	left = content;
-		final float[][]	result = new float[(int) another.getWidth()][(int) (2 * getHeight())];
-		final float[]	sum = new float[2];
-		
-		if (another instanceof DenseInMemoryFloatGateMatrix) {
-			final DenseInMemoryFloatGateMatrix	mat = (DenseInMemoryFloatGateMatrix)another;
-			final float[][]	right = mat.content;
-			
-			for(int y = 0; y < getHeight(); y++) {
-				final float[]	leftLine = left[y];
-
-				for(int x = 0; x < mat.getWidth(); x++) {
-					sum[0] = sum[1] = 0;
-
-					for(int index = 0; index < getWidth(); index++) {
-						calcAndAdd(leftLine[2*index], leftLine[2*index+1], ComplexOp.MULTIPLY, right[2*index][x], right[2*index+1][x], sum, 0);
-					}
-					result[y][2*x] = sum[0];
-					result[y][2*x+1] = sum[1];
-				}
-			}
-			return new DenseInMemoryFloatGateMatrix(getWidth(), mat.getHeight(), isParallelMode(), result);
-		}
-// TODO Auto-generated method stub
-//		else if (another instanceof SparseInMemoryGateMatrix) {
-//			
-//		}
-//		else if (another instanceof InMemoryCommutationalMatrix) {
-//			
-//		}
-		else {
-			for(int y = 0; y < getHeight(); y++) {
-				final float[]	leftLine = left[y];
-
-				for(int x = 0; x < another.getWidth(); x++) {
-					sum[0] = sum[1] = 0;
-
-					try {
-						another.upload(Piece.of(0, x, getWidth(), 1), new DataOutputAdapter() {
-							int	index = 0;
-							float	real, image;
-							
-							@Override
-							public void writeFloat(float v) throws IOException {
-								if ((index & 0x01) == 0) {
-									real = v;
-								}
-								else {
-									image = v;
-									calcAndAdd(leftLine[2*index], leftLine[2*index+1], ComplexOp.MULTIPLY, real, image, sum, 0);
-									index++;
-								}
-							}
-						});
-					} catch (IOException e) {
-						throw new CalculationException(e.getLocalizedMessage(), e);
-					}
-					result[x][2*y] = sum[0];
-					result[x][2*y+1] = sum[1];
-				}
-			}
-			return new DenseInMemoryFloatGateMatrix(another.getHeight(), getWidth(), isParallelMode(), result);
-		}
+		return multiplyAndTransposeIntoInternal(another, newTransposedProduct(another));
 	}
 
 	@Override
 	protected GateMatrix transposeInternal() throws CalculationException {
-		final float[][]	result = new float[(int) getWidth()][(int) getHeight()];
-		
-		transposeInternal(totalPiece(this), content, result);
-		return new DenseInMemoryFloatGateMatrix(getWidth(), getHeight(), isParallelMode(), result);
+		return transposeIntoInternal(DenseInMemoryFloatGateVector.newInstance(getHeight(), getWidth(), isParallelMode()));
 	}
 
 	@Override
 	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
-		final long		mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
-		final float[][]	temp = content; 
-		final float[][]	result = new float[(int) getWidth()/2][(int) getHeight()/2];
-
-		reduceInternal(totalPiece(this), temp, result, mask, val, 0);
-		return new DenseInMemoryFloatGateMatrix(result.length, result[0].length, isParallelMode(), result);
+		return reduceIntoInternal(qubitNo, qubitValue, new DenseInMemoryFloatGateMatrix(getWidth()/2, getHeight()/2, isParallelMode()));
 	}
 
 	@Override
@@ -245,501 +117,404 @@ public class DenseInMemoryFloatGateMatrix extends AbstractInMemoryGateMatrix {
 	}
 
 	@Override
-	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
-		final float[][]	left = content;
-		final float[][]	result = new float[(int) getHeight()][(int) (2 * another.getWidth())];
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final int	xFrom = (int) piece.x(), size = (int) (2 * piece.width());
 		
-		if (another instanceof DenseInMemoryFloatGateMatrix) {
-			final DenseInMemoryFloatGateMatrix	mat = (DenseInMemoryFloatGateMatrix)another;
-			final float[][]	right = mat.content;
-
-			ForkJoinPool.commonPool().invoke(new MultiplyDenseTask(left, right, result, parallelSplit(totalPiece(this))));
-			return new DenseInMemoryFloatGateMatrix(getWidth(), mat.getHeight(), isParallelMode(), result);
-		}
-// TODO Auto-generated method stub
-//		else if (another instanceof SparseInMemoryGateMatrix) {
-//			
-//		}
-//		else if (another instanceof InMemoryCommutationalMatrix) {
-//			
-//		}
-		else {
-			ForkJoinPool.commonPool().invoke(new MultiplyCommonTask(left, another, result, parallelSplit(totalPiece(this))));
-			return new DenseInMemoryFloatGateMatrix(getWidth(), another.getHeight(), isParallelMode(), result);
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), where = offset; y < maxY; y++, where += size) {
+			System.arraycopy(content[y], 2 * xFrom, target, where, size);
 		}
 	}
 
 	@Override
-	protected GateMatrix multiplyAndTransposeInternalP(GateMatrix another) throws CalculationException {
-		final float[][]	left = content;
-		final float[][]	result = new float[(int) another.getWidth()][(int) (2 * getHeight())];
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final int	xFrom = (int) piece.x(), size = (int) (2 * piece.width());
 		
-		if (another instanceof DenseInMemoryFloatGateMatrix) {
-			final DenseInMemoryFloatGateMatrix	mat = (DenseInMemoryFloatGateMatrix)another;
-			final float[][]	right = mat.content;
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), where = offset; y < maxY; y++) {
+			final float[] line = content[y];
 			
-			ForkJoinPool.commonPool().invoke(new MultiplyAndTransposeDenseTask(left, right, result, parallelSplit(totalPiece(this))));
-			return new DenseInMemoryFloatGateMatrix(getWidth(), mat.getHeight(), isParallelMode(), result);
-		}
-// TODO Auto-generated method stub
-//		else if (another instanceof SparseInMemoryGateMatrix) {
-//			
-//		}
-//		else if (another instanceof InMemoryCommutationalMatrix) {
-//			
-//		}
+			for(int x = 2 * xFrom, maxX = 2 * xFrom + size; x < maxX; x++) {
+				target[where++] = line[x];
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another.getWidth() == 1) {
+			multiplyInternalVector(content, toVectorContent(another), toTargetVector(target), productPiece(another));
+		}
+		else {
+			multiplyInternalDense(content, toRows(another), toTargetRows(target), productPiece(another));
+		}
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another.getWidth() == 1) {
+			multiplyInternalVector(content, toVectorContent(another), toTargetVector(target), productPiece(another));
+		}
+		else if (isVector(target)) {
+			multiplyInternalDense(content, toRows(another), toTargetRows(target), productPiece(another));
+		}
 		else {
-			ForkJoinPool.commonPool().invoke(new MultiplyAndTransposeCommonTask(left, another, result, parallelSplit(totalPiece(this))));
-			return new DenseInMemoryFloatGateMatrix(another.getHeight(), getWidth(), isParallelMode(), result);
+			multiplyAndTransposeInternalDense(content, toRows(another), toTargetRows(target), productPiece(another));
 		}
+		return target;
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternal(final GateMatrix target) throws CalculationException {
+		if (isVector(target)) {
+			transposeVector(content, toTargetVector(target));
+		}
+		else {
+			transposeInternal(totalPiece(this), content, toTargetRows(target));
+		}
+		return target;
+	}
+
+	@Override
+	protected GateMatrix reduceIntoInternal(final int qubitNo, final int qubitValue, final GateMatrix target) throws CalculationException {
+		final long		mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+
+		reduceInternal(totalPiece(this), content, toTargetRows(target), mask, val, 0);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyIntoInternalP(another, newProduct(another));
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(GateMatrix another) throws CalculationException {
+		return multiplyAndTransposeIntoInternalP(another, newTransposedProduct(another));
 	}
 
 	@Override
 	protected GateMatrix transposeInternalP() throws CalculationException {
-		final float[][]	result = new float[(int) getWidth()][(int) getHeight()];
-		
-		ForkJoinPool.commonPool().invoke(new TransposeTask(content, result, parallelSplit(totalPiece(this))));
-		return new DenseInMemoryFloatGateMatrix(getWidth(), getHeight(), isParallelMode(), result);
+		return transposeIntoInternalP(DenseInMemoryFloatGateVector.newInstance(getHeight(), getWidth(), isParallelMode()));
 	}
 
 	@Override
 	protected GateMatrix reduceInternalP(int qubitNo, int qubitValue) throws CalculationException {
-		final long		mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
-		final float[][]	temp = content; 
-		final float[][]	result = new float[(int) getWidth()/2][(int) getHeight()/2];
-		final Piece[]	pieces = parallelSplit(totalPiece(this));
-		final int[]		amount2Process = new int[pieces.length];
-		
-		for(int index = 0; index < amount2Process.length; index++) {
-			amount2Process[index] = calculateNumberOfRedicedLines(pieces[index], mask, val);
-		}
-		ForkJoinPool.commonPool().invoke(new ReduceTask(temp, result, mask, val, amount2Process, 0, pieces));
-		return new DenseInMemoryFloatGateMatrix(result.length, result[0].length, isParallelMode(), result);
+		return reduceIntoInternalP(qubitNo, qubitValue, new DenseInMemoryFloatGateMatrix(getWidth()/2, getHeight()/2, isParallelMode()));
 	}
 
 	@Override
 	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
-		ForkJoinPool.commonPool().invoke(new ForEachTask(callback, parallelSplit(piece)));
+		invokeRangeTask(piece, 1, 1, (part)->forEachInternal(part, callback));
 	}
 
-	public static void multiplyInternalDense(final float[][] left, final float[][] right, final float[][] target, final Piece piece) throws CalculationException {
-		final int 		xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
-		final float[]	sum = new float[2];
-			
-		for(int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
-			final float[]	leftLine = left[y];
+	@Override
+	protected GateMatrix multiplyIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another.getWidth() == 1) {
+			final float[]	vector = toVectorContent(another), result = toTargetVector(target);
 
-			for(int x = xFrom; x < xTo; x++) {
-				sum[0] = sum[1] = 0;
+			invokeRangeTask(productPiece(another), getWidth(), 4, (piece)->multiplyInternalVector(content, vector, result, piece));
+		}
+		else {
+			final float[][]	right = toRows(another), rows = toTargetRows(target);
 
-				for(int index = 0; index < leftLine.length/2; index++) {
-					calcAndAdd(leftLine[2*index], leftLine[2*index+1], ComplexOp.MULTIPLY, right[2*index][x], right[2*index+1][x], sum, 0);
-				}
-				target[y][2*x] = sum[0];
-				target[y][2*x+1] = sum[1];
-			}
+			invokeRangeTask(productPiece(another), getWidth(), BLOCK_SIZE, (piece)->multiplyInternalDense(content, right, rows, piece));
 		}
-	}	
+		return target;
+	}
 
-	public static void multiplyInternalCommon(final float[][] left, final GateMatrix another, final float[][] target, final Piece piece) throws CalculationException {
-		final int 		xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
-		final float[]	sum = new float[2];
-			
-		for(int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
-			final float[]	leftLine = left[y];
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another.getWidth() == 1) {
+			final float[]	vector = toVectorContent(another), result = toTargetVector(target);
 
-			for(int x = xFrom; x < xTo; x++) {
-				sum[0] = sum[1] = 0;
+			invokeRangeTask(productPiece(another), getWidth(), 4, (piece)->multiplyInternalVector(content, vector, result, piece));
+		}
+		else if (isVector(target)) {
+			final float[][]	right = toRows(another), rows = toTargetRows(target);
 
-				try {
-					another.upload(Piece.of(0, x, leftLine.length, 1), new DataOutputAdapter() {
-						int	index = 0;
-						float	real, image;
-						
-						@Override
-						public void writeFloat(float v) throws IOException {
-							if ((index & 0x01) == 0) {
-								real = v;
-							}
-							else {
-								image = v;
-								calcAndAdd(leftLine[2*index], leftLine[2*index+1], ComplexOp.MULTIPLY, real, image, sum, 0);
-								index++;
-							}
-						}
-					});
-				} catch (IOException e) {
-					throw new CalculationException(e.getLocalizedMessage(), e);
-				}
-				target[y][2*x] = sum[0];
-				target[y][2*x+1] = sum[1];
-			}
+			invokeRangeTask(productPiece(another), getWidth(), BLOCK_SIZE, (piece)->multiplyInternalDense(content, right, rows, piece));
 		}
-	}	
+		else {
+			final float[][]	right = toRows(another), rows = toTargetRows(target);
 
-	public static void multiplyAndTransposeInternalDense(final float[][] left, final float[][] right, final float[][] target, final Piece piece) throws CalculationException {
-		final int 		xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
-		final float[]	sum = new float[2];
-			
-		for(int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
-			final float[]	leftLine = left[y];
+			invokeRangeTask(productPiece(another), getWidth(), BLOCK_SIZE, (piece)->multiplyAndTransposeInternalDense(content, right, rows, piece));
+		}
+		return target;
+	}
 
-			for(int x = xFrom; x < xTo; x++) {
-				sum[0] = sum[1] = 0;
+	@Override
+	protected GateMatrix transposeIntoInternalP(final GateMatrix target) throws CalculationException {
+		if (isVector(target)) {
+			transposeVector(content, toTargetVector(target));
+		}
+		else {
+			final float[][]	rows = toTargetRows(target);
 
-				for(int index = 0; index < leftLine.length/2; index++) {
-					calcAndAdd(leftLine[2*index], leftLine[2*index+1], ComplexOp.MULTIPLY, right[2*index][x], right[2*index+1][x], sum, 0);
-				}
-				target[y][2*x] = sum[0];
-				target[y][2*x+1] = sum[1];
-			}
+			invokeRangeTask(totalPiece(this), 1, BLOCK_SIZE, (piece)->transposeInternal(piece, content, rows));
 		}
-	}	
+		return target;
+	}
 
-	public static void multiplyAndTransposeInternalCommon(final float[][] left, final GateMatrix another, final float[][] target, final Piece piece) throws CalculationException {
-		final int 		xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
-		final float[]	sum = new float[2];
-			
-		for(int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
-			final float[]	leftLine = left[y];
+	@Override
+	protected GateMatrix reduceIntoInternalP(final int qubitNo, final int qubitValue, final GateMatrix target) throws CalculationException {
+		final long		mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final float[][]	rows = toTargetRows(target);
 
-			for(int x = xFrom; x < xTo; x++) {
-				sum[0] = sum[1] = 0;
+		// Reduced rows are counted from the top of the piece, so the matrix is split into column strips only
+		invokeRangeTask(new RangeTask((from, to)->reduceInternal(Piece.of(from, 0, to - from, getHeight()), content, rows, mask, val, (int) countReduced(from, mask, val)), getHeight(), 0, (int) getWidth()), getWidth() * getHeight());
+		return target;
+	}
 
-				try {
-					another.upload(Piece.of(0, x, leftLine.length, 1), new DataOutputAdapter() {
-						int	index = 0;
-						float	real, image;
-						
-						@Override
-						public void writeFloat(float v) throws IOException {
-							if ((index & 0x01) == 0) {
-								real = v;
-							}
-							else {
-								image = v;
-								calcAndAdd(leftLine[2*index], leftLine[2*index+1], ComplexOp.MULTIPLY, real, image, sum, 0);
-								index++;
-							}
-						}
-					});
-				} catch (IOException e) {
-					throw new CalculationException(e.getLocalizedMessage(), e);
-				}
-				target[y][2*x] = sum[0];
-				target[y][2*x+1] = sum[1];
-			}
+	/*
+	 * Vector product (matrix-by-column-vector or one-row matrix product) is a contiguous vector, any other product is a dense matrix 
+	 */
+	private GateMatrix newProduct(final GateMatrix another) {
+		return DenseInMemoryFloatGateVector.newInstance(another.getWidth(), getHeight(), isParallelMode());
+	}
+
+	private GateMatrix newTransposedProduct(final GateMatrix another) {
+		return DenseInMemoryFloatGateVector.newInstance(getHeight(), another.getWidth(), isParallelMode());
+	}
+
+	/*
+	 * Get target content as rows. Vector content is treated as one-row matrix. Row and column vectors have the same content layout, so
+	 * transposed product into the column vector (it's possible for one-row matrix only) is calculated as non-transposed one-row product. 
+	 */
+	static float[][] toTargetRows(final GateMatrix target) {
+		if (target instanceof DenseInMemoryFloatGateMatrix) {
+			return ((DenseInMemoryFloatGateMatrix)target).content;
 		}
-	}	
-	
-	private static void transposeInternal(final Piece piece, final float[][] source, final float[][] target) throws CalculationException {
-		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
-		
-		for (int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
-			final float[]	line = source[y];
-			
-			for (int x = xFrom; x < xTo; x++) {
-				target[x][2*y] = line[2*x];
-				target[x][2*y+1] = line[2*x+1];
-			}
+		else if (target instanceof DenseInMemoryFloatGateVector) {
+			return new float[][] {((DenseInMemoryFloatGateVector)target).getContent()};
+		}
+		else {
+			throw new IllegalArgumentException("Target matrix ["+target.getClass().getSimpleName()+"] is not compatible with the dense float matrix result");
 		}
 	}
 
-	private static int calculateNumberOfRedicedLines(final Piece piece, final long mask, final long val) throws CalculationException {
-		int	result = 0;
-		
-		for (int y = (int)piece.y(), maxY = (int)piece.height(), yTo = 0; y < maxY; y++) {
-			if ((y & mask) == val) {
-				result++;
-			}
+	/*
+	 * Get target content as contiguous vector. One-row matrix content is treated as vector. 
+	 */
+	static float[] toTargetVector(final GateMatrix target) {
+		if (target instanceof DenseInMemoryFloatGateVector) {
+			return ((DenseInMemoryFloatGateVector)target).getContent();
+		}
+		else if (target instanceof DenseInMemoryFloatGateMatrix && target.getHeight() == 1) {
+			return ((DenseInMemoryFloatGateMatrix)target).content[0];
+		}
+		else {
+			throw new IllegalArgumentException("Target matrix ["+target.getClass().getSimpleName()+"] is not compatible with the dense float matrix result");
 		}
-		return result;
 	}
 	
-	private static void reduceInternal(final Piece piece, final float[][] source, final float[][] target, final long mask, final long val, final int yFrom) throws CalculationException {
-		final int	xStart = (int) piece.x(), xEnd = (int) (piece.x() + piece.width());
-		
-		for (int y = (int)piece.y(), maxY = (int)piece.height(), yTo = yFrom; y < maxY; y++) {
-			if ((y & mask) == val) {
-				final float[]	from = source[y];
-				final float[]	to = source[yTo];
-				
-				for (int x = xStart, xTo = 0; x < xEnd; x++) {
-					if ((x & mask) == val) {
-						to[2*xTo] = from[2*x]; 
-						to[2*xTo+1] = from[2*x+1];
-						xTo++;
-					}
-				}
-				yTo++;
+	/*
+	 * Get content of any matrix as rows. Dense matrix content is returned as-is, row vector content is treated as one-row matrix,
+	 * any other matrix is extracted row-by-row. 
+	 */
+	static float[][] toRows(final GateMatrix another) throws CalculationException {
+		if (another instanceof DenseInMemoryFloatGateMatrix) {
+			return ((DenseInMemoryFloatGateMatrix)another).content;
+		}
+		else if (another instanceof DenseInMemoryFloatGateVector && another.getHeight() == 1) {
+			return new float[][] {((DenseInMemoryFloatGateVector)another).getContent()};
+		}
+		else {
+			final float[][]	result = new float[(int) another.getHeight()][(int) (2 * another.getWidth())];
+			
+			for (int y = 0; y < result.length; y++) {
+				another.extract(Piece.of(0, y, another.getWidth(), 1), result[y], 0);
 			}
+			return result;
 		}
 	}
-
-	private class MultiplyDenseTask extends RecursiveAction {
-		private static final long serialVersionUID = 1L;
-		
-		private final float[][]	left;
-		private final float[][]	right;
-		private final float[][]	target;
-		private final Piece[]	pieces;
-		
-		private MultiplyDenseTask(final float[][] left, final float[][] right, final float[][] target, final Piece... pieces) {
-			this.left = left;
-			this.right = right;
-			this.target = target;
-			this.pieces = pieces;
+	
+	static float[] toVectorContent(final GateMatrix another) throws CalculationException {
+		if (another instanceof DenseInMemoryFloatGateVector) {
+			return ((DenseInMemoryFloatGateVector)another).getContent();
 		}
+		else {
+			final float[]	result = new float[(int) (2 * another.getHeight() * another.getWidth())];
 
-		@Override
-		protected void compute() {
-			if (pieces.length == 1) {
-				try {
-					multiplyAndTransposeInternalDense(left, right, target, pieces[0]);
-				} catch (CalculationException e) {
-					e.printStackTrace();
-				}
-			}
-			else {
-				final MultiplyDenseTask[]	tasks = new MultiplyDenseTask[pieces.length];
-				
-				for (int index = 0; index < tasks.length; index++) {
-					tasks[index] = new MultiplyDenseTask(left, right, target, pieces[index]);
-					tasks[index].fork();
-				}
-				for (MultiplyDenseTask item : tasks) {
-					item.join();
-				}
-			}
+			another.extract(totalPiece(another), result, 0);
+			return result;
 		}
 	}
+	
+	private Piece productPiece(final GateMatrix another) {
+		return Piece.of(0, 0, another.getWidth(), getHeight());
+	}
+	
+	public static void multiplyInternalDense(final float[][] left, final float[][] right, final float[][] target, final Piece piece) throws CalculationException {
+		multiplyInternalTiled(left, right, target, piece, false);
+	}	
 
-	private class MultiplyCommonTask extends RecursiveAction {
-		private static final long serialVersionUID = 1L;
+	/*
+	 * Matrix-by-column-vector kernel. Rows are processed by blocks of four, so every vector value is read once per row block.
+	 */
+	public static void multiplyInternalVector(final float[][] left, final float[] vector, final float[] target, final Piece piece) throws CalculationException {
+		final int	yTo = (int) (piece.y() + piece.height());
+		int			y = (int) piece.y();
 		
-		private final float[][]		left;
-		private final GateMatrix	another;
-		private final float[][]		target;
-		private final Piece[]		pieces;
-		
-		private MultiplyCommonTask(final float[][] left, final GateMatrix another, final float[][] target, final Piece... pieces) {
-			this.left = left;
-			this.another = another;
-			this.target = target;
-			this.pieces = pieces;
-		}
-
-		@Override
-		protected void compute() {
-			if (pieces.length == 1) {
-				try {
-					multiplyAndTransposeInternalCommon(left, another, target, pieces[0]);
-				} catch (CalculationException e) {
-					e.printStackTrace();
-				}
-			}
-			else {
-				final MultiplyCommonTask[]	tasks = new MultiplyCommonTask[pieces.length];
+		for (; y + 4 <= yTo; y += 4) {
+			final float[]	line0 = left[y], line1 = left[y + 1], line2 = left[y + 2], line3 = left[y + 3];
+			float			real0 = 0, image0 = 0, real1 = 0, image1 = 0, real2 = 0, image2 = 0, real3 = 0, image3 = 0;
+			
+			for (int index = 0; index < vector.length; index += 2) {
+				final float	vectorReal = vector[index], vectorImage = vector[index + 1];
 				
-				for (int index = 0; index < tasks.length; index++) {
-					tasks[index] = new MultiplyCommonTask(left, another, target, pieces[index]);
-					tasks[index].fork();
-				}
-				for (MultiplyCommonTask item : tasks) {
-					item.join();
-				}
+				real0 += line0[index] * vectorReal - line0[index + 1] * vectorImage;
+				image0 += line0[index + 1] * vectorReal + line0[index] * vectorImage;
+				real1 += line1[index] * vectorReal - line1[index + 1] * vectorImage;
+				image1 += line1[index + 1] * vectorReal + line1[index] * vectorImage;
+				real2 += line2[index] * vectorReal - line2[index + 1] * vectorImage;
+				image2 += line2[index + 1] * vectorReal + line2[index] * vectorImage;
+				real3 += line3[index] * vectorReal - line3[index + 1] * vectorImage;
+				image3 += line3[index + 1] * vectorReal + line3[index] * vectorImage;
 			}
+			target[2 * y] = real0;
+			target[2 * y + 1] = image0;
+			target[2 * y + 2] = real1;
+			target[2 * y + 3] = image1;
+			target[2 * y + 4] = real2;
+			target[2 * y + 5] = image2;
+			target[2 * y + 6] = real3;
+			target[2 * y + 7] = image3;
+		}
+		for (; y < yTo; y++) {
+			final float[]	line = left[y];
+			float			real = 0, image = 0;
+			
+			for (int index = 0; index < vector.length; index += 2) {
+				real += line[index] * vector[index] - line[index + 1] * vector[index + 1];
+				image += line[index + 1] * vector[index] + line[index] * vector[index + 1];
+			}
+			target[2 * y] = real;
+			target[2 * y + 1] = image;
 		}
-	}
+	}	
 
-	private class MultiplyAndTransposeDenseTask extends RecursiveAction {
-		private static final long serialVersionUID = 1L;
-		
-		private final float[][]	left;
-		private final float[][]	right;
-		private final float[][]	target;
-		private final Piece[]	pieces;
+	public static void multiplyAndTransposeInternalDense(final float[][] left, final float[][] right, final float[][] target, final Piece piece) throws CalculationException {
+		multiplyInternalTiled(left, right, target, piece, true);
+	}	
+	
+	/*
+	 * Tiled multiplication. Piece describes product area to calculate. Product is calculated by BLOCK_SIZE*BLOCK_SIZE tiles.
+	 * Every tile accumulates BLOCK_SIZE*BLOCK_SIZE panels of the right matrix, packed into contiguous array, so both panel
+	 * and tile are always kept in the cache.  
+	 */
+	private static void multiplyInternalTiled(final float[][] left, final float[][] right, final float[][] target, final Piece piece, final boolean transpose) {
+		final int		xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+		final int		yFrom = (int) piece.y(), yTo = (int) (piece.y() + piece.height());
+		final int		depth = right.length;
+		final float[][]	panel = new float[BLOCK_SIZE][2 * BLOCK_SIZE];
+		final float[][]	swapped = new float[BLOCK_SIZE][2 * BLOCK_SIZE];
+		final float[][]	tile = new float[BLOCK_SIZE][2 * BLOCK_SIZE];
 		
-		private MultiplyAndTransposeDenseTask(final float[][] left, final float[][] right, final float[][] target, final Piece... pieces) {
-			this.left = left;
-			this.right = right;
-			this.target = target;
-			this.pieces = pieces;
-		}
-
-		@Override
-		protected void compute() {
-			if (pieces.length == 1) {
-				try {
-					multiplyInternalDense(left, right, target, pieces[0]);
-				} catch (CalculationException e) {
-					e.printStackTrace();
-				}
-			}
-			else {
-				final MultiplyDenseTask[]	tasks = new MultiplyDenseTask[pieces.length];
+		for (int xBlock = xFrom; xBlock < xTo; xBlock += BLOCK_SIZE) {
+			final int	blockWidth = Math.min(BLOCK_SIZE, xTo - xBlock);
+			
+			for (int yBlock = yFrom; yBlock < yTo; yBlock += BLOCK_SIZE) {
+				final int	blockHeight = Math.min(BLOCK_SIZE, yTo - yBlock);
 				
-				for (int index = 0; index < tasks.length; index++) {
-					tasks[index] = new MultiplyDenseTask(left, right, target, pieces[index]);
-					tasks[index].fork();
+				for (int y = 0; y < blockHeight; y++) {
+					Arrays.fill(tile[y], 0, 2 * blockWidth, 0.0f);
 				}
-				for (MultiplyDenseTask item : tasks) {
-					item.join();
+				for (int kBlock = 0; kBlock < depth; kBlock += BLOCK_SIZE) {
+					final int	blockDepth = Math.min(BLOCK_SIZE, depth - kBlock);
+					
+					packPanel(right, panel, swapped, kBlock, blockDepth, xBlock, blockWidth);
+					multiplyTile(left, panel, swapped, tile, yBlock, blockHeight, kBlock, blockDepth, blockWidth);
 				}
+				storeTile(tile, target, xBlock, blockWidth, yBlock, blockHeight, transpose);
 			}
 		}
 	}
 
-	private class MultiplyAndTransposeCommonTask extends RecursiveAction {
-		private static final long serialVersionUID = 1L;
-		
-		private final float[][]	left;
-		private final GateMatrix	another;
-		private final float[][]	target;
-		private final Piece[]	pieces;
-		
-		private MultiplyAndTransposeCommonTask(final float[][] left, final GateMatrix another, final float[][] target, final Piece... pieces) {
-			this.left = left;
-			this.another = another;
-			this.target = target;
-			this.pieces = pieces;
-		}
-
-		@Override
-		protected void compute() {
-			if (pieces.length == 1) {
-				try {
-					multiplyInternalCommon(left, another, target, pieces[0]);
-				} catch (CalculationException e) {
-					e.printStackTrace();
-				}
-			}
-			else {
-				final MultiplyCommonTask[]	tasks = new MultiplyCommonTask[pieces.length];
-				
-				for (int index = 0; index < tasks.length; index++) {
-					tasks[index] = new MultiplyCommonTask(left, another, target, pieces[index]);
-					tasks[index].fork();
-				}
-				for (MultiplyCommonTask item : tasks) {
-					item.join();
-				}
-			}
+	private static void packPanel(final float[][] right, final float[][] panel, final float[][] swapped, final int kBlock, final int blockDepth, final int xBlock, final int blockWidth) {
+		for (int k = 0; k < blockDepth; k++) {
+			System.arraycopy(right[kBlock + k], 2 * xBlock, panel[k], 0, 2 * blockWidth);
+			ComplexKernels.swap(panel[k], 2 * blockWidth, swapped[k]);
 		}
 	}
 	
-	private class TransposeTask extends RecursiveAction {
-		private static final long serialVersionUID = 1L;
-		
-		private final float[][]	source;
-		private final float[][]	target;
-		private final Piece[]	pieces;
+	private static void multiplyTile(final float[][] left, final float[][] panel, final float[][] swapped, final float[][] tile, final int yBlock, final int blockHeight, final int kBlock, final int blockDepth, final int blockWidth) {
+		final int	rowSize = 2 * blockWidth;
 		
-		private TransposeTask(final float[][] source, final float[][] target, final Piece... pieces) {
-			this.source = source;
-			this.target = target;
-			this.pieces = pieces;
-		}
-
-		@Override
-		protected void compute() {
-			if (pieces.length == 1) {
-				try {
-					transposeInternal(pieces[0], source, target);
-				} catch (CalculationException e) {
-					e.printStackTrace();
-				}
-			}
-			else {
-				final TransposeTask[]	tasks = new TransposeTask[pieces.length];
+		for (int y = 0; y < blockHeight; y++) {
+			final float[]	leftLine = left[yBlock + y];
+			final float[]	tileLine = tile[y];
+			
+			for (int k = 0; k < blockDepth; k++) {
+				final float	leftReal = leftLine[2 * (kBlock + k)], leftImage = leftLine[2 * (kBlock + k) + 1];
 				
-				for (int index = 0; index < tasks.length; index++) {
-					tasks[index] = new TransposeTask(source, target, pieces[index]);
-					tasks[index].fork();
-				}
-				for (TransposeTask item : tasks) {
-					item.join();
+				if (leftReal != 0 || leftImage != 0) {
+					ComplexKernels.multiplyAndAdd(leftReal, leftImage, panel[k], swapped[k], tileLine, rowSize);
 				}
 			}
 		}
 	}
-	
-	private class ReduceTask extends RecursiveAction {
-		private static final long serialVersionUID = 1L;
-		
-		private final float[][]	source;
-		private final float[][]	target;
-		private final long 		mask;
-		private final long 		val;
-		private final int[]		taskSizes;
-		private final int 		from;
-		private final Piece[]	pieces;
-		
-		private ReduceTask(final float[][] source, final float[][] target, final long mask, final long val, final int[] taskSizes, final int from, final Piece... pieces) {
-			this.source = source;
-			this.target = target;
-			this.mask = mask;
-			this.val = val;
-			this.taskSizes = taskSizes;
-			this.from = from;
-			this.pieces = pieces;
-		}
-
-		@Override
-		protected void compute() {
-			if (pieces.length == 1) {
-				try {
-					reduceInternal(pieces[0], source, target, mask, val, from);
-				} catch (CalculationException e) {
-					e.printStackTrace();
-				}
-			}
-			else {
-				final ReduceTask[]	tasks = new ReduceTask[pieces.length];
+
+	private static void storeTile(final float[][] tile, final float[][] target, final int xBlock, final int blockWidth, final int yBlock, final int blockHeight, final boolean transpose) {
+		if (transpose) {
+			for (int y = 0; y < blockHeight; y++) {
+				final float[]	tileLine = tile[y];
 				
-				for (int index = 0, current = 0; index < tasks.length; current += taskSizes[index], index++) {
-					tasks[index] = new ReduceTask(source, target, mask, val, taskSizes, current, pieces[index]);
-					tasks[index].fork();
+				for (int x = 0; x < blockWidth; x++) {
+					final float[]	targetLine = target[xBlock + x];
 					
+					targetLine[2 * (yBlock + y)] = tileLine[2 * x];
+					targetLine[2 * (yBlock + y) + 1] = tileLine[2 * x + 1];
 				}
-				for (ReduceTask item : tasks) {
-					item.join();
-				}
+			}
+		}
+		else {
+			for (int y = 0; y < blockHeight; y++) {
+				System.arraycopy(tile[y], 0, target[yBlock + y], 2 * xBlock, 2 * blockWidth);
 			}
 		}
 	}
-	
-	
-	private class ForEachTask extends RecursiveAction {
-		private static final long serialVersionUID = 1L;
-		
-		private final ForEachCallback	callback;
-		private final Piece[]	pieces;
-		
-		private ForEachTask(final ForEachCallback callback, final Piece... pieces) {
-			this.callback = callback;
-			this.pieces = pieces;
+
+	/*
+	 * Transposed vector has the same content layout, so the rows of the vector are copied into target content sequentially.
+	 */
+	private static void transposeVector(final float[][] source, final float[] target) {
+		for (int y = 0, where = 0; y < source.length; where += source[y].length, y++) {
+			System.arraycopy(source[y], 0, target, where, source[y].length);
 		}
+	}
 
-		@Override
-		protected void compute() {
-			if (pieces.length == 1) {
-				try {
-					forEachInternal(pieces[0], callback);
-				} catch (CalculationException e) {
-					e.printStackTrace();
-				}
+	private static void transposeInternal(final Piece piece, final float[][] source, final float[][] target) throws CalculationException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+		
+		for (int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
+			final float[]	line = source[y];
+			
+			for (int x = xFrom; x < xTo; x++) {
+				target[x][2*y] = line[2*x];
+				target[x][2*y+1] = line[2*x+1];
 			}
-			else {
-				final ForEachTask[]	tasks = new ForEachTask[pieces.length];
+		}
+	}
+
+	/*
+	 * Reduce matrix. Piece describes column strip to reduce, xFrom is the first target column for the strip.
+	 */
+	private static void reduceInternal(final Piece piece, final float[][] source, final float[][] target, final long mask, final long val, final int xFrom) throws CalculationException {
+		final int	xStart = (int) piece.x(), xEnd = (int) (piece.x() + piece.width());
+		
+		for (int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), yTo = 0; y < maxY; y++) {
+			if ((y & mask) == val) {
+				final float[]	from = source[y];
+				final float[]	to = target[yTo];
 				
-				for (int index = 0; index < tasks.length; index++) {
-					tasks[index] = new ForEachTask(callback, pieces[index]);
-					tasks[index].fork();
-				}
-				for (ForEachTask item : tasks) {
-					item.join();
+				for (int x = xStart, xTo = xFrom; x < xEnd; x++) {
+					if ((x & mask) == val) {
+						to[2*xTo] = from[2*x]; 
+						to[2*xTo+1] = from[2*x+1];
+						xTo++;
+					}
 				}
+				yTo++;
 			}
 		}
 	}
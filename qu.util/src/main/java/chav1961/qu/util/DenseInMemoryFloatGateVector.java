@@ -0,0 +1,352 @@
+package chav1961.qu.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+/**
+ * <p>This class is a dense vector (1*x or y*1) implementation. Unlike {@linkplain DenseInMemoryFloatGateMatrix}, it keeps all the content
+ * in the one contiguous array of the interleaved real/image values, so every cell (x,y) is placed at the 2*(y*width+x) index.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+public class DenseInMemoryFloatGateVector extends AbstractInMemoryGateMatrix {
+	private final float[]	content;
+
+	DenseInMemoryFloatGateVector(final long width, final long height, final boolean parallelModeOn) {
+		this(width, height, parallelModeOn, new float[toArraySize(2 * width * height)]);
+	}
+
+	DenseInMemoryFloatGateVector(final long width, final long height, final boolean parallelModeOn, final float[] content) {
+		super(GateMatrixType.DENSE_MATRIX, width, height, parallelModeOn);
+		if (width != 1 && height != 1) {
+			throw new IllegalArgumentException("Vector must have either width or height equals 1");
+		}
+		else {
+			this.content = content;
+		}
+	}
+
+	@Override
+	public Class<?> getValueClass() {
+		return float.class;
+	}
+
+	@Override
+	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
+		final float[]	temp = content;
+		final int		width = (int) getWidth(), xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			for(int x = xFrom, where = 2 * (y * width + x); x < xTo; x++, where += 2) {
+				final float	real = in.readFloat();
+				final float	image = in.readFloat();
+
+				try {
+					if (callback.process(x, y, real, image)) {
+						temp[where] = real;
+						temp[where + 1] = image;
+					}
+				} catch (CalculationException e) {
+					throw new IOException(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void uploadInternal(final Piece piece, final DataOutput out, final ForEachCallback callback) throws IOException {
+		final float[]	temp = content;
+		final int		width = (int) getWidth(), xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			for(int x = xFrom, where = 2 * (y * width + x); x < xTo; x++, where += 2) {
+				final float	real = temp[where];
+				final float	image = temp[where + 1];
+
+				try {
+					if (callback.process(x, y, real, image)) {
+						out.writeFloat(real);
+						out.writeFloat(image);
+					}
+				} catch (CalculationException e) {
+					throw new IOException(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
+		return multiplyIntoInternal(another, newInstance(another.getWidth(), getHeight(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
+		return multiplyAndTransposeIntoInternal(another, newInstance(getHeight(), another.getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix transposeInternal() throws CalculationException {
+		return new DenseInMemoryFloatGateVector(getHeight(), getWidth(), isParallelMode(), content.clone());
+	}
+
+	@Override
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		final long		mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final float[]	source = content;
+		final float[]	result = new float[source.length / 2];
+
+		for (int index = 0, where = 0, maxIndex = source.length / 2; index < maxIndex; index++) {
+			if ((index & mask) == val) {
+				result[where++] = source[2 * index];
+				result[where++] = source[2 * index + 1];
+			}
+		}
+		return getWidth() == 1
+				? new DenseInMemoryFloatGateVector(1, getHeight() / 2, isParallelMode(), result)
+				: new DenseInMemoryFloatGateVector(getWidth() / 2, 1, isParallelMode(), result);
+	}
+
+	@Override
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final float[]	temp = content;
+		final int		width = (int) getWidth(), xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			for(int x = xFrom, where = 2 * (y * width + x); x < xTo; x++, where += 2) {
+				callback.process(x, y, temp[where], temp[where + 1]);
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final int	width = (int) getWidth(), size = (int) (2 * piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), where = offset; y < maxY; y++, where += size) {
+			System.arraycopy(content, (int) (2 * (y * width + piece.x())), target, where, size);
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final float[]	temp = content;
+		final int		width = (int) getWidth(), size = (int) (2 * piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), where = offset; y < maxY; y++) {
+			for(int index = (int) (2 * (y * width + piece.x())), maxIndex = index + size; index < maxIndex; index++) {
+				target[where++] = temp[index];
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyIntoInternalP(another, newInstance(another.getWidth(), getHeight(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyAndTransposeIntoInternalP(another, newInstance(getHeight(), another.getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final float[]	result = toProductContent(target);
+
+		multiplyInternal(content, (int) getWidth(), toDense(another), result, productPiece(another));
+		storeProduct(result, (int) another.getWidth(), target, false);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final float[]	result = toProductContent(target);
+
+		multiplyInternal(content, (int) getWidth(), toDense(another), result, productPiece(another));
+		storeProduct(result, (int) another.getWidth(), target, !(getHeight() == 1 || another.getWidth() == 1));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternal(final GateMatrix target) throws CalculationException {
+		if (target instanceof DenseInMemoryFloatGateVector) {
+			System.arraycopy(content, 0, ((DenseInMemoryFloatGateVector)target).content, 0, content.length);
+		}
+		else {
+			// Transposed vector has the same content order as source one
+			storeProduct(content, (int) target.getWidth(), target, false);
+		}
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final float[]	result = toProductContent(target);
+
+		final GateMatrix	right = toDense(another);
+
+		invokeRangeTask(productPiece(another), getWidth(), 1, (piece)->multiplyInternal(content, (int) getWidth(), right, result, piece));
+		storeProduct(result, (int) another.getWidth(), target, false);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final float[]	result = toProductContent(target);
+
+		final GateMatrix	right = toDense(another);
+
+		invokeRangeTask(productPiece(another), getWidth(), 1, (piece)->multiplyInternal(content, (int) getWidth(), right, result, piece));
+		storeProduct(result, (int) another.getWidth(), target, !(getHeight() == 1 || another.getWidth() == 1));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternalP(final GateMatrix target) throws CalculationException {
+		return transposeIntoInternal(target);
+	}
+
+	@Override
+	protected GateMatrix transposeInternalP() throws CalculationException {
+		// Vector transposition is a plain array copy, there is nothing to split
+		return transposeInternal();
+	}
+
+	@Override
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue);
+	}
+
+	@Override
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		invokeRangeTask(piece, 1, 1, (part)->forEachInternal(part, callback));
+	}
+
+	float[] getContent() {
+		return content;
+	}
+
+	/*
+	 * Make empty dense matrix or vector to store product to.
+	 */
+	static AbstractInMemoryGateMatrix newInstance(final long width, final long height, final boolean parallelModeOn) {
+		if (width == 1 || height == 1) {
+			return new DenseInMemoryFloatGateVector(width, height, parallelModeOn);
+		}
+		else {
+			return new DenseInMemoryFloatGateMatrix(width, height, parallelModeOn);
+		}
+	}
+
+	/*
+	 * Get array to calculate product to. Vector target content is used directly, matrix product is calculated into temporary array
+	 */
+	private static float[] toProductContent(final GateMatrix target) {
+		if (target instanceof DenseInMemoryFloatGateVector) {
+			final float[]	result = ((DenseInMemoryFloatGateVector)target).content;
+			
+			Arrays.fill(result, 0.0f);
+			return result;
+		}
+		else if (target instanceof DenseInMemoryFloatGateMatrix) {
+			return new float[(int) (2 * target.getWidth() * target.getHeight())];
+		}
+		else {
+			throw new IllegalArgumentException("Target matrix ["+target.getClass().getSimpleName()+"] is not compatible with the dense float vector result");
+		}
+	}
+
+	/*
+	 * Store product calculated into temporary array into the target matrix rows
+	 */
+	private static void storeProduct(final float[] product, final int productWidth, final GateMatrix target, final boolean transpose) {
+		if (target instanceof DenseInMemoryFloatGateMatrix) {
+			final float[][]	rows = ((DenseInMemoryFloatGateMatrix)target).getContent();
+			final int		productHeight = product.length / (2 * productWidth);
+			
+			if (transpose) {
+				for (int y = 0; y < productHeight; y++) {
+					for (int x = 0, index = 2 * y * productWidth; x < productWidth; x++, index += 2) {
+						rows[x][2 * y] = product[index];
+						rows[x][2 * y + 1] = product[index + 1];
+					}
+				}
+			}
+			else {
+				for (int y = 0; y < productHeight; y++) {
+					System.arraycopy(product, 2 * y * productWidth, rows[y], 0, 2 * productWidth);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Get dense representation of any matrix. Non-dense matrices are extracted row-by-row into the dense float matrix
+	 */
+	private static GateMatrix toDense(final GateMatrix another) throws CalculationException {
+		if (another instanceof DenseInMemoryFloatGateVector || another instanceof DenseInMemoryFloatGateMatrix) {
+			return another;
+		}
+		else {
+			final float[][]	rows = new float[(int) another.getHeight()][(int) (2 * another.getWidth())];
+
+			for (int y = 0; y < rows.length; y++) {
+				another.extract(Piece.of(0, y, another.getWidth(), 1), rows[y], 0);
+			}
+			return new DenseInMemoryFloatGateMatrix(another.getWidth(), another.getHeight(), false, rows);
+		}
+	}
+	
+	private Piece productPiece(final GateMatrix another) {
+		return Piece.of(0, 0, another.getWidth(), getHeight());
+	}
+
+	private static void multiplyInternal(final float[] left, final int leftWidth, final GateMatrix another, final float[] target, final Piece piece) throws CalculationException {
+		final int	targetWidth = (int) another.getWidth();
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+		final int	yFrom = (int) piece.y(), yTo = (int) (piece.y() + piece.height());
+
+		if (another instanceof DenseInMemoryFloatGateVector) {
+			final float[]	right = ((DenseInMemoryFloatGateVector)another).content;
+
+			for (int y = yFrom; y < yTo; y++) {
+				for (int x = xFrom; x < xTo; x++) {
+					float	real = 0, image = 0;
+
+					for (int k = 0, l = 2 * y * leftWidth, r = 2 * x; k < leftWidth; k++, l += 2, r += 2 * targetWidth) {
+						real += left[l] * right[r] - left[l + 1] * right[r + 1];
+						image += left[l + 1] * right[r] + left[l] * right[r + 1];
+					}
+					target[2 * (y * targetWidth + x)] = real;
+					target[2 * (y * targetWidth + x) + 1] = image;
+				}
+			}
+		}
+		else {
+			// Every product row is a linear combination of the right matrix rows
+			final float[][]	right = ((DenseInMemoryFloatGateMatrix)another).getContent();
+
+			for (int y = yFrom; y < yTo; y++) {
+				for (int k = 0, l = 2 * y * leftWidth, t = 2 * y * targetWidth; k < leftWidth; k++, l += 2) {
+					final float		leftReal = left[l], leftImage = left[l + 1];
+					final float[]	rightLine = right[k];
+	
+					if (leftReal != 0 || leftImage != 0) {
+						for (int x = 2 * xFrom, maxX = 2 * xTo; x < maxX; x += 2) {
+							target[t + x] += leftReal * rightLine[x] - leftImage * rightLine[x + 1];
+							target[t + x + 1] += leftImage * rightLine[x] + leftReal * rightLine[x + 1];
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,473 @@
+package chav1961.qu.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+/**
+ * <p>This class is a dense matrix implementation with planar layout. Unlike {@linkplain DenseInMemoryFloatGateMatrix}, it keeps real and
+ * image parts of the matrix content in two separate arrays, so every kernel streams over contiguous data of the same kind. This layout
+ * is preferable for SIMD calculations and for real-only operations (probabilities, norms). Serialized format of the matrix is exactly
+ * the same as {@linkplain DenseInMemoryFloatGateMatrix} has.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+public class DenseInMemoryFloatPlanarGateMatrix extends AbstractInMemoryGateMatrix {
+	private static final int	BLOCK_SIZE = 64;
+
+	private final float[][]	real;
+	private final float[][]	image;
+
+	DenseInMemoryFloatPlanarGateMatrix(final long width, final long height, final boolean parallelModeOn) {
+		this(width, height, parallelModeOn, new float[toArraySize(height)][toArraySize(width)], new float[toArraySize(height)][toArraySize(width)]);
+	}
+
+	DenseInMemoryFloatPlanarGateMatrix(final long width, final long height, final boolean parallelModeOn, final float[][] real, final float[][] image) {
+		super(GateMatrixType.DENSE_MATRIX, width, height, parallelModeOn);
+		this.real = real;
+		this.image = image;
+	}
+
+	@Override
+	public Class<?> getValueClass() {
+		return float.class;
+	}
+
+	float[][] getReal() {
+		return real;
+	}
+
+	float[][] getImage() {
+		return image;
+	}
+
+	@Override
+	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			final float[]	realLine = real[y], imageLine = image[y];
+
+			for(int x = xFrom; x < xTo; x++) {
+				final float	realValue = in.readFloat();
+				final float	imageValue = in.readFloat();
+
+				try {
+					if (callback.process(x, y, realValue, imageValue)) {
+						realLine[x] = realValue;
+						imageLine[x] = imageValue;
+					}
+				} catch (CalculationException e) {
+					throw new IOException(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void uploadInternal(final Piece piece, final DataOutput out, final ForEachCallback callback) throws IOException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			final float[]	realLine = real[y], imageLine = image[y];
+
+			for(int x = xFrom; x < xTo; x++) {
+				try {
+					if (callback.process(x, y, realLine[x], imageLine[x])) {
+						out.writeFloat(realLine[x]);
+						out.writeFloat(imageLine[x]);
+					}
+				} catch (CalculationException e) {
+					throw new IOException(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
+		return multiplyIntoInternal(another, new DenseInMemoryFloatPlanarGateMatrix(another.getWidth(), getHeight(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
+		return multiplyAndTransposeIntoInternal(another, new DenseInMemoryFloatPlanarGateMatrix(getHeight(), another.getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix transposeInternal() throws CalculationException {
+		return transposeIntoInternal(new DenseInMemoryFloatPlanarGateMatrix(getHeight(), getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceIntoInternal(qubitNo, qubitValue, new DenseInMemoryFloatPlanarGateMatrix(getWidth()/2, getHeight()/2, isParallelMode()));
+	}
+
+	@Override
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()); y < maxY; y++) {
+			final float[]	realLine = real[y], imageLine = image[y];
+
+			for(int x = xFrom; x < xTo; x++) {
+				callback.process(x, y, realLine[x], imageLine[x]);
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), where = offset; y < maxY; y++) {
+			final float[]	realLine = real[y], imageLine = image[y];
+
+			for(int x = xFrom; x < xTo; x++) {
+				target[where++] = realLine[x];
+				target[where++] = imageLine[x];
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for(int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), where = offset; y < maxY; y++) {
+			final float[]	realLine = real[y], imageLine = image[y];
+
+			for(int x = xFrom; x < xTo; x++) {
+				target[where++] = realLine[x];
+				target[where++] = imageLine[x];
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyIntoInternalP(another, new DenseInMemoryFloatPlanarGateMatrix(another.getWidth(), getHeight(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyAndTransposeIntoInternalP(another, new DenseInMemoryFloatPlanarGateMatrix(getHeight(), another.getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix transposeInternalP() throws CalculationException {
+		return transposeIntoInternalP(new DenseInMemoryFloatPlanarGateMatrix(getHeight(), getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceIntoInternalP(qubitNo, qubitValue, new DenseInMemoryFloatPlanarGateMatrix(getWidth()/2, getHeight()/2, isParallelMode()));
+	}
+
+	@Override
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		invokeRangeTask(piece, 1, 1, (part)->forEachInternal(part, callback));
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final float[][][]	right = toPlanarContent(another);
+		final DenseInMemoryFloatPlanarGateMatrix	result = toTarget(target);
+
+		multiplyInternalPlanar(real, image, right[0], right[1], result.real, result.image, productPiece(another), false);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final float[][][]	right = toPlanarContent(another);
+		final DenseInMemoryFloatPlanarGateMatrix	result = toTarget(target);
+
+		multiplyInternalPlanar(real, image, right[0], right[1], result.real, result.image, productPiece(another), true);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternal(final GateMatrix target) throws CalculationException {
+		final DenseInMemoryFloatPlanarGateMatrix	result = toTarget(target);
+
+		transposeInternal(totalPiece(this), real, result.real);
+		transposeInternal(totalPiece(this), image, result.image);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix reduceIntoInternal(final int qubitNo, final int qubitValue, final GateMatrix target) throws CalculationException {
+		final long	mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final DenseInMemoryFloatPlanarGateMatrix	result = toTarget(target);
+
+		reduceInternal(totalPiece(this), real, result.real, mask, val, 0);
+		reduceInternal(totalPiece(this), image, result.image, mask, val, 0);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final float[][][]	right = toPlanarContent(another);
+		final DenseInMemoryFloatPlanarGateMatrix	result = toTarget(target);
+
+		invokeTask(new MultiplyTask(real, image, right[0], right[1], result.real, result.image, false, productPiece(another)), productPiece(another), getWidth());
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		final float[][][]	right = toPlanarContent(another);
+		final DenseInMemoryFloatPlanarGateMatrix	result = toTarget(target);
+
+		invokeTask(new MultiplyTask(real, image, right[0], right[1], result.real, result.image, true, productPiece(another)), productPiece(another), getWidth());
+		return target;
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternalP(final GateMatrix target) throws CalculationException {
+		final DenseInMemoryFloatPlanarGateMatrix	result = toTarget(target);
+
+		invokeTask(new TransposeTask(real, result.real, totalPiece(this)), totalPiece(this), 1);
+		invokeTask(new TransposeTask(image, result.image, totalPiece(this)), totalPiece(this), 1);
+		return target;
+	}
+
+	@Override
+	protected GateMatrix reduceIntoInternalP(final int qubitNo, final int qubitValue, final GateMatrix target) throws CalculationException {
+		final long		mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final DenseInMemoryFloatPlanarGateMatrix	result = toTarget(target);
+
+		invokeTask(new ReduceTask(real, result.real, mask, val, totalPiece(this)), totalPiece(this), 1);
+		invokeTask(new ReduceTask(image, result.image, mask, val, totalPiece(this)), totalPiece(this), 1);
+		return target;
+	}
+
+	private static DenseInMemoryFloatPlanarGateMatrix toTarget(final GateMatrix target) {
+		if (target instanceof DenseInMemoryFloatPlanarGateMatrix) {
+			return (DenseInMemoryFloatPlanarGateMatrix)target;
+		}
+		else {
+			throw new IllegalArgumentException("Target matrix ["+target.getClass().getSimpleName()+"] is not compatible with the planar float matrix result");
+		}
+	}
+
+	private Piece productPiece(final GateMatrix another) {
+		return Piece.of(0, 0, another.getWidth(), getHeight());
+	}
+
+	/*
+	 * Get content of any matrix as planar rows (index 0 - real parts, index 1 - image parts). Content of the planar matrix is returned as-is.
+	 */
+	private static float[][][] toPlanarContent(final GateMatrix another) throws CalculationException {
+		if (another instanceof DenseInMemoryFloatPlanarGateMatrix) {
+			return new float[][][] {((DenseInMemoryFloatPlanarGateMatrix)another).real, ((DenseInMemoryFloatPlanarGateMatrix)another).image};
+		}
+		else {
+			final float[][]	resultReal = new float[(int) another.getHeight()][(int) another.getWidth()];
+			final float[][]	resultImage = new float[(int) another.getHeight()][(int) another.getWidth()];
+			final float[]	line = new float[(int) (2 * another.getWidth())];
+
+			for (int y = 0; y < resultReal.length; y++) {
+				final float[]	realLine = resultReal[y], imageLine = resultImage[y];
+
+				another.extract(Piece.of(0, y, another.getWidth(), 1), line, 0);
+				for (int x = 0; x < realLine.length; x++) {
+					realLine[x] = line[2 * x];
+					imageLine[x] = line[2 * x + 1];
+				}
+			}
+			return new float[][][] {resultReal, resultImage};
+		}
+	}
+
+	/*
+	 * Tiled multiplication. See DenseInMemoryFloatGateMatrix.multiplyInternalTiled(...) for details. Planar panels don't need any swapped copies.
+	 */
+	private static void multiplyInternalPlanar(final float[][] leftReal, final float[][] leftImage, final float[][] rightReal, final float[][] rightImage, final float[][] targetReal, final float[][] targetImage, final Piece piece, final boolean transpose) {
+		final int		xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+		final int		yFrom = (int) piece.y(), yTo = (int) (piece.y() + piece.height());
+		final int		depth = rightReal.length;
+		final float[][]	panelReal = new float[BLOCK_SIZE][BLOCK_SIZE], panelImage = new float[BLOCK_SIZE][BLOCK_SIZE];
+		final float[][]	tileReal = new float[BLOCK_SIZE][BLOCK_SIZE], tileImage = new float[BLOCK_SIZE][BLOCK_SIZE];
+
+		for (int xBlock = xFrom; xBlock < xTo; xBlock += BLOCK_SIZE) {
+			final int	blockWidth = Math.min(BLOCK_SIZE, xTo - xBlock);
+
+			for (int yBlock = yFrom; yBlock < yTo; yBlock += BLOCK_SIZE) {
+				final int	blockHeight = Math.min(BLOCK_SIZE, yTo - yBlock);
+
+				for (int y = 0; y < blockHeight; y++) {
+					Arrays.fill(tileReal[y], 0, blockWidth, 0.0f);
+					Arrays.fill(tileImage[y], 0, blockWidth, 0.0f);
+				}
+				for (int kBlock = 0; kBlock < depth; kBlock += BLOCK_SIZE) {
+					final int	blockDepth = Math.min(BLOCK_SIZE, depth - kBlock);
+
+					for (int k = 0; k < blockDepth; k++) {
+						System.arraycopy(rightReal[kBlock + k], xBlock, panelReal[k], 0, blockWidth);
+						System.arraycopy(rightImage[kBlock + k], xBlock, panelImage[k], 0, blockWidth);
+					}
+					for (int y = 0; y < blockHeight; y++) {
+						final float[]	leftRealLine = leftReal[yBlock + y], leftImageLine = leftImage[yBlock + y];
+
+						for (int k = 0; k < blockDepth; k++) {
+							final float	lr = leftRealLine[kBlock + k], li = leftImageLine[kBlock + k];
+
+							if (lr != 0 || li != 0) {
+								ComplexKernels.multiplyAndAdd(lr, li, panelReal[k], panelImage[k], tileReal[y], tileImage[y], blockWidth);
+							}
+						}
+					}
+				}
+				if (transpose) {
+					for (int y = 0; y < blockHeight; y++) {
+						for (int x = 0; x < blockWidth; x++) {
+							targetReal[xBlock + x][yBlock + y] = tileReal[y][x];
+							targetImage[xBlock + x][yBlock + y] = tileImage[y][x];
+						}
+					}
+				}
+				else {
+					for (int y = 0; y < blockHeight; y++) {
+						System.arraycopy(tileReal[y], 0, targetReal[yBlock + y], xBlock, blockWidth);
+						System.arraycopy(tileImage[y], 0, targetImage[yBlock + y], xBlock, blockWidth);
+					}
+				}
+			}
+		}
+	}
+
+	private static void transposeInternal(final Piece piece, final float[][] source, final float[][] target) {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for (int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
+			final float[]	line = source[y];
+
+			for (int x = xFrom; x < xTo; x++) {
+				target[x][y] = line[x];
+			}
+		}
+	}
+
+	/*
+	 * Reduce matrix plane. Piece describes column strip to reduce, xFrom is the first target column for the strip.
+	 */
+	private static void reduceInternal(final Piece piece, final float[][] source, final float[][] target, final long mask, final long val, final int xFrom) {
+		final int	xStart = (int) piece.x(), xEnd = (int) (piece.x() + piece.width());
+
+		for (int y = (int)piece.y(), maxY = (int)(piece.y() + piece.height()), yTo = 0; y < maxY; y++) {
+			if ((y & mask) == val) {
+				final float[]	from = source[y];
+				final float[]	to = target[yTo];
+
+				for (int x = xStart, xTo = xFrom; x < xEnd; x++) {
+					if ((x & mask) == val) {
+						to[xTo++] = from[x];
+					}
+				}
+				yTo++;
+			}
+		}
+	}
+
+	private static class MultiplyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final float[][]	leftReal;
+		private final float[][]	leftImage;
+		private final float[][]	rightReal;
+		private final float[][]	rightImage;
+		private final float[][]	targetReal;
+		private final float[][]	targetImage;
+		private final boolean	transpose;
+		private final Piece		piece;
+
+		private MultiplyTask(final float[][] leftReal, final float[][] leftImage, final float[][] rightReal, final float[][] rightImage, final float[][] targetReal, final float[][] targetImage, final boolean transpose, final Piece piece) {
+			this.leftReal = leftReal;
+			this.leftImage = leftImage;
+			this.rightReal = rightReal;
+			this.rightImage = rightImage;
+			this.targetReal = targetReal;
+			this.targetImage = targetImage;
+			this.transpose = transpose;
+			this.piece = piece;
+		}
+
+		@Override
+		protected void compute() {
+			if (isSplittable(piece, rightReal.length)) {
+				final Piece[]	halves = splitPiece(piece, BLOCK_SIZE);
+
+				invokeAll(new MultiplyTask(leftReal, leftImage, rightReal, rightImage, targetReal, targetImage, transpose, halves[0]), new MultiplyTask(leftReal, leftImage, rightReal, rightImage, targetReal, targetImage, transpose, halves[1]));
+			}
+			else {
+				multiplyInternalPlanar(leftReal, leftImage, rightReal, rightImage, targetReal, targetImage, piece, transpose);
+			}
+		}
+	}
+
+	private static class TransposeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final float[][]	source;
+		private final float[][]	target;
+		private final Piece		piece;
+
+		private TransposeTask(final float[][] source, final float[][] target, final Piece piece) {
+			this.source = source;
+			this.target = target;
+			this.piece = piece;
+		}
+
+		@Override
+		protected void compute() {
+			if (isSplittable(piece, 1)) {
+				final Piece[]	halves = splitPiece(piece, BLOCK_SIZE);
+
+				invokeAll(new TransposeTask(source, target, halves[0]), new TransposeTask(source, target, halves[1]));
+			}
+			else {
+				transposeInternal(piece, source, target);
+			}
+		}
+	}
+
+	private static class ReduceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final float[][]	source;
+		private final float[][]	target;
+		private final long 		mask;
+		private final long 		val;
+		private final Piece		piece;
+
+		private ReduceTask(final float[][] source, final float[][] target, final long mask, final long val, final Piece piece) {
+			this.source = source;
+			this.target = target;
+			this.mask = mask;
+			this.val = val;
+			this.piece = piece;
+		}
+
+		@Override
+		protected void compute() {
+			if (piece.width() > 1 && isSplittable(piece, 1)) {
+				final Piece[]	halves = splitPieceX(piece, 1);
+
+				invokeAll(new ReduceTask(source, target, mask, val, halves[0]), new ReduceTask(source, target, mask, val, halves[1]));
+			}
+			else {
+				reduceInternal(piece, source, target, mask, val, (int) countReduced(piece.x(), mask, val));
+			}
+		}
+	}
+}
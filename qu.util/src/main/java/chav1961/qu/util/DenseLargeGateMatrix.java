@@ -1,13 +1,483 @@
 package chav1961.qu.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
 import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
 import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+/**
+ * <p>This class is a file-backed dense matrix. Every cell is stored as interleaved (real, image) float pair, so the file has the same
+ * layout as {@linkplain DenseInMemoryFloatGateVector} content. All the operations stream the matrix window by window (see
+ * {@linkplain AbstractLargeGateMatrix}), and use bounded buffers only, so matrix size is limited by disk space, not by heap size.</p>
+ * <p>Multiplication is out-of-core: product is calculated tile by tile, and all the tiles kept in memory at the same time fit the memory
+ * budget of the matrix (see {@linkplain #setMemoryBudget(long)}). Product is always a file-backed matrix.</p>
+ * <p>Matrix created by {@linkplain #create(File, long, long, boolean)} is stored in the persistent file and can be reopened later by
+ * {@linkplain #open(File, boolean)} without any content loading.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+public class DenseLargeGateMatrix extends AbstractLargeGateMatrix {
+	/*
+	 * Side of the square tile to transpose (in cells). Tile buffer takes TILE_SIZE * TILE_SIZE * CELL_SIZE bytes
+	 */
+	private static final int	TILE_SIZE = 256;
+
+	/*
+	 * Max number of cells of the row segment to read or write at once
+	 */
+	private static final int	CHUNK_SIZE = 1 << 16;
+
+	/*
+	 * Max side of the product tile (in cells)
+	 */
+	private static final int	MAX_TILE_SIDE = 1 << 14;
+
+	/**
+	 * <p>Default memory budget of the multiplication (in bytes)</p>
+	 */
+	public static final long	DEFAULT_MEMORY_BUDGET = 256L << 20;
+
+	/**
+	 * <p>Min memory budget of the multiplication (in bytes). Enough to keep one-cell tiles</p>
+	 */
+	public static final long	MIN_MEMORY_BUDGET = 6 * CELL_SIZE;
+
+	private volatile long		memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+	DenseLargeGateMatrix(final long width, final long height, final boolean parallelModeOn) throws CalculationException {
+		this(width, height, parallelModeOn, DEFAULT_WINDOW_SIZE);
+	}
+
+	DenseLargeGateMatrix(final long width, final long height, final boolean parallelModeOn, final long windowSize) throws CalculationException {
+		super(GateMatrixType.DENSE_MATRIX, float.class, width, height, parallelModeOn, windowSize);
+	}
+
+	private DenseLargeGateMatrix(final File file, final long width, final long height, final boolean parallelModeOn, final long windowSize) throws CalculationException {
+		super(GateMatrixType.DENSE_MATRIX, float.class, file, width, height, parallelModeOn, windowSize);
+	}
+
+	private DenseLargeGateMatrix(final Header header, final File file, final boolean parallelModeOn, final long windowSize) throws CalculationException {
+		super(header, file, parallelModeOn, windowSize);
+	}
+
+	/**
+	 * <p>Create new matrix in the persistent file. File is kept after closing the matrix and can be reopened by {@linkplain #open(File, boolean)}</p>
+	 * @param file file to create matrix in. Can't be null and must not exist
+	 * @param width matrix width
+	 * @param height matrix height
+	 * @param parallelModeOn enable parallel mode
+	 * @return matrix created. Content of the matrix is filled with zeroes
+	 * @throws CalculationException on any I/O errors, including existent file
+	 */
+	public static DenseLargeGateMatrix create(final File file, final long width, final long height, final boolean parallelModeOn) throws CalculationException {
+		if (file == null) {
+			throw new NullPointerException("File can't be null");
+		}
+		else {
+			return new DenseLargeGateMatrix(file, width, height, parallelModeOn, DEFAULT_WINDOW_SIZE);
+		}
+	}
+
+	/**
+	 * <p>Open matrix in the existing file, created by {@linkplain #create(File, long, long, boolean)}. Only file header is read on opening,
+	 * and matrix content is mapped on demand, so opening takes constant time regardless of the matrix size</p>
+	 * @param file file to open matrix in. Can't be null
+	 * @param parallelModeOn enable parallel mode
+	 * @return matrix opened. Matrix changes are stored in the file
+	 * @throws CalculationException on any I/O errors, or when the file doesn't contain dense matrix of float values
+	 */
+	public static DenseLargeGateMatrix open(final File file, final boolean parallelModeOn) throws CalculationException {
+		if (file == null) {
+			throw new NullPointerException("File can't be null");
+		}
+		else {
+			return new DenseLargeGateMatrix(readHeader(file, GateMatrixType.DENSE_MATRIX, float.class), file, parallelModeOn, DEFAULT_WINDOW_SIZE);
+		}
+	}
+
+	@Override
+	public Class<?> getValueClass() {
+		return float.class;
+	}
+
+	/**
+	 * <p>Get memory budget of the multiplication</p>
+	 * @return max amount of memory (in bytes) the tiles of the multiplication can occupy
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
 
-class DenseLargeGateMatrix extends AbstractLargeGateMatrix {
+	/**
+	 * <p>Set memory budget of the multiplication. Greater budget means greater tiles and less I/O volume. Matrices created by any operation
+	 * inherit memory budget of the source matrix</p>
+	 * @param budget max amount of memory (in bytes) the tiles of the multiplication can occupy. Must be at least {@value #MIN_MEMORY_BUDGET}
+	 * @return previous memory budget
+	 */
+	public long setMemoryBudget(final long budget) {
+		if (budget < MIN_MEMORY_BUDGET) {
+			throw new IllegalArgumentException("Memory budget ["+budget+"] must be at least "+MIN_MEMORY_BUDGET);
+		}
+		else {
+			final long	result = memoryBudget;
+
+			this.memoryBudget = budget;
+			return result;
+		}
+	}
+
+	@Override
+	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
+		try {
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				readAhead(piece.x(), y);
+				for (long x = piece.x(), maxX = piece.x() + piece.width(); x < maxX; ) {
+					final FloatBuffer	buffer = getMapping(Piece.of(x, y, maxX - x, 1), true).asFloatBuffer();
+
+					for (int index = 0, maxIndex = buffer.limit(); index < maxIndex; index += 2, x++) {
+						final float	real = in.readFloat();
+						final float	image = in.readFloat();
+
+						if (callback.process(x, y, real, image)) {
+							buffer.put(index, real);
+							buffer.put(index + 1, image);
+						}
+					}
+				}
+			}
+		} catch (CalculationException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	@Override
+	protected void uploadInternal(final Piece piece, final DataOutput out, final ForEachCallback callback) throws IOException {
+		try {
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				readAhead(piece.x(), y);
+				for (long x = piece.x(), maxX = piece.x() + piece.width(); x < maxX; ) {
+					final FloatBuffer	buffer = getMapping(Piece.of(x, y, maxX - x, 1), false).asFloatBuffer();
+
+					for (int index = 0, maxIndex = buffer.limit(); index < maxIndex; index += 2, x++) {
+						final float	real = buffer.get(index);
+						final float	image = buffer.get(index + 1);
+
+						if (callback.process(x, y, real, image)) {
+							out.writeFloat(real);
+							out.writeFloat(image);
+						}
+					}
+				}
+			}
+		} catch (CalculationException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	@Override
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+			readAhead(piece.x(), y);
+			for (long x = piece.x(), maxX = piece.x() + piece.width(); x < maxX; ) {
+				final FloatBuffer	buffer = getMapping(Piece.of(x, y, maxX - x, 1), false).asFloatBuffer();
+
+				for (int index = 0, maxIndex = buffer.limit(); index < maxIndex; index += 2, x++) {
+					callback.process(x, y, buffer.get(index), buffer.get(index + 1));
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final int	size = (int) (2 * piece.width());
+
+		for(long y = piece.y(), maxY = piece.y() + piece.height(), where = offset; y < maxY; y++, where += size) {
+			read(piece.x(), y, target, (int) where, (int) piece.width());
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final float[]	chunk = new float[2 * (int) Math.min(piece.width(), CHUNK_SIZE)];
+		int				where = offset;
+
+		for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+			for (long x = piece.x(), maxX = piece.x() + piece.width(); x < maxX; x += chunk.length / 2) {
+				final int	count = (int) Math.min(maxX - x, chunk.length / 2);
+
+				read(x, y, chunk, 0, count);
+				for (int index = 0; index < 2 * count; index++) {
+					target[where++] = chunk[index];
+				}
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, false, false);
+	}
 
-	protected DenseLargeGateMatrix(long width, long height) throws CalculationException {
-		super(GateMatrixType.DENSE_MATRIX, width, height);
-		// TODO Auto-generated constructor stub
+	@Override
+	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true, false);
 	}
 
+	/*
+	 * Vector transposition keeps content order, so it's a plain file copy. Matrix is transposed tile by tile: tile rows are read into the
+	 * buffer, and tile columns are written as target row segments. So every source and target window is accessed by the row segments of
+	 * TILE_SIZE cells instead of the single cells.
+	 */
+	@Override
+	protected GateMatrix transposeInternal() throws CalculationException {
+		final DenseLargeGateMatrix	result = newInstance(getHeight(), getWidth());
+
+		if (isVector()) {
+			copyContent(result);
+		}
+		else {
+			final float[]	tile = new float[2 * TILE_SIZE * TILE_SIZE], line = new float[2 * TILE_SIZE];
+
+			for (long tileY = 0; tileY < getHeight(); tileY += TILE_SIZE) {
+				final int	tileHeight = (int) Math.min(TILE_SIZE, getHeight() - tileY);
+
+				for (long tileX = 0; tileX < getWidth(); tileX += TILE_SIZE) {
+					final int	tileWidth = (int) Math.min(TILE_SIZE, getWidth() - tileX);
+
+					for (int y = 0; y < tileHeight; y++) {
+						readAhead(tileX, tileY + y);
+						read(tileX, tileY + y, tile, 2 * y * tileWidth, tileWidth);
+					}
+					for (int x = 0; x < tileWidth; x++) {
+						for (int y = 0; y < tileHeight; y++) {
+							line[2 * y] = tile[2 * (y * tileWidth + x)];
+							line[2 * y + 1] = tile[2 * (y * tileWidth + x) + 1];
+						}
+						result.write(tileY, tileX + x, line, 0, tileHeight);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Kept rows are read chunk by chunk, kept cells are compacted and written to the reduced row sequentially.
+	 */
+	@Override
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		final long					mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final DenseLargeGateMatrix	result = newInstance(getWidth() / 2, getHeight() / 2);
+		final float[]				chunk = new float[2 * (int) Math.min(getWidth(), CHUNK_SIZE)];
+
+		for (long y = 0; y < getHeight(); y++) {
+			if ((y & mask) == val) {
+				final long	targetY = countReduced(y, mask, val);
+
+				readAhead(0, y);
+				for (long x = 0; x < getWidth(); x += chunk.length / 2) {
+					final int	count = (int) Math.min(getWidth() - x, chunk.length / 2);
+					int			kept = 0;
+
+					read(x, y, chunk, 0, count);
+					for (int cell = 0; cell < count; cell++) {
+						if (((x + cell) & mask) == val) {
+							chunk[2 * kept] = chunk[2 * cell];
+							chunk[2 * kept + 1] = chunk[2 * cell + 1];
+							kept++;
+						}
+					}
+					if (kept > 0) {
+						result.write(countReduced(x, mask, val), targetY, chunk, 0, kept);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, false, true);
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true, true);
+	}
+
+	/*
+	 * Streaming operations are I/O bound, so parallel versions process the matrix in the same way as serial ones
+	 */
+
+	@Override
+	protected GateMatrix transposeInternalP() throws CalculationException {
+		return transposeInternal();
+	}
+
+	@Override
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue);
+	}
+
+	@Override
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		forEachInternal(piece, callback);
+	}
+
+	/*
+	 * Side of the square product tile for the given budget. Budget keeps product tile with it's accumulator (2*side*side cells) and two pairs
+	 * (current and next) of the left and right tiles of side/4 depth (side*side cells)
+	 */
+	static int tileSide(final long budget) {
+		return (int) Math.max(1, Math.min(MAX_TILE_SIDE, (long) Math.sqrt(budget / (3.0 * CELL_SIZE))));
+	}
+
+	/*
+	 * Out-of-core multiplication. Product is calculated by tiles of tileHeight*tileWidth cells. Every product tile accumulates products of
+	 * the left (tileHeight*tileDepth) and right (tileDepth*tileWidth) tile pairs, calculated by in-memory dense kernel, and is written to the
+	 * result once. So left matrix is read width/tileWidth times, right matrix is read height/tileHeight times, and I/O volume is
+	 * height*depth*width*(1/tileWidth+1/tileHeight) cells. It doesn't depend on tile depth, so product tile takes the most of the budget.
+	 * In the parallel mode, every pair is multiplied in the pool of the parallel context, while the next pair is read by the caller thread.
+	 */
+	private GateMatrix multiplyInternal(final GateMatrix another, final boolean transpose, final boolean parallel) throws CalculationException {
+		final long					height = getHeight(), depth = getWidth(), width = another.getWidth();
+		final int					side = tileSide(memoryBudget);
+		final int					tileHeight = (int) Math.min(height, side), tileWidth = (int) Math.min(width, side), tileDepth = (int) Math.min(depth, Math.max(1, side / 4));
+		final long					depthTiles = (depth + tileDepth - 1) / tileDepth, columnTiles = (width + tileWidth - 1) / tileWidth;
+		final long					steps = depthTiles * columnTiles * ((height + tileHeight - 1) / tileHeight);
+		final DenseLargeGateMatrix	result = transpose ? newInstance(height, width) : newInstance(width, height);
+		final float[][]				accumulator = new float[tileHeight][2 * tileWidth], product = new float[tileHeight][2 * tileWidth];
+		// The only right tile is shared by both pairs and is read once
+		final float[][]				right = depthTiles * columnTiles == 1 ? new float[tileDepth][2 * tileWidth] : null;
+		TilePair					current = new TilePair(tileHeight, tileDepth, tileWidth, right), next = new TilePair(tileHeight, tileDepth, tileWidth, right);
+
+		loadTiles(another, current, 0, depthTiles, columnTiles);
+		for (long step = 0; step < steps; step++) {
+			final TilePair	pair = current;
+			final float[][]	target = pair.k == 0 ? accumulator : product;
+
+			if (parallel) {
+				final RangeTask	task = new RangeTask((from, to)->multiplyTiles(pair, target, accumulator, from, to), 2L * tileDepth * pair.width, 0, pair.height);
+
+				getParallelContext().getPool().execute(task);
+				if (step + 1 < steps) {
+					loadTiles(another, next, step + 1, depthTiles, columnTiles);
+				}
+				joinRangeTask(task);
+			}
+			else {
+				multiplyTiles(pair, target, accumulator, 0, pair.height);
+				if (step + 1 < steps) {
+					loadTiles(another, next, step + 1, depthTiles, columnTiles);
+				}
+			}
+			if (pair.k + pair.depth == depth) {
+				storeTile(result, pair, accumulator, transpose);
+			}
+			current = next;
+			next = pair;
+		}
+		return result;
+	}
+
+	/*
+	 * Load the left and right tiles of the given step. Steps enumerate depth tiles first, then column tiles, and row tiles last. Left tile rows
+	 * are padded with zeroes up to the tile depth, so the padding rows of the right tile are never used by the kernel.
+	 */
+	private void loadTiles(final GateMatrix another, final TilePair pair, final long step, final long depthTiles, final long columnTiles) throws CalculationException {
+		final int	tileHeight = pair.left.length, tileDepth = pair.right.length, tileWidth = pair.right[0].length / 2;
+		final long	rest = step / depthTiles;
+
+		pair.k = (step % depthTiles) * tileDepth;
+		pair.x = (rest % columnTiles) * tileWidth;
+		pair.y = (rest / columnTiles) * tileHeight;
+		pair.height = (int) Math.min(tileHeight, getHeight() - pair.y);
+		pair.depth = (int) Math.min(tileDepth, getWidth() - pair.k);
+		pair.width = (int) Math.min(tileWidth, another.getWidth() - pair.x);
+
+		for (int y = 0; y < pair.height; y++) {
+			readAhead(pair.k, pair.y + y);
+			read(pair.k, pair.y + y, pair.left[y], 0, pair.depth);
+			Arrays.fill(pair.left[y], 2 * pair.depth, 2 * tileDepth, 0.0f);
+		}
+		if (!pair.shared || step == 0) {
+			for (int k = 0; k < pair.depth; k++) {
+				another.extract(Piece.of(pair.x, pair.k + k, pair.width, 1), pair.right[k], 0);
+			}
+		}
+	}
+
+	/*
+	 * Multiply rows from..to of the tile pair. The first depth tile is multiplied directly into the accumulator, the rest ones are added to it
+	 */
+	private static void multiplyTiles(final TilePair pair, final float[][] target, final float[][] accumulator, final int from, final int to) throws CalculationException {
+		DenseInMemoryFloatGateMatrix.multiplyInternalDense(pair.left, pair.right, target, Piece.of(0, from, pair.width, to - from));
+		if (target != accumulator) {
+			for (int y = from; y < to; y++) {
+				final float[]	source = target[y], line = accumulator[y];
+
+				for (int index = 0, maxIndex = 2 * pair.width; index < maxIndex; index++) {
+					line[index] += source[index];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Transposed tile is written by it's columns, every column is a row segment of the result
+	 */
+	private static void storeTile(final DenseLargeGateMatrix result, final TilePair pair, final float[][] accumulator, final boolean transpose) throws CalculationException {
+		if (transpose) {
+			final float[]	line = new float[2 * pair.height];
+
+			for (int x = 0; x < pair.width; x++) {
+				for (int y = 0; y < pair.height; y++) {
+					line[2 * y] = accumulator[y][2 * x];
+					line[2 * y + 1] = accumulator[y][2 * x + 1];
+				}
+				result.write(pair.y, pair.x + x, line, 0, pair.height);
+			}
+		}
+		else {
+			for (int y = 0; y < pair.height; y++) {
+				result.write(pair.x, pair.y + y, accumulator[y], 0, pair.width);
+			}
+		}
+	}
+
+	/*
+	 * Matrices created by any operation inherit window size and memory budget of the source matrix
+	 */
+	private DenseLargeGateMatrix newInstance(final long width, final long height) throws CalculationException {
+		final DenseLargeGateMatrix	result = new DenseLargeGateMatrix(width, height, isParallelMode(), getWindowSize());
+
+		result.memoryBudget = memoryBudget;
+		return result;
+	}
+
+	/*
+	 * Left and right tiles of the multiplication step. Tile location is (x,y,k): left tile starts at (k,y) cell, right tile at (x,k) cell
+	 */
+	private static class TilePair {
+		private final float[][]	left;
+		private final float[][]	right;
+		private final boolean	shared;
+		private long			x, y, k;
+		private int				width, height, depth;
+
+		private TilePair(final int tileHeight, final int tileDepth, final int tileWidth, final float[][] sharedRight) {
+			this.left = new float[tileHeight][2 * tileDepth];
+			this.right = sharedRight != null ? sharedRight : new float[tileDepth][2 * tileWidth];
+			this.shared = sharedRight != null;
+		}
+	}
 }
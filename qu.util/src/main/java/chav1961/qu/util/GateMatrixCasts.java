@@ -0,0 +1,358 @@
+package chav1961.qu.util;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+/**
+ * <p>This class contains generic conversions of any matrix to in-memory matrices of the given type. Conversions read source matrix row-by-row
+ * with {@linkplain GateMatrix#extract(Piece, float[], int)} directly into the target content or into one-row scratch buffer, so no dense copy
+ * of the source matrix is created. Conversion to sparse matrix is two-pass: count pass calculates number of non-zero values in every row,
+ * and fill pass stores them into their places. Both passes process independent rows and can be executed in parallel. Optimization of
+ * the matrix representation uses the same count pass to inspect matrix content.</p>
+ * <p>Matrix implementations with more effective conversions (for example, sparse to dense scatter) override
+ * {@linkplain AbstractGateMatrix#castInternal(GateMatrixType)} and use this class for the rest of the types.</p>
+ * <p>This class also stores any matrix into the existing target matrix of the same size. It's used by the operations storing their results
+ * into the existing matrix, when the result can't be calculated into the target directly.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+final class GateMatrixCasts {
+	/*
+	 * Max number of cells of the row segment to copy at once
+	 */
+	private static final int	CHUNK_SIZE = 1 << 16;
+
+	private GateMatrixCasts() {
+	}
+
+	/**
+	 * <p>Cast matrix to in-memory matrix of the given type</p>
+	 * @param source matrix to cast
+	 * @param type type to cast to
+	 * @param parallel execute conversion in parallel
+	 * @return matrix casted. Parallel mode of the matrix is the same as source matrix has
+	 * @throws CalculationException on any calculation errors
+	 * @throws IllegalStateException when source matrix can't be casted to commutation matrix
+	 */
+	static GateMatrix cast(final AbstractGateMatrix source, final GateMatrixType type, final boolean parallel) throws CalculationException {
+		switch (type) {
+			case COMMITATION_MATRIX	:
+				return toCommutational(source, parallel);
+			case DENSE_MATRIX		:
+				return toDense(source, parallel);
+			case SPARSE_MATRIX		:
+				return toSparse(source, parallel);
+			default :
+				throw new UnsupportedOperationException("Matrix type ["+type+"] is not supported yet");
+		}
+	}
+
+	/*
+	 * Every row is extracted directly into the target row (dense matrix) or into it's place in the target content (dense vector)
+	 */
+	static GateMatrix toDense(final AbstractGateMatrix source, final boolean parallel) throws CalculationException {
+		final long							width = source.getWidth();
+		final AbstractInMemoryGateMatrix	result = DenseInMemoryFloatGateVector.newInstance(width, source.getHeight(), source.isParallelMode());
+
+		if (result instanceof DenseInMemoryFloatGateMatrix) {
+			final float[][]	rows = ((DenseInMemoryFloatGateMatrix)result).getContent();
+
+			execute(source, (from, to)->{
+				for (int y = from; y < to; y++) {
+					extract(source, y, rows[y], 0);
+				}
+			}, 2 * width, parallel);
+		}
+		else {
+			final float[]	content = ((DenseInMemoryFloatGateVector)result).getContent();
+
+			execute(source, (from, to)->{
+				for (int y = from; y < to; y++) {
+					extract(source, y, content, (int) (2 * y * width));
+				}
+			}, 2 * width, parallel);
+		}
+		return result;
+	}
+
+	/*
+	 * Count pass stores number of non-zero values of the row y into pointers[y+1], then pointers are accumulated, and fill pass copies non-zero
+	 * values into their places. Scratch row buffer is allocated once per range processed.
+	 */
+	static GateMatrix toSparse(final AbstractGateMatrix source, final boolean parallel) throws CalculationException {
+		final int		width = AbstractInMemoryGateMatrix.toArraySize(source.getWidth());
+		final int[]		pointers = new int[AbstractInMemoryGateMatrix.toArraySize(source.getHeight() + 1)];
+
+		execute(source, (from, to)->{
+			final float[]	row = new float[2 * width];
+
+			for (int y = from; y < to; y++) {
+				extract(source, y, row, 0);
+				pointers[y + 1] = countNonZero(row);
+			}
+		}, 2 * width, parallel);
+		return fillSparse(source, pointers, parallel);
+	}
+
+	/*
+	 * Inspect matrix content in one pass. Every row is counted for non-zero values and it's single 1+0i value column (or -1) is stored.
+	 * Permutation matrix is returned as commutation matrix, matrix with fill ratio less than SparseInMemoryFloatGateMatrix.DENSE_FILL_RATIO 
+	 * is returned as sparse matrix (non-zero counts are reused by the fill pass), and any other matrix is returned as dense one. 
+	 */
+	static GateMatrix optimize(final AbstractGateMatrix source, final boolean parallel) throws CalculationException {
+		if (source.getType() == GateMatrixType.COMMITATION_MATRIX || source.getWidth() > AbstractInMemoryGateMatrix.MAX_ARRAY_SIZE / 2 || source.getHeight() >= AbstractInMemoryGateMatrix.MAX_ARRAY_SIZE) {
+			// Too large matrices have no in-memory alternatives
+			return source;
+		}
+		else {
+			final int		width = (int) source.getWidth();
+			final int[]		pointers = new int[(int) source.getHeight() + 1];
+			final int[]		units = new int[pointers.length - 1];
+			boolean			permutation = source.getWidth() == source.getHeight();
+			long			total = 0;
+
+			execute(source, (from, to)->{
+				final float[]	row = new float[2 * width];
+
+				for (int y = from; y < to; y++) {
+					int		count = 0, unit = -1;
+					
+					extract(source, y, row, 0);
+					for (int x = 0; x < width; x++) {
+						if (row[2 * x] != 0 || row[2 * x + 1] != 0) {
+							unit = count == 0 && row[2 * x] == 1 && row[2 * x + 1] == 0 ? x : -1;
+							count++;
+						}
+					}
+					pointers[y + 1] = count;
+					units[y] = unit;
+				}
+			}, 2 * width, parallel);
+			for (int y = 0; y < units.length; y++) {
+				permutation &= units[y] >= 0;
+				total += pointers[y + 1];
+			}
+			if (permutation && isPermutation(units, width)) {
+				return new CommutationalInMemoryMatrix(source.getWidth(), source.getHeight(), source.isParallelMode(), units);
+			}
+			else if (total < SparseInMemoryFloatGateMatrix.DENSE_FILL_RATIO * width * units.length) {
+				return source.getType() == GateMatrixType.SPARSE_MATRIX ? source : fillSparse(source, pointers, parallel);
+			}
+			else {
+				return source.getType() == GateMatrixType.DENSE_MATRIX ? source : toDense(source, parallel);
+			}
+		}
+	}
+
+	/*
+	 * Every row must contain exactly one 1+0i value, and all the values must be placed in the different columns
+	 */
+	static GateMatrix toCommutational(final AbstractGateMatrix source, final boolean parallel) throws CalculationException {
+		final int		width = AbstractInMemoryGateMatrix.toArraySize(source.getWidth());
+		final int[]		columns = new int[AbstractInMemoryGateMatrix.toArraySize(source.getHeight())];
+
+		execute(source, (from, to)->{
+			final float[]	row = new float[2 * width];
+
+			for (int y = from; y < to; y++) {
+				extract(source, y, row, 0);
+				columns[y] = -1;
+				for (int x = 0; x < width; x++) {
+					if (row[2 * x] != 0 || row[2 * x + 1] != 0) {
+						if (columns[y] >= 0 || row[2 * x] != 1 || row[2 * x + 1] != 0) {
+							throw new IllegalStateException("Row ["+y+"] is not a permutation matrix row, matrix can't be casted to commutation matrix");
+						}
+						columns[y] = x;
+					}
+				}
+			}
+		}, 2 * width, parallel);
+		checkPermutation(columns, width);
+		return new CommutationalInMemoryMatrix(source.getWidth(), source.getHeight(), source.isParallelMode(), columns);
+	}
+
+	/*
+	 * Store source content into the target matrix of the same size. Target content is replaced completely. Dense targets are filled row-by-row
+	 * directly from the source, sparse and commutation targets get content of the source casted to their types.
+	 */
+	static GateMatrix copyInto(final AbstractGateMatrix source, final GateMatrix target, final boolean parallel) throws CalculationException {
+		if (target instanceof DenseInMemoryFloatGateMatrix) {
+			final float[][]	rows = ((DenseInMemoryFloatGateMatrix)target).getContent();
+
+			execute(source, (from, to)->{
+				for (int y = from; y < to; y++) {
+					extract(source, y, rows[y], 0);
+				}
+			}, 2 * source.getWidth(), parallel);
+		}
+		else if (target instanceof DenseInMemoryFloatGateVector) {
+			source.extract(AbstractGateMatrix.totalPiece(source), ((DenseInMemoryFloatGateVector)target).getContent(), 0);
+		}
+		else if (target instanceof DenseInMemoryDoubleGateMatrix) {
+			final double[][]	rows = ((DenseInMemoryDoubleGateMatrix)target).getContent();
+
+			execute(source, (from, to)->{
+				for (int y = from; y < to; y++) {
+					extract(source, y, rows[y]);
+				}
+			}, 2 * source.getWidth(), parallel);
+		}
+		else if (target instanceof DenseInMemoryFloatPlanarGateMatrix) {
+			final float[][]	real = ((DenseInMemoryFloatPlanarGateMatrix)target).getReal(), image = ((DenseInMemoryFloatPlanarGateMatrix)target).getImage();
+			final int		width = (int) source.getWidth();
+
+			execute(source, (from, to)->{
+				final float[]	row = new float[2 * width];
+
+				for (int y = from; y < to; y++) {
+					extract(source, y, row, 0);
+					for (int x = 0; x < width; x++) {
+						real[y][x] = row[2 * x];
+						image[y][x] = row[2 * x + 1];
+					}
+				}
+			}, 2 * width, parallel);
+		}
+		else if (target instanceof SparseInMemoryFloatGateMatrix) {
+			final SparseInMemoryFloatGateMatrix	sparse = (SparseInMemoryFloatGateMatrix)(source instanceof SparseInMemoryFloatGateMatrix ? source : toSparse(source, parallel));
+
+			((SparseInMemoryFloatGateMatrix)target).setContent(sparse.getRowPointers().clone(), sparse.getColumns().clone(), sparse.getValues().clone());
+		}
+		else if (target instanceof CommutationalInMemoryMatrix) {
+			final int[]		columns = ((CommutationalInMemoryMatrix)(source instanceof CommutationalInMemoryMatrix ? source : toCommutational(source, parallel))).getColumns();
+
+			System.arraycopy(columns, 0, ((CommutationalInMemoryMatrix)target).getColumns(), 0, columns.length);
+		}
+		else if (target instanceof LongDenseInMemoryFloatGateVector) {
+			final ChunkedFloatArray	content = ((LongDenseInMemoryFloatGateVector)target).getContent();
+
+			copyChunked(source, (index, chunk, count)->content.set(2 * index, chunk, 0, 2 * count));
+		}
+		else if (target instanceof DenseLargeGateMatrix) {
+			final DenseLargeGateMatrix	large = (DenseLargeGateMatrix)target;
+			final long					width = source.getWidth();
+
+			copyChunked(source, (index, chunk, count)->large.write(index % width, index / width, chunk, 0, count));
+		}
+		else {
+			throw new IllegalArgumentException("Target matrix ["+target.getClass().getSimpleName()+"] is not compatible with the ["+source.getClass().getSimpleName()+"] result");
+		}
+		return target;
+	}
+
+	/*
+	 * Every column of the permutation matrix must be used exactly once. Rows without any value are marked as -1
+	 */
+	static void checkPermutation(final int[] columns, final int width) {
+		if (!isPermutation(columns, width)) {
+			throw new IllegalStateException("Matrix content is not a permutation, matrix can't be casted to commutation matrix");
+		}
+	}
+
+	static boolean isPermutation(final int[] columns, final int width) {
+		final boolean[]	used = new boolean[width];
+
+		if (columns.length != width) {
+			return false;
+		}
+		for (int y = 0; y < columns.length; y++) {
+			if (columns[y] < 0 || used[columns[y]]) {
+				return false;
+			}
+			else {
+				used[columns[y]] = true;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Fill pass of the sparse cast. Pointers contain number of non-zero values of the row y in the pointers[y+1] and are accumulated here
+	 */
+	private static GateMatrix fillSparse(final AbstractGateMatrix source, final int[] pointers, final boolean parallel) throws CalculationException {
+		final int		width = (int) source.getWidth();
+		long			total = 0;
+
+		for (int y = 1; y < pointers.length; y++) {
+			total += pointers[y];
+			pointers[y] = AbstractInMemoryGateMatrix.toArraySize(total);
+		}
+		final int[]		columns = new int[(int) total];
+		final float[]	values = new float[AbstractInMemoryGateMatrix.toArraySize(2 * total)];
+
+		execute(source, (from, to)->{
+			final float[]	row = new float[2 * width];
+
+			for (int y = from; y < to; y++) {
+				extract(source, y, row, 0);
+				for (int x = 0, where = pointers[y]; x < width; x++) {
+					if (row[2 * x] != 0 || row[2 * x + 1] != 0) {
+						columns[where] = x;
+						values[2 * where] = row[2 * x];
+						values[2 * where + 1] = row[2 * x + 1];
+						where++;
+					}
+				}
+			}
+		}, 2 * width, parallel);
+		return new SparseInMemoryFloatGateMatrix(source.getWidth(), source.getHeight(), source.isParallelMode(), pointers, columns, values);
+	}
+
+	private static int countNonZero(final float[] row) {
+		int	count = 0;
+
+		for (int index = 0; index < row.length; index += 2) {
+			if (row[index] != 0 || row[index + 1] != 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * Copy source content chunk by chunk in row-major order. Chunks never cross row bounds, so every chunk is a row segment, and source of any
+	 * size can be copied.
+	 */
+	private static void copyChunked(final GateMatrix source, final ChunkConsumer consumer) throws CalculationException {
+		final long		width = source.getWidth();
+		final float[]	chunk = new float[2 * (int) Math.min(width, CHUNK_SIZE)];
+
+		for (long y = 0; y < source.getHeight(); y++) {
+			for (long x = 0; x < width; x += chunk.length / 2) {
+				final int	count = (int) Math.min(width - x, chunk.length / 2);
+
+				source.extract(Piece.of(x, y, count, 1), chunk, 0);
+				consumer.process(y * width + x, chunk, count);
+			}
+		}
+	}
+
+	private static void extract(final GateMatrix source, final int y, final double[] target) throws CalculationException {
+		source.extract(Piece.of(0, y, source.getWidth(), 1), target, 0);
+	}
+
+	private static void extract(final GateMatrix source, final int y, final float[] target, final int offset) throws CalculationException {
+		source.extract(Piece.of(0, y, source.getWidth(), 1), target, offset);
+	}
+
+	/*
+	 * Execute kernel for all the source rows. Cell cost is number of elementary operations to process one row.
+	 */
+	private static void execute(final AbstractGateMatrix source, final AbstractGateMatrix.RangeKernel kernel, final long cellCost, final boolean parallel) throws CalculationException {
+		final int	height = AbstractInMemoryGateMatrix.toArraySize(source.getHeight());
+
+		if (parallel) {
+			source.invokeRangeTask(new AbstractGateMatrix.RangeTask(kernel, cellCost, 0, height), height * cellCost);
+		}
+		else {
+			kernel.process(0, height);
+		}
+	}
+
+	@FunctionalInterface
+	private static interface ChunkConsumer {
+		void process(long index, float[] chunk, int count) throws CalculationException;
+	}
+}
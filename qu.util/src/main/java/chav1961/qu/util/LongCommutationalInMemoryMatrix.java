@@ -0,0 +1,451 @@
+package chav1961.qu.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+/**
+ * <p>This class is a long-indexed permutation matrix. Unlike {@linkplain CommutationalInMemoryMatrix}, it keeps column numbers in the
+ * {@linkplain ChunkedLongArray}, so it's size is not limited by Java array size. In the fast mode column numbers are transferred as int
+ * when the matrix width fits int, and as long otherwise.</p>
+ * <p>Products with permutations and vectors are calculated as long-indexed gathers. Products with in-memory sparse and dense matrices are
+ * gathered into in-memory matrices, and products with large matrices are gathered row-by-row into the large matrix.</p>
+ * <p>Reduced permutation loses rows which columns have another qubit value. Too large to be stored as sparse matrix, it's kept as partial
+ * permutation: every lost row is a zero row with column number -1. Zero rows are gathered as zeroes by all the products.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+class LongCommutationalInMemoryMatrix extends AbstractInMemoryGateMatrix {
+	/*
+	 * Max number of cells of the row segment to gather at once
+	 */
+	private static final int		CHUNK_SIZE = 1 << 16;
+
+	/*
+	 * Column number of the zero row of the partial permutation
+	 */
+	private static final long		ZERO_ROW = -1;
+
+	private final ChunkedLongArray	columns;
+
+	LongCommutationalInMemoryMatrix(final long width, final long height, boolean parallelModeOn) {
+		this(width, height, parallelModeOn, new ChunkedLongArray(height));
+	}
+
+	LongCommutationalInMemoryMatrix(final long width, final long height, boolean parallelModeOn, final ChunkedLongArray columns) {
+		super(GateMatrixType.COMMITATION_MATRIX, width, height, parallelModeOn);
+		this.columns = columns;
+	}
+
+	ChunkedLongArray getColumns() {
+		return columns;
+	}
+
+	@Override
+	public Class<?> getValueClass() {
+		return long.class;
+	}
+
+	@Override
+	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
+		final ChunkedLongArray	target = columns;
+
+		if (isFastMode()) {
+			final boolean	longColumns = isLongColumns();
+
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				target.set(y, longColumns ? in.readLong() : in.readInt());
+			}
+		}
+		else {
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				for(long x = piece.x(), maxX = piece.x() + piece.width(); x < maxX; x++) {
+					if (in.readBoolean()) {
+						target.set(y, x);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void uploadInternal(final Piece piece, final DataOutput out, final ForEachCallback callback) throws IOException {
+		final ChunkedLongArray	source = columns;
+
+		if (isFastMode()) {
+			final boolean	longColumns = isLongColumns();
+
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				if (longColumns) {
+					out.writeLong(source.get(y));
+				}
+				else {
+					out.writeInt((int) source.get(y));
+				}
+			}
+		}
+		else {
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				final long	column = source.get(y);
+
+				for(long x = piece.x(), maxX = piece.x() + piece.width(); x < maxX; x++) {
+					out.writeBoolean(column == x);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, false);
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, false).transpose();
+	}
+
+	@Override
+	protected GateMatrix transposeInternal() throws CalculationException {
+		return transposeInternal(false);
+	}
+
+	@Override
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue, false);
+	}
+
+	@Override
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final ChunkedLongArray	source = columns;
+		final long				xFrom = piece.x(), xTo = piece.x() + piece.width();
+
+		if (isFastMode()) {
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				final long	column = source.get(y);
+
+				if (column >= xFrom && column < xTo) {
+					callback.process(column, y, 1, 0);
+				}
+			}
+		}
+		else {
+			for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+				final long	column = source.get(y);
+
+				for(long x = xFrom; x < xTo; x++) {
+					callback.process(x, y, column == x ? 1 : 0, 0);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final ChunkedLongArray	source = columns;
+		final long				xFrom = piece.x(), xTo = piece.x() + piece.width();
+		final int				size = (int) (2 * piece.width());
+
+		Arrays.fill(target, offset, (int) (offset + size * piece.height()), 0.0f);
+		for(long y = piece.y(), maxY = piece.y() + piece.height(), where = offset; y < maxY; y++, where += size) {
+			final long	column = source.get(y);
+
+			if (column >= xFrom && column < xTo) {
+				target[(int) (where + 2 * (column - xFrom))] = 1.0f;
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final ChunkedLongArray	source = columns;
+		final long				xFrom = piece.x(), xTo = piece.x() + piece.width();
+		final int				size = (int) (2 * piece.width());
+
+		Arrays.fill(target, offset, (int) (offset + size * piece.height()), 0.0);
+		for(long y = piece.y(), maxY = piece.y() + piece.height(), where = offset; y < maxY; y++, where += size) {
+			final long	column = source.get(y);
+
+			if (column >= xFrom && column < xTo) {
+				target[(int) (where + 2 * (column - xFrom))] = 1.0;
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true);
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true).transpose();
+	}
+
+	@Override
+	protected GateMatrix transposeInternalP() throws CalculationException {
+		return transposeInternal(true);
+	}
+
+	@Override
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue, true);
+	}
+
+	@Override
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final long	xFrom = piece.x(), width = piece.width();
+
+		execute((from, to)->forEachInternal(Piece.of(xFrom, from, width, to - from), callback), piece.y(), piece.y() + piece.height(), isFastMode() ? 1 : width, true);
+	}
+
+	private boolean isLongColumns() {
+		return getWidth() > Integer.MAX_VALUE;
+	}
+
+	private ChunkedLongArray newColumns(final long length) {
+		return new ChunkedLongArray(length, columns.getSegmentBits());
+	}
+
+	/*
+	 * Transposed permutation is an inverse permutation, see CommutationalInMemoryMatrix.transposeInternal(...). Columns of the zero rows
+	 * become zero rows of the transposed partial permutation.
+	 */
+	private GateMatrix transposeInternal(final boolean parallel) throws CalculationException {
+		final ChunkedLongArray	source = columns;
+		final ChunkedLongArray	target = newColumns(getWidth());
+
+		execute((from, to)->{
+			for (long y = from; y < to; y++) {
+				target.set(y, ZERO_ROW);
+			}
+		}, 0, target.length(), 1, parallel);
+		execute((from, to)->{
+			for (long y = from; y < to; y++) {
+				final long	column = source.get(y);
+
+				if (column != ZERO_ROW) {
+					target.set(column, y);
+				}
+			}
+		}, 0, source.length(), 1, parallel);
+		return new LongCommutationalInMemoryMatrix(getHeight(), getWidth(), isParallelMode(), target);
+	}
+
+	/*
+	 * Reduce keeps rows and columns with the given qubit value, see CommutationalInMemoryMatrix.reduceInternal(...). Sparse result is available
+	 * for int-sized matrices only, larger matrices are reduced to partial permutation.
+	 */
+	private GateMatrix reduceInternal(final int qubitNo, final int qubitValue, final boolean parallel) throws CalculationException {
+		final long				mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final ChunkedLongArray	source = columns;
+		final ChunkedLongArray	target = newColumns(source.length() / 2);
+		long					dropped = 0;
+
+		execute((from, to)->{
+			for (long y = from; y < to; y++) {
+				if ((y & mask) == val) {
+					final long	column = source.get(y);
+
+					target.set(countReduced(y, mask, val), column != ZERO_ROW && (column & mask) == val ? countReduced(column, mask, val) : ZERO_ROW);
+				}
+			}
+		}, 0, source.length(), 1, parallel);
+		for (long y = 0; y < target.length(); y++) {
+			if (target.get(y) == ZERO_ROW) {
+				dropped++;
+			}
+		}
+		if (dropped == 0 || target.length() >= MAX_ARRAY_SIZE) {
+			return new LongCommutationalInMemoryMatrix(getWidth() / 2, getHeight() / 2, isParallelMode(), target);
+		}
+		else {
+			final int[]		pointers = new int[(int) target.length() + 1];
+			final int[]		sparseColumns = new int[(int) (target.length() - dropped)];
+			final float[]	values = new float[2 * sparseColumns.length];
+
+			for (int y = 0, where = 0; y < target.length(); y++) {
+				if (target.get(y) != ZERO_ROW) {
+					sparseColumns[where] = (int) target.get(y);
+					values[2 * where++] = 1;
+				}
+				pointers[y + 1] = where;
+			}
+			return new SparseInMemoryFloatGateMatrix(getWidth() / 2, getHeight() / 2, isParallelMode(), pointers, sparseColumns, values);
+		}
+	}
+
+	/*
+	 * Multiplying by permutation matrix reorders rows of another matrix, see CommutationalInMemoryMatrix.multiplyInternal(...). Column vectors
+	 * of any type are gathered into the long-indexed vector.
+	 */
+	private GateMatrix multiplyInternal(final GateMatrix another, final boolean parallel) throws CalculationException {
+		final ChunkedLongArray	source = columns;
+
+		if (another instanceof LongCommutationalInMemoryMatrix) {
+			final ChunkedLongArray	right = ((LongCommutationalInMemoryMatrix)another).columns;
+			final ChunkedLongArray	target = newColumns(source.length());
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					final long	column = source.get(y);
+
+					target.set(y, column == ZERO_ROW ? ZERO_ROW : right.get(column));
+				}
+			}, 0, source.length(), 1, parallel);
+			return new LongCommutationalInMemoryMatrix(another.getWidth(), getHeight(), isParallelMode(), target);
+		}
+		else if (another instanceof CommutationalInMemoryMatrix) {
+			final int[]				right = ((CommutationalInMemoryMatrix)another).getColumns();
+			final ChunkedLongArray	target = newColumns(source.length());
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					final long	column = source.get(y);
+
+					target.set(y, column == ZERO_ROW ? ZERO_ROW : right[(int) column]);
+				}
+			}, 0, source.length(), 1, parallel);
+			return new LongCommutationalInMemoryMatrix(another.getWidth(), getHeight(), isParallelMode(), target);
+		}
+		else if (another instanceof BitPermutationMatrix) {
+			final BitPermutationMatrix	permutation = (BitPermutationMatrix)another;
+			final ChunkedLongArray		target = newColumns(source.length());
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					final long	column = source.get(y);
+
+					target.set(y, column == ZERO_ROW ? ZERO_ROW : permutation.permute(column));
+				}
+			}, 0, source.length(), 1, parallel);
+			return new LongCommutationalInMemoryMatrix(another.getWidth(), getHeight(), isParallelMode(), target);
+		}
+		else if (another instanceof SparseInMemoryFloatGateMatrix) {
+			return multiplyInternal((SparseInMemoryFloatGateMatrix)another, parallel);
+		}
+		else if (another.getWidth() == 1) {
+			final ChunkedFloatArray					vector = toVectorContent(another, parallel);
+			final LongDenseInMemoryFloatGateVector	result = new LongDenseInMemoryFloatGateVector(1, getHeight(), isParallelMode(), new ChunkedFloatArray(2 * getHeight(), vector.getSegmentBits()));
+			final ChunkedFloatArray					target = result.getContent();
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					final long	column = source.get(y);
+
+					if (column != ZERO_ROW) {
+						target.set(2 * y, vector.get(2 * column));
+						target.set(2 * y + 1, vector.get(2 * column + 1));
+					}
+				}
+			}, 0, source.length(), 1, parallel);
+			return result;
+		}
+		else if (another instanceof AbstractInMemoryGateMatrix) {
+			// In-memory operand has int height, so product fits in-memory matrix
+			final float[][]						rows = DenseInMemoryFloatGateMatrix.toRows(another);
+			final AbstractInMemoryGateMatrix	result = DenseInMemoryFloatGateVector.newInstance(another.getWidth(), getHeight(), isParallelMode());
+			final float[][]						target = DenseInMemoryFloatGateMatrix.toTargetRows(result);
+
+			execute((from, to)->{
+				for (long y = from; y < to; y++) {
+					final long	column = source.get(y);
+
+					if (column != ZERO_ROW) {
+						System.arraycopy(rows[(int) column], 0, target[(int) y], 0, target[(int) y].length);
+					}
+				}
+			}, 0, source.length(), another.getWidth(), parallel);
+			return result;
+		}
+		else {
+			return multiplyInternal(another, new DenseLargeGateMatrix(another.getWidth(), getHeight(), isParallelMode()));
+		}
+	}
+
+	/*
+	 * Product with sparse matrix is a sparse matrix with the reordered rows, see CommutationalInMemoryMatrix.multiplyInternal(...). Sparse
+	 * matrix has int height, so the product rows are int-indexed.
+	 */
+	private GateMatrix multiplyInternal(final SparseInMemoryFloatGateMatrix another, final boolean parallel) throws CalculationException {
+		final ChunkedLongArray	source = columns;
+		final int[]				sourcePointers = another.getRowPointers(), sourceColumns = another.getColumns();
+		final float[]			sourceValues = another.getValues();
+		final int				height = (int) getHeight();
+		final int[]				pointers = new int[height + 1];
+
+		for (int y = 0; y < height; y++) {
+			final long	column = source.get(y);
+
+			pointers[y + 1] = pointers[y] + (column == ZERO_ROW ? 0 : sourcePointers[(int) column + 1] - sourcePointers[(int) column]);
+		}
+		final int[]		targetColumns = new int[pointers[height]];
+		final float[]	targetValues = new float[2 * targetColumns.length];
+
+		execute((from, to)->{
+			for (long y = from; y < to; y++) {
+				final int	row = (int) y, length = pointers[row + 1] - pointers[row];
+
+				if (length > 0) {
+					final int	start = sourcePointers[(int) source.get(y)];
+
+					System.arraycopy(sourceColumns, start, targetColumns, pointers[row], length);
+					System.arraycopy(sourceValues, 2 * start, targetValues, 2 * pointers[row], 2 * length);
+				}
+			}
+		}, 0, height, Math.max(1, targetColumns.length / height), parallel);
+		return new SparseInMemoryFloatGateMatrix(another.getWidth(), getHeight(), isParallelMode(), pointers, targetColumns, targetValues);
+	}
+
+	/*
+	 * Product with large matrix is gathered row-by-row by the row segments. Product is written sequentially, so it's I/O bound and is
+	 * calculated serially.
+	 */
+	private GateMatrix multiplyInternal(final GateMatrix another, final DenseLargeGateMatrix result) throws CalculationException {
+		final long		width = another.getWidth();
+		final float[]	chunk = new float[2 * (int) Math.min(width, CHUNK_SIZE)];
+
+		for (long y = 0; y < getHeight(); y++) {
+			final long	column = columns.get(y);
+
+			// Zero row of the partial permutation is already zeroed in the product file
+			for (long x = 0; column != ZERO_ROW && x < width; x += chunk.length / 2) {
+				final int	count = (int) Math.min(width - x, chunk.length / 2);
+
+				another.extract(Piece.of(x, column, count, 1), chunk, 0);
+				result.write(x, y, chunk, 0, count);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Content of column vector to gather. Long-indexed vector content is used directly, any other vector is copied into the long-indexed one.
+	 */
+	private ChunkedFloatArray toVectorContent(final GateMatrix another, final boolean parallel) throws CalculationException {
+		if (another instanceof LongDenseInMemoryFloatGateVector) {
+			return ((LongDenseInMemoryFloatGateVector)another).getContent();
+		}
+		else {
+			final LongDenseInMemoryFloatGateVector	vector = new LongDenseInMemoryFloatGateVector(1, another.getHeight(), false);
+
+			GateMatrixCasts.copyInto((AbstractGateMatrix)another, vector, parallel);
+			return vector.getContent();
+		}
+	}
+
+	private void execute(final LongRangeKernel kernel, final long from, final long to, final long cellCost, final boolean parallel) throws CalculationException {
+		if (parallel) {
+			invokeRangeTask(new LongRangeTask(kernel, cellCost, from, to), (to - from) * cellCost);
+		}
+		else {
+			kernel.process(from, to);
+		}
+	}
+}
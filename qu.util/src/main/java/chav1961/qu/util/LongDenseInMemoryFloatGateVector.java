@@ -0,0 +1,407 @@
+package chav1961.qu.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+/**
+ * <p>This class is a long-indexed dense vector (1*x or y*1) implementation. It keeps the interleaved real/image values in the
+ * {@linkplain ChunkedFloatArray} the same way as {@linkplain DenseInMemoryFloatGateVector} does, so vector size is limited by available
+ * memory only (32-qubit state vector takes 32G of memory).</p>
+ * <p>Row vector can be multiplied by any column vector (scalar product) or any matrix (row vector product), column vector can be multiplied by
+ * 1*1 matrix only. Outer product of the long-indexed column vector can't be stored in any matrix, so
+ * {@linkplain #multiply(GateMatrix)} of the column vector by the matrix with width greater than 1 throws {@linkplain IllegalArgumentException}.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+public class LongDenseInMemoryFloatGateVector extends AbstractInMemoryGateMatrix {
+	/*
+	 * Max number of cells of the row segment to process at once
+	 */
+	private static final int		CHUNK_SIZE = 1 << 16;
+
+	private final ChunkedFloatArray	content;
+
+	LongDenseInMemoryFloatGateVector(final long width, final long height, final boolean parallelModeOn) {
+		this(width, height, parallelModeOn, new ChunkedFloatArray(2 * width * height));
+	}
+
+	LongDenseInMemoryFloatGateVector(final long width, final long height, final boolean parallelModeOn, final ChunkedFloatArray content) {
+		super(GateMatrixType.DENSE_MATRIX, width, height, parallelModeOn);
+		if (width != 1 && height != 1) {
+			throw new IllegalArgumentException("Vector must have either width or height equals 1");
+		}
+		else {
+			this.content = content;
+		}
+	}
+
+	@Override
+	public Class<?> getValueClass() {
+		return float.class;
+	}
+
+	@Override
+	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
+		final ChunkedFloatArray	temp = content;
+		final long				width = getWidth(), xFrom = piece.x(), xTo = piece.x() + piece.width();
+
+		for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+			for(long x = xFrom, where = 2 * (y * width + x); x < xTo; x++, where += 2) {
+				final float	real = in.readFloat();
+				final float	image = in.readFloat();
+
+				try {
+					if (callback.process(x, y, real, image)) {
+						temp.set(where, real);
+						temp.set(where + 1, image);
+					}
+				} catch (CalculationException e) {
+					throw new IOException(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void uploadInternal(final Piece piece, final DataOutput out, final ForEachCallback callback) throws IOException {
+		final ChunkedFloatArray	temp = content;
+		final long				width = getWidth(), xFrom = piece.x(), xTo = piece.x() + piece.width();
+
+		for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+			for(long x = xFrom, where = 2 * (y * width + x); x < xTo; x++, where += 2) {
+				final float	real = temp.get(where);
+				final float	image = temp.get(where + 1);
+
+				try {
+					if (callback.process(x, y, real, image)) {
+						out.writeFloat(real);
+						out.writeFloat(image);
+					}
+				} catch (CalculationException e) {
+					throw new IOException(e.getLocalizedMessage(), e);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, false);
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
+		return transposeProduct(multiplyInternal(another, false));
+	}
+
+	@Override
+	protected GateMatrix transposeInternal() throws CalculationException {
+		return new LongDenseInMemoryFloatGateVector(getHeight(), getWidth(), isParallelMode(), content.copy());
+	}
+
+	/*
+	 * Reduce is applicable for square matrices only, so it's never called for vectors
+	 */
+	@Override
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		throw new IllegalStateException("This method is applicable for square matrices only");
+	}
+
+	@Override
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final ChunkedFloatArray	temp = content;
+		final long				width = getWidth(), xFrom = piece.x(), xTo = piece.x() + piece.width();
+
+		for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+			for(long x = xFrom, where = 2 * (y * width + x); x < xTo; x++, where += 2) {
+				callback.process(x, y, temp.get(where), temp.get(where + 1));
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final long	width = getWidth();
+		final int	size = (int) (2 * piece.width());
+
+		for(long y = piece.y(), maxY = piece.y() + piece.height(), where = offset; y < maxY; y++, where += size) {
+			content.get(2 * (y * width + piece.x()), target, (int) where, size);
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final ChunkedFloatArray	temp = content;
+		final long				width = getWidth(), size = 2 * piece.width();
+		int						where = offset;
+
+		for(long y = piece.y(), maxY = piece.y() + piece.height(); y < maxY; y++) {
+			for(long index = 2 * (y * width + piece.x()), maxIndex = index + size; index < maxIndex; index++) {
+				target[where++] = temp.get(index);
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		return multiplyInternal(another, true);
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		return transposeProduct(multiplyInternal(another, true));
+	}
+
+	@Override
+	protected GateMatrix transposeInternalP() throws CalculationException {
+		// Vector transposition is a plain segment copy, there is nothing to split
+		return transposeInternal();
+	}
+
+	@Override
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceInternal(qubitNo, qubitValue);
+	}
+
+	@Override
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final long	xFrom = piece.x(), width = piece.width();
+
+		if (width == 1) {
+			execute((from, to)->forEachInternal(Piece.of(xFrom, from, width, to - from), callback), piece.y(), piece.y() + piece.height(), true);
+		}
+		else {
+			final long	y = piece.y(), height = piece.height();
+
+			execute((from, to)->forEachInternal(Piece.of(from, y, to - from, height), callback), xFrom, xFrom + width, true);
+		}
+	}
+
+	ChunkedFloatArray getContent() {
+		return content;
+	}
+
+	/*
+	 * Row vector product is a scalar product for column vector and a row vector for matrix. Column vector product is a scaled column vector.
+	 */
+	private GateMatrix multiplyInternal(final GateMatrix another, final boolean parallel) throws CalculationException {
+		if (getHeight() != 1 && another.getWidth() != 1) {
+			throw new IllegalArgumentException("Long-indexed column vector can be multiplied by 1*1 matrix only, outer product ["+another.getWidth()+"*"+getHeight()+"] is not supported");
+		}
+		else if (getHeight() != 1) {
+			return multiplyByScalar(another, parallel);
+		}
+		else if (another.getWidth() == 1) {
+			final double[]	product = another instanceof LongDenseInMemoryFloatGateVector 
+											? scalarProduct(((LongDenseInMemoryFloatGateVector)another).content, parallel)
+											: scalarProduct(another);
+
+			return new DenseInMemoryFloatGateVector(1, 1, isParallelMode(), new float[] {(float) product[0], (float) product[1]});
+		}
+		else if (another instanceof SparseInMemoryFloatGateMatrix) {
+			return multiplyBySparse((SparseInMemoryFloatGateMatrix)another);
+		}
+		else {
+			return multiplyByDense(another, parallel);
+		}
+	}
+
+	private double[] scalarProduct(final ChunkedFloatArray right, final boolean parallel) throws CalculationException {
+		if (parallel) {
+			final ScalarProductTask	task = new ScalarProductTask(content, right, 0, getWidth());
+
+			invokeTask(task, getWidth());
+			return task.join();
+		}
+		else {
+			return scalarProduct(content, right, 0, getWidth());
+		}
+	}
+
+	/*
+	 * Scalar product with any column vector. Column is extracted by the segments, so it's size is not limited.
+	 */
+	private double[] scalarProduct(final GateMatrix another) throws CalculationException {
+		final float[]	chunk = new float[2 * (int) Math.min(getWidth(), CHUNK_SIZE)];
+		double			real = 0, image = 0;
+
+		for (long k = 0; k < getWidth(); k += chunk.length / 2) {
+			final int	count = (int) Math.min(getWidth() - k, chunk.length / 2);
+
+			another.extract(Piece.of(0, k, 1, count), chunk, 0);
+			for (int index = 0; index < count; index++) {
+				final float	leftReal = content.get(2 * (k + index)), leftImage = content.get(2 * (k + index) + 1);
+				final float	rightReal = chunk[2 * index], rightImage = chunk[2 * index + 1];
+
+				real += leftReal * rightReal - leftImage * rightImage;
+				image += leftImage * rightReal + leftReal * rightImage;
+			}
+		}
+		return new double[] {real, image};
+	}
+
+	/*
+	 * Column vector multiplied by 1*1 matrix is the column vector scaled
+	 */
+	private GateMatrix multiplyByScalar(final GateMatrix another, final boolean parallel) throws CalculationException {
+		final float[]			scalar = new float[2];
+		final ChunkedFloatArray	source = content;
+		final ChunkedFloatArray	target = new ChunkedFloatArray(source.length(), source.getSegmentBits());
+
+		another.extract(Piece.of(0, 0, 1, 1), scalar, 0);
+		execute((from, to)->{
+			for (long index = from; index < to; index++) {
+				final float	real = source.get(2 * index), image = source.get(2 * index + 1);
+
+				target.set(2 * index, real * scalar[0] - image * scalar[1]);
+				target.set(2 * index + 1, image * scalar[0] + real * scalar[1]);
+			}
+		}, 0, getHeight(), parallel);
+		return new LongDenseInMemoryFloatGateVector(1, getHeight(), isParallelMode(), target);
+	}
+
+	/*
+	 * Row vector multiplied by the matrix is accumulated by segments of the product. Every segment reads the same segment of all the matrix
+	 * rows, so different segments are calculated in parallel without any locks.
+	 */
+	private GateMatrix multiplyByDense(final GateMatrix another, final boolean parallel) throws CalculationException {
+		final long				width = another.getWidth(), depth = getWidth();
+		final ChunkedFloatArray	source = content;
+		final ChunkedFloatArray	target = new ChunkedFloatArray(2 * width, source.getSegmentBits());
+		final int				chunkSize = (int) Math.min(width, CHUNK_SIZE);
+		final LongRangeKernel	kernel = (from, to)->{
+			final float[]	row = new float[2 * chunkSize], sum = new float[2 * chunkSize];
+
+			for (long chunkNo = from; chunkNo < to; chunkNo++) {
+				final long	x = chunkNo * chunkSize;
+				final int	count = (int) Math.min(width - x, chunkSize);
+
+				Arrays.fill(sum, 0.0f);
+				for (long k = 0; k < depth; k++) {
+					final float	real = source.get(2 * k), image = source.get(2 * k + 1);
+
+					if (real != 0 || image != 0) {
+						another.extract(Piece.of(x, k, count, 1), row, 0);
+						for (int index = 0; index < 2 * count; index += 2) {
+							sum[index] += real * row[index] - image * row[index + 1];
+							sum[index + 1] += image * row[index] + real * row[index + 1];
+						}
+					}
+				}
+				target.set(2 * x, sum, 0, 2 * count);
+			}
+		};
+		final long				chunks = (width + chunkSize - 1) / chunkSize;
+
+		if (parallel) {
+			invokeRangeTask(new LongRangeTask(kernel, depth * chunkSize, 0, chunks), chunks * depth * chunkSize);
+		}
+		else {
+			kernel.process(0, chunks);
+		}
+		return new LongDenseInMemoryFloatGateVector(width, 1, isParallelMode(), target);
+	}
+
+	/*
+	 * Row vector multiplied by the sparse matrix scatters products of the non-zero values only
+	 */
+	private GateMatrix multiplyBySparse(final SparseInMemoryFloatGateMatrix another) throws CalculationException {
+		final int[]				pointers = another.getRowPointers(), columns = another.getColumns();
+		final float[]			values = another.getValues();
+		final ChunkedFloatArray	source = content;
+		final ChunkedFloatArray	target = new ChunkedFloatArray(2 * another.getWidth(), source.getSegmentBits());
+
+		for (int k = 0; k < pointers.length - 1; k++) {
+			final float	real = source.get(2L * k), image = source.get(2L * k + 1);
+
+			for (int index = pointers[k]; index < pointers[k + 1]; index++) {
+				final long	where = 2L * columns[index];
+
+				target.set(where, target.get(where) + real * values[2 * index] - image * values[2 * index + 1]);
+				target.set(where + 1, target.get(where + 1) + image * values[2 * index] + real * values[2 * index + 1]);
+			}
+		}
+		return new LongDenseInMemoryFloatGateVector(another.getWidth(), 1, isParallelMode(), target);
+	}
+
+	/*
+	 * Transposed product shares content with the product, because vector transposition doesn't change cells order
+	 */
+	private GateMatrix transposeProduct(final GateMatrix product) {
+		if (product instanceof LongDenseInMemoryFloatGateVector) {
+			return new LongDenseInMemoryFloatGateVector(product.getHeight(), product.getWidth(), isParallelMode(), ((LongDenseInMemoryFloatGateVector)product).content);
+		}
+		else {
+			return product;
+		}
+	}
+
+	private void execute(final LongRangeKernel kernel, final long from, final long to, final boolean parallel) throws CalculationException {
+		if (parallel) {
+			invokeRangeTask(new LongRangeTask(kernel, 1, from, to), to - from);
+		}
+		else {
+			kernel.process(from, to);
+		}
+	}
+
+	/*
+	 * Scalar product is accumulated in double to reduce rounding error on the long vectors
+	 */
+	private static double[] scalarProduct(final ChunkedFloatArray left, final ChunkedFloatArray right, final long from, final long to) {
+		double	real = 0, image = 0;
+
+		for (long index = 2 * from, maxIndex = 2 * to; index < maxIndex; index += 2) {
+			final float	leftReal = left.get(index), leftImage = left.get(index + 1);
+			final float	rightReal = right.get(index), rightImage = right.get(index + 1);
+
+			real += leftReal * rightReal - leftImage * rightImage;
+			image += leftImage * rightReal + leftReal * rightImage;
+		}
+		return new double[] {real, image};
+	}
+
+	private static class ScalarProductTask extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final ChunkedFloatArray	left;
+		private final ChunkedFloatArray	right;
+		private final long				from;
+		private final long				to;
+
+		private ScalarProductTask(final ChunkedFloatArray left, final ChunkedFloatArray right, final long from, final long to) {
+			this.left = left;
+			this.right = right;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (to - from >= 2 * SERIAL_THRESHOLD) {
+				final long				half = (from + to) >>> 1;
+				final ScalarProductTask	first = new ScalarProductTask(left, right, from, half);
+				final ScalarProductTask	second = new ScalarProductTask(left, right, half, to);
+
+				invokeAll(first, second);
+
+				final double[]	result = first.join(), secondResult = second.join();
+
+				result[0] += secondResult[0];
+				result[1] += secondResult[1];
+				return result;
+			}
+			else {
+				return scalarProduct(left, right, from, to);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package chav1961.qu.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * <p>This class describes where and how wide parallel calculations of the matrix are executed. Every matrix in the parallel mode executes it's
+ * tasks in the pool of the context, and the pool parallelism is a budget of the threads the matrix can occupy at the same time. Matrices
+ * created by any operation (multiply, transpose, reduce and so on) inherit context of the source matrix, so configuring the first matrix
+ * of the calculation is enough to isolate the whole calculation:</p>
+ * <pre>
+ * final ParallelContext	context = new ParallelContext(4);
+ *
+ * matrix.setParallelContext(context);
+ * matrix.setParallelMode(true);
+ * final GateMatrix	product = matrix.multiply(another);	// calculated in the context pool, product uses the same context
+ * </pre>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+public class ParallelContext {
+	/**
+	 * <p>Default context. Uses {@linkplain ForkJoinPool#commonPool()}</p>
+	 */
+	public static final ParallelContext	COMMON = new ParallelContext(ForkJoinPool.commonPool());
+
+	private final ForkJoinPool	pool;
+
+	/**
+	 * <p>Constructor of the class</p>
+	 * @param pool pool to execute parallel tasks in. Can't be null. It's parallelism is a parallelism budget of the context
+	 */
+	public ParallelContext(final ForkJoinPool pool) {
+		if (pool == null) {
+			throw new NullPointerException("Pool can't be null");
+		}
+		else {
+			this.pool = pool;
+		}
+	}
+
+	/**
+	 * <p>Constructor of the class. Creates dedicated pool with the given parallelism budget</p>
+	 * @param parallelism max number of threads to execute parallel tasks in. Must be positive
+	 */
+	public ParallelContext(final int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism ["+parallelism+"] must be greater than 0");
+		}
+		else {
+			this.pool = new ForkJoinPool(parallelism);
+		}
+	}
+
+	/**
+	 * <p>Get pool of the context</p>
+	 * @return pool of the context. Can't be null
+	 */
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * <p>Get parallelism budget of the context</p>
+	 * @return max number of threads to execute parallel tasks in
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	void invoke(final ForkJoinTask<?> task) {
+		pool.invoke(task);
+	}
+}
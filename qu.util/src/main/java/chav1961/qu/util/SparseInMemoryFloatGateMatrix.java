@@ -2,18 +2,51 @@ package chav1961.qu.util;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
 
 import chav1961.purelib.basic.exceptions.CalculationException;
 import chav1961.qu.api.interfaces.GateMatrix;
 import chav1961.qu.api.interfaces.GateMatrixType;
 import chav1961.qu.api.interfaces.Piece;
 
-public class SparseInMemoryFloatGateMatrix extends AbstractInMemoryGateMatrix{
+/**
+ * <p>Sparse matrix in the compressed sparse row (CSR) format. Non-zero values of the row <b>y</b> are stored in the
+ * [rowPointers[y]..rowPointers[y+1]) range of the columns and values arrays. Columns inside the row are sorted ascending,
+ * values are stored as interleaved (real, image) pairs, so value of the columns[index] cell is (values[2*index], values[2*index+1]).</p>
+ * <p>Fast mode download reads (Y-coordinate, X-coordinate) integer pairs followed with (real, image) float pairs until end of the input.
+ * Downloaded values replace current values of the same cells, zero values remove cells from the matrix.</p>
+ * @author achernomyrdin
+ * @since 0.0.1
+ */
+public class SparseInMemoryFloatGateMatrix extends AbstractInMemoryGateMatrix {
+	/*
+	 * Fill ratio of the sparse-by-sparse product to store it as a dense matrix. Sparse cell takes 12 bytes (column index and two floats) instead
+	 * of 8 bytes of the dense cell, and dense kernels are much faster than sparse ones, so products filled by half and more are stored dense.
+	 */
+	static final double				DENSE_FILL_RATIO = 0.5;
+	
+	private static final int[]		EMPTY_COLUMNS = new int[0];
+	private static final float[]	EMPTY_VALUES = new float[0];
+
+	private int[]	rowPointers;
+	private int[]	columns;
+	private float[]	values;
+
+	SparseInMemoryFloatGateMatrix(final long width, final long height, final boolean parallelModeOn) {
+		super(GateMatrixType.SPARSE_MATRIX, width, height, parallelModeOn);
+		this.rowPointers = new int[toArraySize(height + 1)];
+		this.columns = EMPTY_COLUMNS;
+		this.values = EMPTY_VALUES;
+	}
 
-	SparseInMemoryFloatGateMatrix(GateMatrixType type, long width, long height, boolean parallelModeOn) {
+	SparseInMemoryFloatGateMatrix(final long width, final long height, final boolean parallelModeOn, final int[] rowPointers, final int[] columns, final float[] values) {
 		super(GateMatrixType.SPARSE_MATRIX, width, height, parallelModeOn);
-		// TODO Auto-generated constructor stub
+		this.rowPointers = rowPointers;
+		this.columns = columns;
+		this.values = values;
 	}
 
 	@Override
@@ -21,77 +54,995 @@ public class SparseInMemoryFloatGateMatrix extends AbstractInMemoryGateMatrix{
 		return float.class;
 	}
 
-	
+	/**
+	 * <p>Get number of non-zero values stored in the matrix</p>
+	 * @return number of non-zero values
+	 */
+	public int getNonZeroCount() {
+		return rowPointers[rowPointers.length - 1];
+	}
+
+	int[] getRowPointers() {
+		return rowPointers;
+	}
+
+	int[] getColumns() {
+		return columns;
+	}
+
+	float[] getValues() {
+		return values;
+	}
+
 	@Override
-	protected void downloadInternal(Piece piece, DataInput in, final ForEachCallback callback) throws IOException {
-		// TODO Auto-generated method stub
-		
+	protected void downloadInternal(final Piece piece, final DataInput in, final ForEachCallback callback) throws IOException {
+		final int		xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+		final int		yFrom = (int) piece.y(), yTo = (int) (piece.y() + piece.height());
+		final Builder	builder = new Builder(getNonZeroCount());
+
+		for (int y = 0; y < rowPointers.length - 1; y++) {
+			for (int index = rowPointers[y]; index < rowPointers[y + 1]; index++) {
+				builder.add(columns[index], y, values[2 * index], values[2 * index + 1]);
+			}
+		}
+		try {
+			if (isFastMode()) {
+				for (;;) {
+					final int	y;
+
+					try {
+						y = in.readInt();
+					} catch (EOFException exc) {
+						break;
+					}
+					final int	x = in.readInt();
+					final float	real = in.readFloat();
+					final float	image = in.readFloat();
+
+					if (x < xFrom || x >= xTo || y < yFrom || y >= yTo) {
+						throw new IOException("Non-zero value location ["+x+","+y+"] is outside the piece "+piece);
+					}
+					else if (callback.process(x, y, real, image)) {
+						builder.add(x, y, real, image);
+					}
+				}
+			}
+			else {
+				for (int y = yFrom; y < yTo; y++) {
+					final boolean	rowIsEmpty = rowPointers[y] == rowPointers[y + 1];
+
+					for (int x = xFrom; x < xTo; x++) {
+						final float	real = in.readFloat();
+						final float	image = in.readFloat();
+
+						// Zero of the empty row has nothing to replace, so it's not added to the builder
+						if (callback.process(x, y, real, image) && (real != 0 || image != 0 || !rowIsEmpty)) {
+							builder.add(x, y, real, image);
+						}
+					}
+				}
+			}
+		} catch (CalculationException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+		builder.build(this);
 	}
 
 	@Override
-	protected void uploadInternal(Piece piece, DataOutput out, final ForEachCallback callback) throws IOException {
-		// TODO Auto-generated method stub
-		
+	protected void uploadInternal(final Piece piece, final DataOutput out, final ForEachCallback callback) throws IOException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		try {
+			for (int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
+				int		index = firstInRow(y, xFrom);
+
+				if (isFastMode()) {
+					for (final int maxIndex = rowPointers[y + 1]; index < maxIndex && columns[index] < xTo; index++) {
+						final float	real = values[2 * index];
+						final float	image = values[2 * index + 1];
+
+						if (callback.process(columns[index], y, real, image)) {
+							out.writeInt(y);
+							out.writeInt(columns[index]);
+							out.writeFloat(real);
+							out.writeFloat(image);
+						}
+					}
+				}
+				else {
+					for (int x = xFrom; x < xTo; x++) {
+						final boolean	found = index < rowPointers[y + 1] && columns[index] == x;
+						final float		real = found ? values[2 * index] : 0;
+						final float		image = found ? values[2 * index + 1] : 0;
+
+						if (callback.process(x, y, real, image)) {
+							out.writeFloat(real);
+							out.writeFloat(image);
+						}
+						if (found) {
+							index++;
+						}
+					}
+				}
+			}
+		} catch (CalculationException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
 	}
 
 	@Override
-	protected GateMatrix multiplyInternal(GateMatrix another) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix multiplyInternal(final GateMatrix another) throws CalculationException {
+		if (isSparseProduct(another)) {
+			return multiplySparse((SparseInMemoryFloatGateMatrix)another, null, false);
+		}
+		else {
+			return multiplyIntoInternal(another, newProduct(another));
+		}
 	}
 
 	@Override
-	protected GateMatrix multiplyAndTransposeInternal(GateMatrix another) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix multiplyAndTransposeInternal(final GateMatrix another) throws CalculationException {
+		if (isSparseProduct(another)) {
+			return multiplySparse((SparseInMemoryFloatGateMatrix)another, null, false).transpose();
+		}
+		else {
+			return multiplyAndTransposeIntoInternal(another, newTransposedProduct(another));
+		}
 	}
 
 	@Override
 	protected GateMatrix transposeInternal() throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+		return transposeIntoInternal(new SparseInMemoryFloatGateMatrix(getHeight(), getWidth(), isParallelMode()));
 	}
 
 	@Override
-	protected GateMatrix reduceInternal(int qubitNo, int qubitValue) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix reduceInternal(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceIntoInternal(qubitNo, qubitValue, new SparseInMemoryFloatGateMatrix(getWidth()/2, getHeight()/2, isParallelMode()));
 	}
 
 	@Override
-	protected void forEachInternal(Piece piece, ForEachCallback callback) throws CalculationException {
-		// TODO Auto-generated method stub
-		
+	protected void forEachInternal(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width());
+
+		for (int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()); y < maxY; y++) {
+			int		index = firstInRow(y, xFrom);
+
+			if (isFastMode()) {
+				for (final int maxIndex = rowPointers[y + 1]; index < maxIndex && columns[index] < xTo; index++) {
+					callback.process(columns[index], y, values[2 * index], values[2 * index + 1]);
+				}
+			}
+			else {
+				for (int x = xFrom; x < xTo; x++) {
+					if (index < rowPointers[y + 1] && columns[index] == x) {
+						callback.process(x, y, values[2 * index], values[2 * index + 1]);
+						index++;
+					}
+					else {
+						callback.process(x, y, 0, 0);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final float[] target, final int offset) throws CalculationException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width()), size = 2 * (xTo - xFrom);
+
+		Arrays.fill(target, offset, (int) (offset + size * piece.height()), 0.0f);
+		for (int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()), where = offset; y < maxY; y++, where += size) {
+			for (int index = firstInRow(y, xFrom), maxIndex = rowPointers[y + 1]; index < maxIndex && columns[index] < xTo; index++) {
+				target[where + 2 * (columns[index] - xFrom)] = values[2 * index];
+				target[where + 2 * (columns[index] - xFrom) + 1] = values[2 * index + 1];
+			}
+		}
+	}
+
+	@Override
+	protected void extractInternal(final Piece piece, final double[] target, final int offset) throws CalculationException {
+		final int	xFrom = (int) piece.x(), xTo = (int) (piece.x() + piece.width()), size = 2 * (xTo - xFrom);
+
+		Arrays.fill(target, offset, (int) (offset + size * piece.height()), 0.0);
+		for (int y = (int) piece.y(), maxY = (int) (piece.y() + piece.height()), where = offset; y < maxY; y++, where += size) {
+			for (int index = firstInRow(y, xFrom), maxIndex = rowPointers[y + 1]; index < maxIndex && columns[index] < xTo; index++) {
+				target[where + 2 * (columns[index] - xFrom)] = values[2 * index];
+				target[where + 2 * (columns[index] - xFrom) + 1] = values[2 * index + 1];
+			}
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another.getWidth() == 1) {
+			multiplyInternalVector(rowPointers, columns, values, DenseInMemoryFloatGateMatrix.toVectorContent(another), DenseInMemoryFloatGateMatrix.toTargetVector(target), 0, (int) getHeight());
+		}
+		else if (isSparseProduct(another)) {
+			multiplySparse((SparseInMemoryFloatGateMatrix)another, target, false);
+		}
+		else {
+			multiplyInternalDense(rowPointers, columns, values, DenseInMemoryFloatGateMatrix.toRows(another), DenseInMemoryFloatGateMatrix.toTargetRows(target), 0, (int) getHeight(), false);
+		}
+		return target;
 	}
 
 	@Override
-	protected GateMatrix multiplyInternalP(GateMatrix another) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix multiplyAndTransposeIntoInternal(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another.getWidth() == 1) {
+			multiplyInternalVector(rowPointers, columns, values, DenseInMemoryFloatGateMatrix.toVectorContent(another), DenseInMemoryFloatGateMatrix.toTargetVector(target), 0, (int) getHeight());
+		}
+		else if (isSparseProduct(another)) {
+			multiplyAndTransposeSparse((SparseInMemoryFloatGateMatrix)another, target, false);
+		}
+		else {
+			multiplyInternalDense(rowPointers, columns, values, DenseInMemoryFloatGateMatrix.toRows(another), DenseInMemoryFloatGateMatrix.toTargetRows(target), 0, (int) getHeight(), !isVector(target));
+		}
+		return target;
+	}
+
+	@Override
+	protected GateMatrix transposeIntoInternal(final GateMatrix target) throws CalculationException {
+		final SparseInMemoryFloatGateMatrix	result = toTarget(target);
+		final int[]		pointers = new int[(int) (getWidth() + 1)];
+		final int[]		transposedColumns = new int[getNonZeroCount()];
+		final float[]	transposedValues = new float[2 * getNonZeroCount()];
+
+		for (int index = 0, maxIndex = getNonZeroCount(); index < maxIndex; index++) {
+			pointers[columns[index] + 1]++;
+		}
+		for (int x = 0; x < pointers.length - 1; x++) {
+			pointers[x + 1] += pointers[x];
+		}
+		final int[]		fill = Arrays.copyOf(pointers, pointers.length - 1);
+
+		for (int y = 0; y < rowPointers.length - 1; y++) {
+			for (int index = rowPointers[y], maxIndex = rowPointers[y + 1]; index < maxIndex; index++) {
+				final int	where = fill[columns[index]]++;
+
+				transposedColumns[where] = y;
+				transposedValues[2 * where] = values[2 * index];
+				transposedValues[2 * where + 1] = values[2 * index + 1];
+			}
+		}
+		result.setContent(pointers, transposedColumns, transposedValues);
+		return target;
 	}
 
 	@Override
-	protected GateMatrix multiplyAndTransposeInternalP(GateMatrix another) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix reduceIntoInternal(final int qubitNo, final int qubitValue, final GateMatrix target) throws CalculationException {
+		final SparseInMemoryFloatGateMatrix	result = toTarget(target);
+		final long		mask = toBitMask(qubitNo), val = qubitValue == 0 ? 0 : mask;
+		final int[]		pointers = new int[(int) (getHeight() / 2 + 1)];
+		final int[]		reducedColumns = new int[getNonZeroCount()];
+		final float[]	reducedValues = new float[2 * getNonZeroCount()];
+		int				where = 0;
+
+		for (int y = 0, yTo = 0; y < rowPointers.length - 1; y++) {
+			if ((y & mask) == val) {
+				for (int index = rowPointers[y], maxIndex = rowPointers[y + 1]; index < maxIndex; index++) {
+					if ((columns[index] & mask) == val) {
+						reducedColumns[where] = (int) countReduced(columns[index], mask, val);
+						reducedValues[2 * where] = values[2 * index];
+						reducedValues[2 * where + 1] = values[2 * index + 1];
+						where++;
+					}
+				}
+				pointers[++yTo] = where;
+			}
+		}
+		result.setContent(pointers, Arrays.copyOf(reducedColumns, where), Arrays.copyOf(reducedValues, 2 * where));
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyInternalP(final GateMatrix another) throws CalculationException {
+		if (isSparseProduct(another)) {
+			return multiplySparse((SparseInMemoryFloatGateMatrix)another, null, true);
+		}
+		else {
+			return multiplyIntoInternalP(another, newProduct(another));
+		}
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeInternalP(final GateMatrix another) throws CalculationException {
+		if (isSparseProduct(another)) {
+			return multiplySparse((SparseInMemoryFloatGateMatrix)another, null, true).transpose();
+		}
+		else {
+			return multiplyAndTransposeIntoInternalP(another, newTransposedProduct(another));
+		}
 	}
 
 	@Override
 	protected GateMatrix transposeInternalP() throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+		return transposeIntoInternalP(new SparseInMemoryFloatGateMatrix(getHeight(), getWidth(), isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix reduceInternalP(final int qubitNo, final int qubitValue) throws CalculationException {
+		return reduceIntoInternalP(qubitNo, qubitValue, new SparseInMemoryFloatGateMatrix(getWidth()/2, getHeight()/2, isParallelMode()));
+	}
+
+	@Override
+	protected GateMatrix multiplyIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another.getWidth() == 1) {
+			invokeTask(new MultiplyVectorTask(rowPointers, columns, values, DenseInMemoryFloatGateMatrix.toVectorContent(another), DenseInMemoryFloatGateMatrix.toTargetVector(target), 0, (int) getHeight()), getNonZeroCount());
+		}
+		else if (isSparseProduct(another)) {
+			multiplySparse((SparseInMemoryFloatGateMatrix)another, target, true);
+		}
+		else {
+			invokeTask(new MultiplyDenseTask(rowPointers, columns, values, DenseInMemoryFloatGateMatrix.toRows(another), DenseInMemoryFloatGateMatrix.toTargetRows(target), 0, (int) getHeight(), false), getNonZeroCount() * another.getWidth());
+		}
+		return target;
+	}
+
+	@Override
+	protected GateMatrix multiplyAndTransposeIntoInternalP(final GateMatrix another, final GateMatrix target) throws CalculationException {
+		if (another.getWidth() == 1) {
+			invokeTask(new MultiplyVectorTask(rowPointers, columns, values, DenseInMemoryFloatGateMatrix.toVectorContent(another), DenseInMemoryFloatGateMatrix.toTargetVector(target), 0, (int) getHeight()), getNonZeroCount());
+		}
+		else if (isSparseProduct(another)) {
+			multiplyAndTransposeSparse((SparseInMemoryFloatGateMatrix)another, target, true);
+		}
+		else {
+			invokeTask(new MultiplyDenseTask(rowPointers, columns, values, DenseInMemoryFloatGateMatrix.toRows(another), DenseInMemoryFloatGateMatrix.toTargetRows(target), 0, (int) getHeight(), !isVector(target)), getNonZeroCount() * another.getWidth());
+		}
+		return target;
+	}
+
+	@Override
+	protected void forEachInternalP(final Piece piece, final ForEachCallback callback) throws CalculationException {
+		// Sparse forEach processes rows only, so the piece is split into row ranges
+		invokeRangeTask(new RangeTask((from, to)->forEachInternal(Piece.of(piece.x(), from, piece.width(), to - from), callback), piece.width(), (int) piece.y(), (int) (piece.y() + piece.height())), piece.width() * piece.height());
+	}
+
+	@Override
+	protected GateMatrix castInternal(final GateMatrixType type) throws CalculationException {
+		return castInternal(type, false);
 	}
 
 	@Override
-	protected GateMatrix reduceInternalP(int qubitNo, int qubitValue) throws CalculationException {
-		// TODO Auto-generated method stub
-		return null;
+	protected GateMatrix castInternalP(final GateMatrixType type) throws CalculationException {
+		return castInternal(type, true);
 	}
 
 	@Override
-	protected void forEachInternalP(Piece piece, ForEachCallback callback) throws CalculationException {
-		// TODO Auto-generated method stub
+	protected GateMatrix optimizeInternal() throws CalculationException {
+		return optimizeInternal(false);
+	}
+
+	@Override
+	protected GateMatrix optimizeInternalP() throws CalculationException {
+		return optimizeInternal(true);
+	}
+
+	/*
+	 * Sparse matrix knows it's fill ratio without any scan. Only permutation check requires rows to be inspected, and it's failed fast on the
+	 * first row that is not a permutation one.
+	 */
+	private GateMatrix optimizeInternal(final boolean parallel) throws CalculationException {
+		if (isPermutation()) {
+			return castInternal(GateMatrixType.COMMITATION_MATRIX, parallel);
+		}
+		else if (getNonZeroCount() < DENSE_FILL_RATIO * getWidth() * getHeight()) {
+			return this;
+		}
+		else {
+			return castInternal(GateMatrixType.DENSE_MATRIX, parallel);
+		}
+	}
+
+	private boolean isPermutation() {
+		final int[]		pointers = rowPointers;
+		final float[]	sourceValues = values;
 		
+		if (getWidth() != getHeight() || getNonZeroCount() != getHeight()) {
+			return false;
+		}
+		for (int y = 0; y < pointers.length - 1; y++) {
+			if (pointers[y + 1] - pointers[y] != 1 || sourceValues[2 * pointers[y]] != 1 || sourceValues[2 * pointers[y] + 1] != 0) {
+				return false;
+			}
+		}
+		return GateMatrixCasts.isPermutation(Arrays.copyOf(columns, pointers.length - 1), (int) getWidth());
 	}
 
+	/*
+	 * Sparse to dense cast scatters non-zero values into the zero-filled dense matrix. Sparse matrix with exactly one 1+0i value in every row 
+	 * and column is a permutation, and it's columns array is a commutation matrix content as-is.
+	 */
+	private GateMatrix castInternal(final GateMatrixType type, final boolean parallel) throws CalculationException {
+		final int[]		pointers = rowPointers, sourceColumns = columns;
+		final float[]	sourceValues = values;
+		
+		switch (type) {
+			case DENSE_MATRIX		:
+				final AbstractInMemoryGateMatrix	result = DenseInMemoryFloatGateVector.newInstance(getWidth(), getHeight(), isParallelMode());
+				final RangeKernel	kernel;
+				
+				if (result instanceof DenseInMemoryFloatGateMatrix) {
+					final float[][]	rows = ((DenseInMemoryFloatGateMatrix)result).getContent();
+					
+					kernel = (from, to)->{
+						for (int y = from; y < to; y++) {
+							for (int index = pointers[y]; index < pointers[y + 1]; index++) {
+								rows[y][2 * sourceColumns[index]] = sourceValues[2 * index];
+								rows[y][2 * sourceColumns[index] + 1] = sourceValues[2 * index + 1];
+							}
+						}
+					};
+				}
+				else {
+					final float[]	content = ((DenseInMemoryFloatGateVector)result).getContent();
+					final int		width = (int) getWidth();
+					
+					kernel = (from, to)->{
+						for (int y = from; y < to; y++) {
+							for (int index = pointers[y]; index < pointers[y + 1]; index++) {
+								content[2 * (y * width + sourceColumns[index])] = sourceValues[2 * index];
+								content[2 * (y * width + sourceColumns[index]) + 1] = sourceValues[2 * index + 1];
+							}
+						}
+					};
+				}
+				if (parallel) {
+					invokeRangeTask(new RangeTask(kernel, Math.max(1, getNonZeroCount() / (pointers.length - 1)), 0, pointers.length - 1), getNonZeroCount());
+				}
+				else {
+					kernel.process(0, pointers.length - 1);
+				}
+				return result;
+			case COMMITATION_MATRIX	:
+				if (!isPermutation()) {
+					throw new IllegalStateException("Matrix content is not a permutation, matrix can't be casted to commutation matrix");
+				}
+				else {
+					return new CommutationalInMemoryMatrix(getWidth(), getHeight(), isParallelMode(), Arrays.copyOf(sourceColumns, pointers.length - 1));
+				}
+			default :
+				return GateMatrixCasts.cast(this, type, parallel);
+		}
+	}
+
+	/*
+	 * Matrix-by-column-vector product is a contiguous vector, any other product is a dense matrix 
+	 */
+	private GateMatrix newProduct(final GateMatrix another) {
+		return another.getWidth() == 1 
+				? new DenseInMemoryFloatGateVector(1, getHeight(), isParallelMode())
+				: new DenseInMemoryFloatGateMatrix(another.getWidth(), getHeight(), isParallelMode());
+	}
+
+	private GateMatrix newTransposedProduct(final GateMatrix another) {
+		return another.getWidth() == 1 
+				? new DenseInMemoryFloatGateVector(getHeight(), 1, isParallelMode())
+				: new DenseInMemoryFloatGateMatrix(getHeight(), another.getWidth(), isParallelMode());
+	}
+
+	/*
+	 * Sparse-by-sparse product (SpGEMM) by Gustavson. Symbolic pass counts non-zeros of every product row, so sparse product is allocated exactly, 
+	 * then numeric pass calculates product rows with the scratch accumulators. Every worker has it's own accumulators, so no locks are required.
+	 * When target is null, product is stored dense if it's fill ratio exceeds DENSE_FILL_RATIO, and sparse otherwise. 
+	 */
+	private GateMatrix multiplySparse(final SparseInMemoryFloatGateMatrix another, final GateMatrix target, final boolean parallel) {
+		final int[]		pointers = another.rowPointers;
+		final int		width = (int) another.getWidth(), height = (int) getHeight();
+		final long		cellCost = Math.max(1, another.getNonZeroCount() / another.getHeight());
+		
+		if (target != null && !(target instanceof SparseInMemoryFloatGateMatrix)) {
+			final float[][]	rows = DenseInMemoryFloatGateMatrix.toTargetRows(target);
+			
+			if (parallel) {
+				invokeTask(new DenseProductTask(this, another, rows, 0, height, false), getNonZeroCount() * cellCost);
+			}
+			else {
+				multiplyProductDense(this, another, rows, 0, height, false);
+			}
+			return target;
+		}
+		else {
+			final int[]		productPointers = new int[height + 1];
+			
+			if (parallel) {
+				invokeTask(new SymbolicProductTask(this, another, productPointers, 0, height), getNonZeroCount() * cellCost);
+			}
+			else {
+				countProduct(this, another, productPointers, 0, height);
+			}
+			long	total = 0;
+			
+			for (int y = 0; y < height; y++) {
+				total += productPointers[y + 1];
+				productPointers[y + 1] = (int) Math.min(total, Integer.MAX_VALUE);
+			}
+			if (target == null && (total >= DENSE_FILL_RATIO * width * height || total > Integer.MAX_VALUE)) {
+				final DenseInMemoryFloatGateMatrix	result = new DenseInMemoryFloatGateMatrix(width, height, isParallelMode());
+				
+				if (parallel) {
+					invokeTask(new DenseProductTask(this, another, result.getContent(), 0, height, false), getNonZeroCount() * cellCost);
+				}
+				else {
+					multiplyProductDense(this, another, result.getContent(), 0, height, false);
+				}
+				return result;
+			}
+			else if (total > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Number of non-zero values of the sparse product ["+total+"] is too large to store it in the sparse matrix");
+			}
+			else {
+				final SparseInMemoryFloatGateMatrix	result = target == null ? new SparseInMemoryFloatGateMatrix(width, height, isParallelMode()) : (SparseInMemoryFloatGateMatrix)target;
+				final int[]		productColumns = new int[(int) total];
+				final float[]	productValues = new float[(int) (2 * total)];
+				
+				if (parallel) {
+					invokeTask(new SparseProductTask(this, another, productPointers, productColumns, productValues, 0, height), getNonZeroCount() * cellCost);
+				}
+				else {
+					multiplyProductSparse(this, another, productPointers, productColumns, productValues, 0, height);
+				}
+				result.setContent(productPointers, productColumns, productValues);
+				return result;
+			}
+		}
+	}
+
+	private GateMatrix multiplyAndTransposeSparse(final SparseInMemoryFloatGateMatrix another, final GateMatrix target, final boolean parallel) throws CalculationException {
+		if (target instanceof SparseInMemoryFloatGateMatrix) {
+			return multiplySparse(another, new SparseInMemoryFloatGateMatrix(another.getWidth(), getHeight(), false), parallel).transposeInto(target);
+		}
+		else {
+			final float[][]	rows = DenseInMemoryFloatGateMatrix.toTargetRows(target);
+			final long		cellCost = Math.max(1, another.getNonZeroCount() / another.getHeight());
+			// Transposed product into the column vector has the same layout as one-row product
+			final boolean	transpose = !isVector(target);
+			
+			if (parallel) {
+				invokeTask(new DenseProductTask(this, another, rows, 0, (int) getHeight(), transpose), getNonZeroCount() * cellCost);
+			}
+			else {
+				multiplyProductDense(this, another, rows, 0, (int) getHeight(), transpose);
+			}
+			return target;
+		}
+	}
+	
+	private static boolean isSparseProduct(final GateMatrix another) {
+		return another instanceof SparseInMemoryFloatGateMatrix && another.getWidth() != 1;
+	}
+	
+	private static SparseInMemoryFloatGateMatrix toTarget(final GateMatrix target) {
+		if (target instanceof SparseInMemoryFloatGateMatrix) {
+			return (SparseInMemoryFloatGateMatrix)target;
+		}
+		else {
+			throw new IllegalArgumentException("Target matrix ["+target.getClass().getSimpleName()+"] is not compatible with the sparse float matrix result");
+		}
+	}
+
+	void setContent(final int[] rowPointers, final int[] columns, final float[] values) {
+		this.rowPointers = rowPointers;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	/*
+	 * Index of the first non-zero value in the row with column greater or equals than the given one
+	 */
+	private int firstInRow(final int y, final int x) {
+		final int	from = rowPointers[y], to = rowPointers[y + 1];
+
+		if (from == to || columns[from] >= x) {
+			return from;
+		}
+		else {
+			final int	found = Arrays.binarySearch(columns, from, to, x);
+
+			return found >= 0 ? found : -found - 1;
+		}
+	}
+
+	/*
+	 * Sparse-by-dense kernel. Every non-zero value of the left row is multiplied by the appropriative row of the right matrix, so amount of work
+	 * is proportional to number of non-zero values, not to the matrix size. Transposed product rows are accumulated in the scratch line and then
+	 * stored into the target column. 
+	 */
+	static void multiplyInternalDense(final int[] pointers, final int[] columns, final float[] values, final float[][] right, final float[][] target, final int yFrom, final int yTo, final boolean transpose) {
+		final float[]	scratch = transpose ? new float[right[0].length] : null;
+		
+		for (int y = yFrom; y < yTo; y++) {
+			final float[]	targetLine = transpose ? scratch : target[y];
+
+			Arrays.fill(targetLine, 0.0f);
+			for (int index = pointers[y], maxIndex = pointers[y + 1]; index < maxIndex; index++) {
+				final float		leftReal = values[2 * index], leftImage = values[2 * index + 1];
+				final float[]	rightLine = right[columns[index]];
+
+				for (int x = 0; x < targetLine.length; x += 2) {
+					targetLine[x] += leftReal * rightLine[x] - leftImage * rightLine[x + 1];
+					targetLine[x + 1] += leftReal * rightLine[x + 1] + leftImage * rightLine[x];
+				}
+			}
+			if (transpose) {
+				for (int x = 0; x < targetLine.length / 2; x++) {
+					target[x][2 * y] = targetLine[2 * x];
+					target[x][2 * y + 1] = targetLine[2 * x + 1];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Sparse-by-column-vector kernel. Only non-zero values of the row are multiplied by the vector values.
+	 */
+	static void multiplyInternalVector(final int[] pointers, final int[] columns, final float[] values, final float[] vector, final float[] target, final int yFrom, final int yTo) {
+		for (int y = yFrom; y < yTo; y++) {
+			float	real = 0, image = 0;
+			
+			for (int index = pointers[y], maxIndex = pointers[y + 1]; index < maxIndex; index++) {
+				final float	leftReal = values[2 * index], leftImage = values[2 * index + 1];
+				final float	vectorReal = vector[2 * columns[index]], vectorImage = vector[2 * columns[index] + 1];
+				
+				real += leftReal * vectorReal - leftImage * vectorImage;
+				image += leftReal * vectorImage + leftImage * vectorReal;
+			}
+			target[2 * y] = real;
+			target[2 * y + 1] = image;
+		}
+	}
+
+	/*
+	 * Symbolic pass of the sparse-by-sparse product. Stores number of non-zeros of every product row into counts[y+1]. Marker keeps the last row
+	 * where the column was met, so it's never cleared between rows.
+	 */
+	static void countProduct(final SparseInMemoryFloatGateMatrix left, final SparseInMemoryFloatGateMatrix right, final int[] counts, final int yFrom, final int yTo) {
+		final int[]	leftPointers = left.rowPointers, leftColumns = left.columns;
+		final int[]	rightPointers = right.rowPointers, rightColumns = right.columns;
+		final int[]	marker = new int[(int) right.getWidth()];
+		
+		Arrays.fill(marker, -1);
+		for (int y = yFrom; y < yTo; y++) {
+			int		count = 0;
+			
+			for (int index = leftPointers[y], maxIndex = leftPointers[y + 1]; index < maxIndex; index++) {
+				for (int rightIndex = rightPointers[leftColumns[index]], maxRightIndex = rightPointers[leftColumns[index] + 1]; rightIndex < maxRightIndex; rightIndex++) {
+					if (marker[rightColumns[rightIndex]] != y) {
+						marker[rightColumns[rightIndex]] = y;
+						count++;
+					}
+				}
+			}
+			counts[y + 1] = count;
+		}
+	}
+
+	/*
+	 * Numeric pass of the sparse-by-sparse product. Product row is accumulated in the dense scratch accumulator, columns met are collected 
+	 * directly into the product columns and sorted after the row is completed. 
+	 */
+	static void multiplyProductSparse(final SparseInMemoryFloatGateMatrix left, final SparseInMemoryFloatGateMatrix right, final int[] pointers, final int[] columns, final float[] values, final int yFrom, final int yTo) {
+		final int[]		leftPointers = left.rowPointers, leftColumns = left.columns;
+		final int[]		rightPointers = right.rowPointers, rightColumns = right.columns;
+		final float[]	leftValues = left.values, rightValues = right.values;
+		final int[]		marker = new int[(int) right.getWidth()];
+		final float[]	accumulator = new float[(int) (2 * right.getWidth())];
+		
+		Arrays.fill(marker, -1);
+		for (int y = yFrom; y < yTo; y++) {
+			int		where = pointers[y];
+			
+			for (int index = leftPointers[y], maxIndex = leftPointers[y + 1]; index < maxIndex; index++) {
+				final float	leftReal = leftValues[2 * index], leftImage = leftValues[2 * index + 1];
+				
+				for (int rightIndex = rightPointers[leftColumns[index]], maxRightIndex = rightPointers[leftColumns[index] + 1]; rightIndex < maxRightIndex; rightIndex++) {
+					final int	x = rightColumns[rightIndex];
+					
+					if (marker[x] != y) {
+						marker[x] = y;
+						columns[where++] = x;
+						accumulator[2 * x] = 0;
+						accumulator[2 * x + 1] = 0;
+					}
+					accumulator[2 * x] += leftReal * rightValues[2 * rightIndex] - leftImage * rightValues[2 * rightIndex + 1];
+					accumulator[2 * x + 1] += leftReal * rightValues[2 * rightIndex + 1] + leftImage * rightValues[2 * rightIndex];
+				}
+			}
+			Arrays.sort(columns, pointers[y], where);
+			for (int index = pointers[y]; index < where; index++) {
+				values[2 * index] = accumulator[2 * columns[index]];
+				values[2 * index + 1] = accumulator[2 * columns[index] + 1];
+			}
+		}
+	}
+
+	/*
+	 * Numeric pass of the sparse-by-sparse product with dense target. Product rows are accumulated directly in the target rows (or in the scratch
+	 * line for transposed product), so symbolic pass is not required.
+	 */
+	static void multiplyProductDense(final SparseInMemoryFloatGateMatrix left, final SparseInMemoryFloatGateMatrix right, final float[][] target, final int yFrom, final int yTo, final boolean transpose) {
+		final int[]		leftPointers = left.rowPointers, leftColumns = left.columns;
+		final int[]		rightPointers = right.rowPointers, rightColumns = right.columns;
+		final float[]	leftValues = left.values, rightValues = right.values;
+		final float[]	scratch = transpose ? new float[(int) (2 * right.getWidth())] : null;
+		
+		for (int y = yFrom; y < yTo; y++) {
+			final float[]	line = transpose ? scratch : target[y];
+			
+			Arrays.fill(line, 0.0f);
+			for (int index = leftPointers[y], maxIndex = leftPointers[y + 1]; index < maxIndex; index++) {
+				final float	leftReal = leftValues[2 * index], leftImage = leftValues[2 * index + 1];
+				
+				for (int rightIndex = rightPointers[leftColumns[index]], maxRightIndex = rightPointers[leftColumns[index] + 1]; rightIndex < maxRightIndex; rightIndex++) {
+					final int	x = rightColumns[rightIndex];
+					
+					line[2 * x] += leftReal * rightValues[2 * rightIndex] - leftImage * rightValues[2 * rightIndex + 1];
+					line[2 * x + 1] += leftReal * rightValues[2 * rightIndex + 1] + leftImage * rightValues[2 * rightIndex];
+				}
+			}
+			if (transpose) {
+				for (int x = 0; x < line.length / 2; x++) {
+					target[x][2 * y] = line[2 * x];
+					target[x][2 * y + 1] = line[2 * x + 1];
+				}
+			}
+		}
+	}
+
+	/*
+	 * Row range can be split when amount of elementary operations to process it exceeds twice serial threshold. Cell cost is a number of elementary
+	 * operations to process one non-zero value.
+	 */
+	static boolean isSplittable(final int[] pointers, final int yFrom, final int yTo, final long cellCost) {
+		return yTo - yFrom > 1 && (long)(pointers[yTo] - pointers[yFrom]) * cellCost >= 2 * SERIAL_THRESHOLD;
+	}
+
+	/*
+	 * Split row range into two parts with approximately the same number of non-zero values. Both parts are never empty.
+	 */
+	static int splitRows(final int[] pointers, final int yFrom, final int yTo) {
+		final int	middle = (int) (((long)pointers[yFrom] + pointers[yTo]) / 2);
+		final int	found = Arrays.binarySearch(pointers, yFrom, yTo + 1, middle);
+		final int	above = Math.max(yFrom + 1, Math.min(yTo - 1, found >= 0 ? found : -found - 1)); 
+		
+		return above > yFrom + 1 && middle - pointers[above - 1] < pointers[above] - middle ? above - 1 : above;
+	}
+
+	/*
+	 * Collects values in any order and builds CSR content from them. Values with the same location replace each other in the order of adding,
+	 * zero values are not included into the content built.
+	 */
+	static class Builder {
+		private int[]	rows;
+		private int[]	cols;
+		private float[]	vals;
+		private int		count = 0;
+
+		Builder(final int capacity) {
+			this.rows = new int[Math.max(capacity, 16)];
+			this.cols = new int[rows.length];
+			this.vals = new float[2 * rows.length];
+		}
+
+		void add(final int x, final int y, final float real, final float image) {
+			if (count == rows.length) {
+				rows = Arrays.copyOf(rows, 2 * count);
+				cols = Arrays.copyOf(cols, 2 * count);
+				vals = Arrays.copyOf(vals, 4 * count);
+			}
+			rows[count] = y;
+			cols[count] = x;
+			vals[2 * count] = real;
+			vals[2 * count + 1] = image;
+			count++;
+		}
+
+		/*
+		 * Values are distributed by rows with counting sort, then every row is sorted by (column, adding order) keys, so the last value added
+		 * to the same location is the last one in the sorted row.
+		 */
+		void build(final SparseInMemoryFloatGateMatrix target) {
+			final int[]		pointers = new int[(int) (target.getHeight() + 1)];
+			final long[]	keys = new long[count];
+
+			for (int index = 0; index < count; index++) {
+				pointers[rows[index] + 1]++;
+			}
+			for (int y = 0; y < pointers.length - 1; y++) {
+				pointers[y + 1] += pointers[y];
+			}
+			final int[]		fill = Arrays.copyOf(pointers, pointers.length - 1);
+
+			for (int index = 0; index < count; index++) {
+				keys[fill[rows[index]]++] = ((long)cols[index] << 32) | index;
+			}
+
+			final int[]		resultPointers = new int[pointers.length];
+			final int[]		resultColumns = new int[count];
+			final float[]	resultValues = new float[2 * count];
+			int				where = 0;
+
+			for (int y = 0; y < pointers.length - 1; y++) {
+				Arrays.sort(keys, pointers[y], pointers[y + 1]);
+				for (int index = pointers[y], maxIndex = pointers[y + 1]; index < maxIndex; index++) {
+					final int	column = (int) (keys[index] >>> 32), source = (int) keys[index];
+
+					if ((index + 1 == maxIndex || (int) (keys[index + 1] >>> 32) != column) && (vals[2 * source] != 0 || vals[2 * source + 1] != 0)) {
+						resultColumns[where] = column;
+						resultValues[2 * where] = vals[2 * source];
+						resultValues[2 * where + 1] = vals[2 * source + 1];
+						where++;
+					}
+				}
+				resultPointers[y + 1] = where;
+			}
+			target.setContent(resultPointers, Arrays.copyOf(resultColumns, where), Arrays.copyOf(resultValues, 2 * where));
+		}
+	}
+
+	private static class MultiplyDenseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[]		pointers;
+		private final int[]		columns;
+		private final float[]	values;
+		private final float[][]	right;
+		private final float[][]	target;
+		private final int		yFrom;
+		private final int		yTo;
+		private final boolean	transpose;
+		
+		private MultiplyDenseTask(final int[] pointers, final int[] columns, final float[] values, final float[][] right, final float[][] target, final int yFrom, final int yTo, final boolean transpose) {
+			this.pointers = pointers;
+			this.columns = columns;
+			this.values = values;
+			this.right = right;
+			this.target = target;
+			this.yFrom = yFrom;
+			this.yTo = yTo;
+			this.transpose = transpose;
+		}
+
+		@Override
+		protected void compute() {
+			if (isSplittable(pointers, yFrom, yTo, right[0].length / 2)) {
+				final int	split = splitRows(pointers, yFrom, yTo);
+				
+				invokeAll(new MultiplyDenseTask(pointers, columns, values, right, target, yFrom, split, transpose), new MultiplyDenseTask(pointers, columns, values, right, target, split, yTo, transpose));
+			}
+			else {
+				multiplyInternalDense(pointers, columns, values, right, target, yFrom, yTo, transpose);
+			}
+		}
+	}
+
+	private static class MultiplyVectorTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[]		pointers;
+		private final int[]		columns;
+		private final float[]	values;
+		private final float[]	vector;
+		private final float[]	target;
+		private final int		yFrom;
+		private final int		yTo;
+		
+		private MultiplyVectorTask(final int[] pointers, final int[] columns, final float[] values, final float[] vector, final float[] target, final int yFrom, final int yTo) {
+			this.pointers = pointers;
+			this.columns = columns;
+			this.values = values;
+			this.vector = vector;
+			this.target = target;
+			this.yFrom = yFrom;
+			this.yTo = yTo;
+		}
+
+		@Override
+		protected void compute() {
+			if (isSplittable(pointers, yFrom, yTo, 1)) {
+				final int	split = splitRows(pointers, yFrom, yTo);
+				
+				invokeAll(new MultiplyVectorTask(pointers, columns, values, vector, target, yFrom, split), new MultiplyVectorTask(pointers, columns, values, vector, target, split, yTo));
+			}
+			else {
+				multiplyInternalVector(pointers, columns, values, vector, target, yFrom, yTo);
+			}
+		}
+	}
+
+	private static class SymbolicProductTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final SparseInMemoryFloatGateMatrix	left;
+		private final SparseInMemoryFloatGateMatrix	right;
+		private final int[]		counts;
+		private final int		yFrom;
+		private final int		yTo;
+		
+		private SymbolicProductTask(final SparseInMemoryFloatGateMatrix left, final SparseInMemoryFloatGateMatrix right, final int[] counts, final int yFrom, final int yTo) {
+			this.left = left;
+			this.right = right;
+			this.counts = counts;
+			this.yFrom = yFrom;
+			this.yTo = yTo;
+		}
+
+		@Override
+		protected void compute() {
+			if (isSplittable(left.rowPointers, yFrom, yTo, Math.max(1, right.getNonZeroCount() / right.getHeight()))) {
+				final int	split = splitRows(left.rowPointers, yFrom, yTo);
+				
+				invokeAll(new SymbolicProductTask(left, right, counts, yFrom, split), new SymbolicProductTask(left, right, counts, split, yTo));
+			}
+			else {
+				countProduct(left, right, counts, yFrom, yTo);
+			}
+		}
+	}
+
+	private static class SparseProductTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final SparseInMemoryFloatGateMatrix	left;
+		private final SparseInMemoryFloatGateMatrix	right;
+		private final int[]		pointers;
+		private final int[]		columns;
+		private final float[]	values;
+		private final int		yFrom;
+		private final int		yTo;
+		
+		private SparseProductTask(final SparseInMemoryFloatGateMatrix left, final SparseInMemoryFloatGateMatrix right, final int[] pointers, final int[] columns, final float[] values, final int yFrom, final int yTo) {
+			this.left = left;
+			this.right = right;
+			this.pointers = pointers;
+			this.columns = columns;
+			this.values = values;
+			this.yFrom = yFrom;
+			this.yTo = yTo;
+		}
+
+		@Override
+		protected void compute() {
+			if (isSplittable(left.rowPointers, yFrom, yTo, Math.max(1, right.getNonZeroCount() / right.getHeight()))) {
+				final int	split = splitRows(left.rowPointers, yFrom, yTo);
+				
+				invokeAll(new SparseProductTask(left, right, pointers, columns, values, yFrom, split), new SparseProductTask(left, right, pointers, columns, values, split, yTo));
+			}
+			else {
+				multiplyProductSparse(left, right, pointers, columns, values, yFrom, yTo);
+			}
+		}
+	}
+
+	private static class DenseProductTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final SparseInMemoryFloatGateMatrix	left;
+		private final SparseInMemoryFloatGateMatrix	right;
+		private final float[][]	target;
+		private final int		yFrom;
+		private final int		yTo;
+		private final boolean	transpose;
+		
+		private DenseProductTask(final SparseInMemoryFloatGateMatrix left, final SparseInMemoryFloatGateMatrix right, final float[][] target, final int yFrom, final int yTo, final boolean transpose) {
+			this.left = left;
+			this.right = right;
+			this.target = target;
+			this.yFrom = yFrom;
+			this.yTo = yTo;
+			this.transpose = transpose;
+		}
+
+		@Override
+		protected void compute() {
+			if (isSplittable(left.rowPointers, yFrom, yTo, Math.max(1, right.getNonZeroCount() / right.getHeight()))) {
+				final int	split = splitRows(left.rowPointers, yFrom, yTo);
+				
+				invokeAll(new DenseProductTask(left, right, target, yFrom, split, transpose), new DenseProductTask(left, right, target, split, yTo, transpose));
+			}
+			else {
+				multiplyProductDense(left, right, target, yFrom, yTo, transpose);
+			}
+		}
+	}
 }
@@ -0,0 +1,168 @@
+package chav1961.qu.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+public class BitPermutationMatrixTest {
+	@Test
+	public void basicTest() throws CalculationException, IOException {
+		try(final BitPermutationMatrix	bpm = BitPermutationMatrix.swap(3, 0, 2, true)) {
+			Assert.assertEquals(8, bpm.getHeight());
+			Assert.assertEquals(8, bpm.getWidth());
+			Assert.assertEquals(GateMatrixType.COMMITATION_MATRIX, bpm.getType());
+			Assert.assertEquals(int.class, bpm.getValueClass());
+			Assert.assertArrayEquals(new int[] {2,1,0}, bpm.getBits());
+			Assert.assertEquals(0b100, bpm.permute(0b001));
+			Assert.assertEquals(0b011, bpm.permute(0b110));
+		}
+
+		try {BitPermutationMatrix.swap(0, 0, 0, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {BitPermutationMatrix.swap(3, 3, 0, true).close();
+			Assert.fail("Mandatory exception was not detected (2-nd argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {BitPermutationMatrix.swap(3, 0, -1, true).close();
+			Assert.fail("Mandatory exception was not detected (3-rd argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {BitPermutationMatrix.of(true, (int[])null).close();
+			Assert.fail("Mandatory exception was not detected (null 2-nd argument)");
+		} catch (NullPointerException exc) {
+		}
+		try {BitPermutationMatrix.of(true, 0, 0, 1).close();
+			Assert.fail("Mandatory exception was not detected (2-nd argument is not a permutation)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try (final BitPermutationMatrix	bpm = BitPermutationMatrix.swap(62, 0, 61, false)) {
+			Assert.assertEquals(1L << 62, bpm.getHeight());
+			Assert.assertEquals(1L << 61, bpm.permute(1));
+
+			try(final ByteArrayOutputStream	baos = new ByteArrayOutputStream()) {
+				try(final DataOutputStream	dos = new DataOutputStream(baos)) {
+					bpm.setFastMode(true);
+					bpm.upload(Piece.of(0, 1, bpm.getWidth(), 1), dos);
+				}
+				try(final DataInputStream	dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+					Assert.assertEquals(1L << 61, dis.readLong());
+					Assert.assertEquals(-1, dis.read());
+				}
+			}
+		}
+		try (final BitPermutationMatrix	bpm = BitPermutationMatrix.of(false, 0);
+			 final GateMatrix			reduced = bpm.reduce(0, 1)) {
+			Assert.assertEquals(1, reduced.getWidth());
+			Assert.assertEquals(1, reduced.getHeight());
+			Assert.assertArrayEquals(new float[] {1, 0}, DenseInMemoryFloatGateMatrixTest.store(toDense(reduced)), 0.0001f);
+		}
+	}
+
+	@Test
+	public void calculationTest() throws CalculationException, IOException {
+		final int		qubits = 6, size = 1 << qubits;
+		final float[]	dense = DenseInMemoryFloatGateMatrixTest.random(size * size, 10), vector = DenseInMemoryFloatGateMatrixTest.random(size, 11);
+
+		try(final BitPermutationMatrix				bpm = BitPermutationMatrix.of(true, 1, 2, 0, 3, 5, 4);
+			final BitPermutationMatrix				swap = BitPermutationMatrix.swap(qubits, 0, 3, true);
+			final CommutationalInMemoryMatrix		cimm = new CommutationalInMemoryMatrix(size, size, true);
+			final CommutationalInMemoryMatrix		cimmSwap = new CommutationalInMemoryMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix		dimm = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final SparseInMemoryFloatGateMatrix		simm = new SparseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatGateVector		column = new DenseInMemoryFloatGateVector(1, size, false)) {
+
+			cimm.setFastMode(true);
+			cimm.download(new DataSource(CommutationalInMemoryMatrixTest.columns(bpm)));
+			cimmSwap.setFastMode(true);
+			cimmSwap.download(new DataSource(CommutationalInMemoryMatrixTest.columns(swap)));
+			DenseInMemoryFloatGateMatrixTest.load(dimm, dense);
+			DenseInMemoryFloatGateMatrixTest.load(simm, SparseInMemoryFloatGateMatrixTest.sparse(size, 12));
+			DenseInMemoryFloatGateMatrixTest.load(column, vector);
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				bpm.setParallelMode(parallel);
+				cimm.setParallelMode(parallel);
+
+				try(final GateMatrix	result = bpm.multiply(swap);
+					final GateMatrix	expected = cimm.multiply(cimmSwap)) {
+					Assert.assertTrue(result instanceof BitPermutationMatrix);
+					Assert.assertArrayEquals(CommutationalInMemoryMatrixTest.columns(expected), CommutationalInMemoryMatrixTest.columns(result));
+				}
+				try(final GateMatrix	result = bpm.multiply(cimmSwap);
+					final GateMatrix	expected = cimm.multiply(cimmSwap)) {
+					Assert.assertEquals(GateMatrixType.COMMITATION_MATRIX, result.getType());
+					Assert.assertArrayEquals(CommutationalInMemoryMatrixTest.columns(expected), CommutationalInMemoryMatrixTest.columns(result));
+				}
+				try(final GateMatrix	result = cimm.multiply(swap);
+					final GateMatrix	expected = cimm.multiply(cimmSwap)) {
+					Assert.assertArrayEquals(CommutationalInMemoryMatrixTest.columns(expected), CommutationalInMemoryMatrixTest.columns(result));
+				}
+				for (GateMatrix another : new GateMatrix[] {dimm, simm, column}) {
+					try(final GateMatrix	result = bpm.multiply(another);
+						final GateMatrix	expected = cimm.multiply(another);
+						final GateMatrix	target = another == column ? new DenseInMemoryFloatGateVector(1, size, false) : new DenseInMemoryFloatGateMatrix(size, size, false)) {
+						Assert.assertEquals(expected.getType(), result.getType());
+						Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expected), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+						Assert.assertSame(target, bpm.multiplyInto(another, target));
+						Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expected), DenseInMemoryFloatGateMatrixTest.store(target), 0.0001f);
+					}
+				}
+				try(final CommutationalInMemoryMatrix	target = new CommutationalInMemoryMatrix(size, size, false);
+					final GateMatrix					expected = cimm.multiply(cimmSwap)) {
+					Assert.assertSame(target, bpm.multiplyInto(cimmSwap, target));
+					Assert.assertArrayEquals(CommutationalInMemoryMatrixTest.columns(expected), CommutationalInMemoryMatrixTest.columns(target));
+					Assert.assertSame(target, bpm.multiplyInto(swap, target));
+					Assert.assertArrayEquals(CommutationalInMemoryMatrixTest.columns(expected), CommutationalInMemoryMatrixTest.columns(target));
+				}
+				try(final GateMatrix	result = bpm.transpose();
+					final GateMatrix	expected = cimm.transpose()) {
+					Assert.assertTrue(result instanceof BitPermutationMatrix);
+					Assert.assertArrayEquals(CommutationalInMemoryMatrixTest.columns(expected), CommutationalInMemoryMatrixTest.columns(result));
+				}
+				for (int qubit = 0; qubit < qubits; qubit++) {
+					for (int value = 0; value < 2; value++) {
+						try(final GateMatrix	result = bpm.reduce(qubit, value);
+							final GateMatrix	expected = cimm.reduce(qubit, value)) {
+							Assert.assertEquals(qubit == 3, result instanceof BitPermutationMatrix);
+							Assert.assertEquals(expected.getType(), result.getType());
+							Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(toDense(expected)), DenseInMemoryFloatGateMatrixTest.store(toDense(result)), 0.0001f);
+						}
+					}
+				}
+
+				final AtomicLong	counter = new AtomicLong();
+
+				bpm.setFastMode(true);
+				bpm.forEach((x,y,r,i)->{
+					Assert.assertEquals(bpm.permute(y), x);
+					counter.incrementAndGet();
+					return true;
+				});
+				bpm.setFastMode(false);
+				Assert.assertEquals(size, counter.get());
+			}
+		}
+	}
+
+	private static GateMatrix toDense(final GateMatrix matrix) throws CalculationException {
+		final float[][]	content = new float[(int) matrix.getHeight()][(int) (2 * matrix.getWidth())];
+
+		for (int y = 0; y < content.length; y++) {
+			matrix.extract(Piece.of(0, y, matrix.getWidth(), 1), content[y], 0);
+		}
+		return new DenseInMemoryFloatGateMatrix(matrix.getWidth(), matrix.getHeight(), false, content);
+	}
+}
@@ -5,6 +5,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -170,5 +171,304 @@ public class CommutationalInMemoryMatrixTest {
 				Assert.assertEquals(int.class, cimm3.getValueClass());
 			}
 		}
+		
+		try(final CommutationalInMemoryMatrix	cimm1 = new CommutationalInMemoryMatrix(4, 4, true);
+			final CommutationalInMemoryMatrix	cimm2 = new CommutationalInMemoryMatrix(4, 4, true)) {
+			
+			cimm1.setFastMode(true);
+			cimm1.download(new DataSource(1,2,3,0));
+			cimm2.setFastMode(true);
+			cimm2.download(new DataSource(0,2,1,3));
+			
+			try(final GateMatrix	cimm3 = cimm1.multiply(cimm2)) {
+				Assert.assertArrayEquals(new int[] {2,1,3,0}, columns(cimm3));
+			}
+			cimm1.setParallelMode(true);
+			try(final GateMatrix	cimm3 = cimm1.multiply(cimm2)) {
+				Assert.assertArrayEquals(new int[] {2,1,3,0}, columns(cimm3));
+			}
+		}
 	}	
+
+	@Test
+	public void parallelCalculationTest() throws CalculationException, IOException {
+		final int		size = 1 << 18;
+		final int[]		left = new int[size], right = new int[size];
+		
+		for (int index = 0; index < size; index++) {
+			left[index] = (index * 5 + 3) % size;
+			right[index] = size - 1 - index;
+		}
+		
+		try(final CommutationalInMemoryMatrix	cimm1 = new CommutationalInMemoryMatrix(size, size, true);
+			final CommutationalInMemoryMatrix	cimm2 = new CommutationalInMemoryMatrix(size, size, true)) {
+			
+			cimm1.setFastMode(true);
+			cimm1.download(new DataSource(left));
+			cimm2.setFastMode(true);
+			cimm2.download(new DataSource(right));
+			cimm1.setParallelMode(true);
+			
+			try(final GateMatrix	cimm3 = cimm1.multiply(cimm2)) {
+				final int[]	result = columns(cimm3);
+				
+				for (int index = 0; index < size; index++) {
+					Assert.assertEquals(right[left[index]], result[index]);
+				}
+			}
+			try {
+				cimm1.forEach((x,y,r,i)->{
+					if (y == size / 2) {
+						throw new CalculationException(new IOException("test"));
+					}
+					return true;
+				});
+				Assert.fail("Mandatory exception was not detected (calculation exception in the parallel kernel)");
+			} catch (CalculationException exc) {
+			}
+		}
+	}
+	
+	@Test
+	public void operationsTest() throws CalculationException, IOException {
+		final int		size = 1 << 18;
+		final int[]		swap = new int[size], shift = new int[size];
+		
+		for (int index = 0; index < size; index++) {
+			swap[index] = (index & ~0b11) | ((index & 1) << 1) | ((index & 2) >> 1);
+			shift[index] = (index + 1) % size;
+		}
+		
+		try(final CommutationalInMemoryMatrix	cimm1 = new CommutationalInMemoryMatrix(size, size, true);
+			final CommutationalInMemoryMatrix	cimm2 = new CommutationalInMemoryMatrix(size, size, true)) {
+			
+			cimm1.setFastMode(true);
+			cimm1.download(new DataSource(swap));
+			cimm2.setFastMode(true);
+			cimm2.download(new DataSource(shift));
+			
+			for (boolean parallel : new boolean[] {false, true}) {
+				cimm1.setParallelMode(parallel);
+				cimm2.setParallelMode(parallel);
+				
+				try(final GateMatrix	result = cimm2.transpose()) {
+					final int[]	inverse = columns(result);
+					
+					for (int index = 0; index < size; index++) {
+						Assert.assertEquals(index, inverse[shift[index]]);
+					}
+				}
+				try(final GateMatrix	result = cimm1.reduce(5, 1)) {
+					final int[]	reduced = columns(result);
+					
+					Assert.assertEquals(GateMatrixType.COMMITATION_MATRIX, result.getType());
+					Assert.assertEquals(size / 2, result.getHeight());
+					for (int index = 0; index < size / 2; index++) {
+						Assert.assertEquals(swap[index], reduced[index]);
+					}
+				}
+				try(final GateMatrix	result = cimm2.reduce(0, 0)) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertEquals(0, ((SparseInMemoryFloatGateMatrix)result).getNonZeroCount());
+				}
+				try(final GateMatrix	result = cimm2.reduce(1, 0)) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertEquals(size / 4, ((SparseInMemoryFloatGateMatrix)result).getNonZeroCount());
+				}
+
+				final AtomicLong	counter = new AtomicLong();
+				
+				cimm2.forEach((x,y,r,i)->{
+					Assert.assertEquals(shift[(int)y], x);
+					Assert.assertEquals(1, r, 0.0001);
+					counter.incrementAndGet();
+					return true;
+				});
+				Assert.assertEquals(size, counter.get());
+				
+				counter.set(0);
+				cimm2.forEach(Piece.of(0, 0, 10, size), (x,y,r,i)->{
+					Assert.assertTrue(x < 10);
+					counter.incrementAndGet();
+					return true;
+				});
+				Assert.assertEquals(10, counter.get());
+			}
+		}
+		
+		try(final CommutationalInMemoryMatrix	cimm = new CommutationalInMemoryMatrix(3, 3, true)) {
+			final AtomicLong	counter = new AtomicLong();
+			
+			cimm.setFastMode(true);
+			cimm.download(new DataSource(2,0,1));
+			cimm.setFastMode(false);
+			cimm.forEach((x,y,r,i)->{
+				Assert.assertEquals(x == (y + 2) % 3 ? 1 : 0, r, 0.0001);
+				counter.incrementAndGet();
+				return true;
+			});
+			Assert.assertEquals(9, counter.get());
+		}
+	}
+	
+	@Test
+	public void gatherTest() throws CalculationException, IOException {
+		final int		size = 64;
+		final int[]		permutation = new int[size];
+		final float[]	dense = new float[2 * size * size], right = SparseInMemoryFloatGateMatrixTest.sparse(size, 8), vector = DenseInMemoryFloatGateMatrixTest.random(size, 9);
+		
+		for (int index = 0; index < size; index++) {
+			permutation[index] = (index * 7 + 5) % size;
+			dense[2 * (index * size + permutation[index])] = 1;
+		}
+		final float[]	expected = DenseInMemoryFloatGateMatrixTest.multiply(dense, right, size, size, size);
+		final float[]	expectedVector = DenseInMemoryFloatGateMatrixTest.multiply(dense, vector, size, size, 1);
+		
+		try(final CommutationalInMemoryMatrix			cimm = new CommutationalInMemoryMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix			dimm = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatPlanarGateMatrix	dimmp = new DenseInMemoryFloatPlanarGateMatrix(size, size, false);
+			final SparseInMemoryFloatGateMatrix			simm = new SparseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatGateVector			column = new DenseInMemoryFloatGateVector(1, size, false)) {
+			
+			cimm.setFastMode(true);
+			cimm.download(new DataSource(permutation));
+			DenseInMemoryFloatGateMatrixTest.load(dimm, right);
+			DenseInMemoryFloatGateMatrixTest.load(dimmp, right);
+			DenseInMemoryFloatGateMatrixTest.load(simm, right);
+			DenseInMemoryFloatGateMatrixTest.load(column, vector);
+			
+			for (boolean parallel : new boolean[] {false, true}) {
+				cimm.setParallelMode(parallel);
+				
+				for (GateMatrix another : new GateMatrix[] {dimm, dimmp, simm}) {
+					try(final GateMatrix	result = cimm.multiply(another)) {
+						Assert.assertEquals(another == simm ? GateMatrixType.SPARSE_MATRIX : GateMatrixType.DENSE_MATRIX, result.getType());
+						Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+					}
+				}
+				try(final GateMatrix	result = cimm.multiply(column)) {
+					Assert.assertEquals(1, result.getWidth());
+					Assert.assertArrayEquals(expectedVector, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void intoTest() throws CalculationException, IOException {
+		final int		size = 64;
+		final int[]		permutation = new int[size], inverse = new int[size], square = new int[size];
+		final float[]	dense = new float[2 * size * size], right = SparseInMemoryFloatGateMatrixTest.sparse(size, 8), vector = DenseInMemoryFloatGateMatrixTest.random(size, 9);
+		
+		for (int index = 0; index < size; index++) {
+			permutation[index] = (index * 7 + 5) % size;
+			inverse[permutation[index]] = index;
+			dense[2 * (index * size + permutation[index])] = 1;
+		}
+		for (int index = 0; index < size; index++) {
+			square[index] = permutation[permutation[index]];
+		}
+		final float[]	expected = DenseInMemoryFloatGateMatrixTest.multiply(dense, right, size, size, size);
+		final float[]	expectedVector = DenseInMemoryFloatGateMatrixTest.multiply(dense, vector, size, size, 1);
+		
+		try(final CommutationalInMemoryMatrix			cimm = new CommutationalInMemoryMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix			dimm = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final SparseInMemoryFloatGateMatrix			simm = new SparseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatGateVector			column = new DenseInMemoryFloatGateVector(1, size, false);
+			final DenseInMemoryFloatGateMatrix			denseTarget = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatPlanarGateMatrix	planarTarget = new DenseInMemoryFloatPlanarGateMatrix(size, size, false);
+			final SparseInMemoryFloatGateMatrix			sparseTarget = new SparseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatGateVector			vectorTarget = new DenseInMemoryFloatGateVector(1, size, false);
+			final CommutationalInMemoryMatrix			commTarget = new CommutationalInMemoryMatrix(size, size, false)) {
+			
+			cimm.setFastMode(true);
+			cimm.download(new DataSource(permutation));
+			DenseInMemoryFloatGateMatrixTest.load(dimm, right);
+			DenseInMemoryFloatGateMatrixTest.load(simm, right);
+			DenseInMemoryFloatGateMatrixTest.load(column, vector);
+			
+			for (boolean parallel : new boolean[] {false, true}) {
+				cimm.setParallelMode(parallel);
+				
+				for (GateMatrix another : new GateMatrix[] {dimm, simm}) {
+					for (GateMatrix target : new GateMatrix[] {denseTarget, planarTarget, sparseTarget}) {
+						Assert.assertSame(target, cimm.multiplyInto(another, target));
+						Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(target), 0.0001f);
+					}
+				}
+				Assert.assertSame(vectorTarget, cimm.multiplyInto(column, vectorTarget));
+				Assert.assertArrayEquals(expectedVector, DenseInMemoryFloatGateMatrixTest.store(vectorTarget), 0.0001f);
+				
+				Assert.assertSame(commTarget, cimm.multiplyInto(cimm.cast(GateMatrixType.COMMITATION_MATRIX), commTarget));
+				Assert.assertArrayEquals(square, columns(commTarget));
+				Assert.assertSame(commTarget, cimm.transposeInto(commTarget));
+				Assert.assertArrayEquals(inverse, columns(commTarget));
+				Assert.assertSame(sparseTarget, cimm.transposeInto(sparseTarget));
+				Assert.assertArrayEquals(inverse, columns(sparseTarget.cast(GateMatrixType.COMMITATION_MATRIX)));
+			}
+		}
+	}
+	
+	@Test
+	public void castTest() throws CalculationException, IOException {
+		final int		size = 512;
+		final int[]		permutation = new int[size];
+		final float[]	expected = new float[2 * size * size];
+
+		for (int index = 0; index < size; index++) {
+			permutation[index] = (index * 7 + 5) % size;
+			expected[2 * (index * size + permutation[index])] = 1;
+		}
+
+		try(final CommutationalInMemoryMatrix	cimm = new CommutationalInMemoryMatrix(size, size, true);
+			final BitPermutationMatrix			bpm = BitPermutationMatrix.swap(9, 0, 8, true)) {
+			cimm.setFastMode(true);
+			cimm.download(new DataSource(permutation));
+			Assert.assertSame(cimm, cimm.cast(GateMatrixType.COMMITATION_MATRIX));
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				cimm.setParallelMode(parallel);
+				bpm.setParallelMode(parallel);
+
+				try(final GateMatrix	result = cimm.cast(GateMatrixType.SPARSE_MATRIX)) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertEquals(size, ((SparseInMemoryFloatGateMatrix)result).getNonZeroCount());
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result.cast(GateMatrixType.DENSE_MATRIX)), 0.0001f);
+					
+					try(final GateMatrix	back = result.cast(GateMatrixType.COMMITATION_MATRIX)) {
+						Assert.assertArrayEquals(permutation, columns(back));
+					}
+				}
+				try(final GateMatrix	result = cimm.cast(GateMatrixType.DENSE_MATRIX)) {
+					Assert.assertEquals(GateMatrixType.DENSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				try(final GateMatrix	result = bpm.cast(GateMatrixType.SPARSE_MATRIX);
+					final GateMatrix	dense = bpm.cast(GateMatrixType.DENSE_MATRIX)) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(dense), DenseInMemoryFloatGateMatrixTest.store(result.cast(GateMatrixType.DENSE_MATRIX)), 0.0001f);
+					Assert.assertArrayEquals(columns(bpm), columns(dense.cast(GateMatrixType.COMMITATION_MATRIX)));
+				}
+			}
+		}
+	}
+
+	static int[] columns(final GateMatrix matrix) throws IOException {
+		final int[]	result = new int[(int) matrix.getHeight()];
+		final boolean	wasFast = matrix.setFastMode(true);
+		
+		try(final ByteArrayOutputStream	baos = new ByteArrayOutputStream()) {
+			try(final DataOutputStream	dos = new DataOutputStream(baos)) {
+				matrix.upload(dos);
+			}
+			try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+				final DataInputStream		dis = new DataInputStream(bais)) {
+				for (int index = 0; index < result.length; index++) {
+					result[index] = dis.readInt();
+				}
+			}
+		}
+		matrix.setFastMode(wasFast);
+		return result;
+	}
 }
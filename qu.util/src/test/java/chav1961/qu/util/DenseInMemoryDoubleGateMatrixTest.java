@@ -0,0 +1,173 @@
+package chav1961.qu.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+
+public class DenseInMemoryDoubleGateMatrixTest {
+	@Test
+	public void basicTest() throws CalculationException {
+		try(final DenseInMemoryDoubleGateMatrix	dimm = new DenseInMemoryDoubleGateMatrix(3, 3, true)) {
+			Assert.assertEquals(3, dimm.getHeight());
+			Assert.assertEquals(3, dimm.getWidth());
+			Assert.assertEquals(GateMatrixType.DENSE_MATRIX, dimm.getType());
+			Assert.assertEquals(double.class, dimm.getValueClass());
+		}
+		
+		try {new DenseInMemoryDoubleGateMatrix(0, 1, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new DenseInMemoryDoubleGateMatrix(1, 0, true).close();
+			Assert.fail("Mandatory exception was not detected (2-nd argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new DenseInMemoryDoubleGateMatrix(4, 3, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st and 2-nd argument are not equals)");
+		} catch (IllegalArgumentException exc) {
+		}
+	}
+
+	@Test
+	public void calculationTest() throws CalculationException, IOException {
+		final int		size = 100;
+		final double[]	left = toDouble(DenseInMemoryFloatGateMatrixTest.random(size * size, 1));
+		final double[]	right = toDouble(DenseInMemoryFloatGateMatrixTest.random(size * size, 2));
+		final double[]	expected = multiply(left, right, size);
+		
+		try(final DenseInMemoryDoubleGateMatrix	dimm1 = new DenseInMemoryDoubleGateMatrix(size, size, true);
+			final DenseInMemoryDoubleGateMatrix	dimm2 = new DenseInMemoryDoubleGateMatrix(size, size, true)) {
+			
+			load(dimm1, left);
+			load(dimm2, right);
+			
+			for (boolean parallel : new boolean[] {false, true}) {
+				dimm1.setParallelMode(parallel);
+				dimm2.setParallelMode(parallel);
+				
+				try(final GateMatrix	dimm3 = dimm1.multiply(dimm2)) {
+					Assert.assertEquals(double.class, dimm3.getValueClass());
+					Assert.assertArrayEquals(expected, store(dimm3), 0.0000001);
+				}
+				try(final GateMatrix	dimm3 = dimm1.multiplyAndTranspose(dimm2);
+					final GateMatrix	dimm4 = dimm3.transpose()) {
+					Assert.assertArrayEquals(expected, store(dimm4), 0.0000001);
+				}
+				try(final GateMatrix	dimm3 = new DenseInMemoryDoubleGateMatrix(size, size, false)) {
+					Assert.assertSame(dimm3, dimm1.multiplyInto(dimm2, dimm3));
+					Assert.assertArrayEquals(expected, store(dimm3), 0.0000001);
+				}
+				try(final GateMatrix	reduced = dimm1.reduce(1, 1)) {
+					final double[]	content = store(reduced);
+					
+					Assert.assertEquals(size / 2, reduced.getWidth());
+					Assert.assertEquals(size / 2, reduced.getHeight());
+					Assert.assertEquals(left[2 * (2 * size + 2)], content[0], 0.0);
+					Assert.assertEquals(left[2 * (3 * size + 7) + 1], content[2 * (size / 2 + 3) + 1], 0.0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void parallelTest() throws CalculationException, IOException {
+		final int		size = 512;
+		final double[]	content = toDouble(DenseInMemoryFloatGateMatrixTest.random(size * size, 3));
+
+		try(final DenseInMemoryDoubleGateMatrix	dimm = new DenseInMemoryDoubleGateMatrix(size, size, true)) {
+			load(dimm, content);
+			dimm.setParallelMode(false);
+
+			try(final GateMatrix	transposed = dimm.transpose();
+				final GateMatrix	reduced = dimm.reduce(3, 0)) {
+				dimm.setParallelMode(true);
+
+				try(final GateMatrix	parallelTransposed = dimm.transpose();
+					final GateMatrix	parallelReduced = dimm.reduce(3, 0)) {
+					Assert.assertArrayEquals(store(transposed), store(parallelTransposed), 0.0);
+					Assert.assertArrayEquals(store(reduced), store(parallelReduced), 0.0);
+				}
+			}
+			try {
+				dimm.forEach((x,y,r,i)->{
+					if (y == size / 2) {
+						throw new CalculationException(new IOException("test"));
+					}
+					return true;
+				});
+				Assert.fail("Mandatory exception was not detected (calculation exception in the parallel kernel)");
+			} catch (CalculationException exc) {
+			}
+		}
+	}
+
+	static double[] toDouble(final float[] source) {
+		final double[]	result = new double[source.length];
+		
+		for (int index = 0; index < result.length; index++) {
+			result[index] = source[index];
+		}
+		return result;
+	}
+
+	static double[] multiply(final double[] left, final double[] right, final int size) {
+		final double[]	result = new double[2 * size * size];
+		
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				double	real = 0, image = 0;
+				
+				for (int k = 0; k < size; k++) {
+					final double	lr = left[2 * (y * size + k)], li = left[2 * (y * size + k) + 1];
+					final double	rr = right[2 * (k * size + x)], ri = right[2 * (k * size + x) + 1];
+					
+					real += lr * rr - li * ri;
+					image += li * rr + lr * ri;
+				}
+				result[2 * (y * size + x)] = real;
+				result[2 * (y * size + x) + 1] = image;
+			}
+		}
+		return result;
+	}
+	
+	static void load(final GateMatrix matrix, final double... content) throws IOException {
+		try(final ByteArrayOutputStream	baos = new ByteArrayOutputStream()) {
+			try(final DataOutputStream	dos = new DataOutputStream(baos)) {
+				for (double item : content) {
+					dos.writeDouble(item);
+				}
+			}
+			try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+				final DataInputStream		dis = new DataInputStream(bais)) {
+				matrix.download(dis);
+			}
+		}
+	}
+
+	static double[] store(final GateMatrix matrix) throws IOException {
+		try(final ByteArrayOutputStream	baos = new ByteArrayOutputStream()) {
+			try(final DataOutputStream	dos = new DataOutputStream(baos)) {
+				matrix.upload(dos);
+			}
+			try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+				final DataInputStream		dis = new DataInputStream(bais)) {
+				final double[]	result = new double[(int) (2 * matrix.getWidth() * matrix.getHeight())];
+				
+				for (int index = 0; index < result.length; index++) {
+					result[index] = dis.readDouble();
+				}
+				return result;
+			}
+		}
+	}
+}
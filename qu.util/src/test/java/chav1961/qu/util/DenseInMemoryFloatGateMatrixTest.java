@@ -1,10 +1,24 @@
 package chav1961.qu.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
 import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
 
 public class DenseInMemoryFloatGateMatrixTest {
 	@Test
@@ -30,4 +44,341 @@ public class DenseInMemoryFloatGateMatrixTest {
 		}
 	}
 
+	@Test
+	public void calculationTest() throws CalculationException, IOException {
+		final float[]	left = new float[]{1,0, 0,1, 2,0,  0,0, 1,1, 0,0,  3,0, 0,0, 0,-1};
+		final float[]	right = new float[]{0,1, 1,0, 0,0,  2,0, 0,0, 1,0,  0,0, 0,2, 1,1};
+		
+		try(final DenseInMemoryFloatGateMatrix	dimm1 = new DenseInMemoryFloatGateMatrix(3, 3, true);
+			final DenseInMemoryFloatGateMatrix	dimm2 = new DenseInMemoryFloatGateMatrix(3, 3, true)) {
+			
+			load(dimm1, left);
+			load(dimm2, right);
+			
+			try(final GateMatrix	dimm3 = dimm1.multiply(dimm2)) {
+				Assert.assertEquals(3, dimm3.getWidth());
+				Assert.assertEquals(3, dimm3.getHeight());
+				Assert.assertEquals(GateMatrixType.DENSE_MATRIX, dimm3.getType());
+				Assert.assertArrayEquals(multiply(left, right, 3, 3, 3), store(dimm3), 0.0001f);
+			}
+			try(final GateMatrix	dimm3 = dimm1.multiplyAndTranspose(dimm2)) {
+				Assert.assertArrayEquals(transpose(multiply(left, right, 3, 3, 3), 3, 3), store(dimm3), 0.0001f);
+			}
+			dimm1.setParallelMode(true);
+			try(final GateMatrix	dimm3 = dimm1.multiply(dimm2)) {
+				Assert.assertArrayEquals(multiply(left, right, 3, 3, 3), store(dimm3), 0.0001f);
+			}
+			try(final GateMatrix	dimm3 = dimm1.multiplyAndTranspose(dimm2)) {
+				Assert.assertArrayEquals(transpose(multiply(left, right, 3, 3, 3), 3, 3), store(dimm3), 0.0001f);
+			}
+		}
+	}
+
+	@Test
+	public void tiledCalculationTest() throws CalculationException, IOException {
+		final int		size = 150;
+		final float[]	left = random(size * size, 1), right = random(size * size, 2);
+		final float[]	expected = multiply(left, right, size, size, size);
+		
+		try(final DenseInMemoryFloatGateMatrix	dimm1 = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix	dimm2 = new DenseInMemoryFloatGateMatrix(size, size, true)) {
+			
+			load(dimm1, left);
+			load(dimm2, right);
+			
+			try(final GateMatrix	dimm3 = dimm1.multiply(dimm2)) {
+				Assert.assertArrayEquals(expected, store(dimm3), 0.001f);
+			}
+			dimm1.setParallelMode(true);
+			try(final GateMatrix	dimm3 = dimm1.multiply(dimm2)) {
+				Assert.assertArrayEquals(expected, store(dimm3), 0.001f);
+			}
+		}
+	}
+	
+	@Test
+	public void extractTest() throws CalculationException, IOException {
+		final int		size = 10;
+		final float[]	source = random(size * size, 3);
+		
+		try(final DenseInMemoryFloatGateMatrix			dimm = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatPlanarGateMatrix	dimmp = new DenseInMemoryFloatPlanarGateMatrix(size, size, false);
+			final DenseInMemoryDoubleGateMatrix			dimmd = new DenseInMemoryDoubleGateMatrix(size, size, false)) {
+			
+			load(dimm, source);
+			load(dimmp, source);
+			DenseInMemoryDoubleGateMatrixTest.load(dimmd, DenseInMemoryDoubleGateMatrixTest.toDouble(source));
+			
+			for (GateMatrix matrix : new GateMatrix[] {dimm, dimmp, dimmd}) {
+				final float[]	row = new float[2 * size + 2], column = new float[2 * size], piece = new float[2 * 6];
+				final double[]	doubleRow = new double[2 * size];
+				
+				matrix.extract(Piece.of(0, 4, size, 1), row, 2);
+				matrix.extract(Piece.of(7, 0, 1, size), column, 0);
+				matrix.extract(Piece.of(2, 3, 3, 2), piece, 0);
+				matrix.extract(Piece.of(0, 4, size, 1), doubleRow, 0);
+				
+				for (int index = 0; index < size; index++) {
+					Assert.assertEquals(source[2 * (4 * size + index)], row[2 * index + 2], 0.0f);
+					Assert.assertEquals(source[2 * (4 * size + index) + 1], row[2 * index + 3], 0.0f);
+					Assert.assertEquals(source[2 * (index * size + 7)], column[2 * index], 0.0f);
+					Assert.assertEquals(source[2 * (index * size + 7) + 1], column[2 * index + 1], 0.0f);
+					Assert.assertEquals(source[2 * (4 * size + index)], doubleRow[2 * index], 0.0001);
+				}
+				Assert.assertEquals(source[2 * (3 * size + 2)], piece[0], 0.0f);
+				Assert.assertEquals(source[2 * (4 * size + 4) + 1], piece[11], 0.0f);
+				
+				try {matrix.extract(Piece.of(0, 4, size, 1), new float[2 * size - 1], 0);
+					Assert.fail("Mandatory exception was not detected (target array is too small)");
+				} catch (IllegalArgumentException exc) {
+				}
+				try {matrix.extract(Piece.of(0, 4, size, 1), (float[])null, 0);
+					Assert.fail("Mandatory exception was not detected (null 2-nd argument)");
+				} catch (NullPointerException exc) {
+				}
+			}
+		}
+	}
+
+	@Test
+	public void mixedCalculationTest() throws CalculationException, IOException {
+		final int		size = 70;
+		final float[]	left = random(size * size, 4), right = random(size * size, 5);
+		final float[]	expected = multiply(left, right, size, size, size);
+		
+		try(final DenseInMemoryFloatGateMatrix			dimm1 = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatPlanarGateMatrix	dimm2 = new DenseInMemoryFloatPlanarGateMatrix(size, size, true)) {
+			
+			load(dimm1, left);
+			load(dimm2, right);
+			
+			for (boolean parallel : new boolean[] {false, true}) {
+				dimm1.setParallelMode(parallel);
+				
+				try(final GateMatrix	result = dimm1.multiply(dimm2)) {
+					Assert.assertArrayEquals(expected, store(result), 0.001f);
+				}
+				try(final GateMatrix	result = dimm1.multiplyAndTranspose(dimm2)) {
+					Assert.assertArrayEquals(transpose(expected, size, size), store(result), 0.001f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void intoTest() throws CalculationException, IOException {
+		final int		size = 40;
+		final float[]	left = random(size * size, 6), right = random(size * size, 7);
+		final float[]	expected = multiply(left, right, size, size, size);
+		
+		try(final DenseInMemoryFloatGateMatrix	dimm1 = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix	dimm2 = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix	target = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix	reduced = new DenseInMemoryFloatGateMatrix(size / 2, size / 2, true);
+			final DenseInMemoryFloatGateVector	vector = new DenseInMemoryFloatGateVector(1, size, true);
+			final DenseInMemoryFloatGateVector	vectorTarget = new DenseInMemoryFloatGateVector(1, size, true)) {
+			
+			load(dimm1, left);
+			load(dimm2, right);
+			load(vector, random(size, 8));
+			
+			for (boolean parallel : new boolean[] {false, true}) {
+				dimm1.setParallelMode(parallel);
+				
+				Assert.assertSame(target, dimm1.multiplyInto(dimm2, target));
+				Assert.assertArrayEquals(expected, store(target), 0.001f);
+				Assert.assertSame(target, dimm1.multiplyAndTransposeInto(dimm2, target));
+				Assert.assertArrayEquals(transpose(expected, size, size), store(target), 0.001f);
+				Assert.assertSame(target, dimm1.transposeInto(target));
+				Assert.assertArrayEquals(transpose(left, size, size), store(target), 0.0f);
+				
+				try(final GateMatrix	product = dimm1.multiply(vector)) {
+					Assert.assertSame(vectorTarget, dimm1.multiplyInto(vector, vectorTarget));
+					Assert.assertArrayEquals(store(product), store(vectorTarget), 0.0f);
+				}
+				
+				Assert.assertSame(reduced, dimm1.reduceInto(0, 1, reduced));
+				final float[]	content = store(reduced);
+				
+				Assert.assertEquals(left[2 * (3 * size + 5)], content[2 * (size / 2 + 2)], 0.0f);
+				Assert.assertEquals(left[2 * (7 * size + 9) + 1], content[2 * (3 * size / 2 + 4) + 1], 0.0f);
+				try(final GateMatrix	result = dimm1.reduce(0, 1)) {
+					Assert.assertArrayEquals(content, store(result), 0.0f);
+				}
+			}
+			
+			try {dimm1.multiplyInto(dimm2, dimm1);
+				Assert.fail("Mandatory exception was not detected (target is the same as operand)");
+			} catch (IllegalArgumentException exc) {
+			}
+			try {dimm1.multiplyInto(dimm2, reduced);
+				Assert.fail("Mandatory exception was not detected (target size is differ)");
+			} catch (IllegalArgumentException exc) {
+			}
+			try {dimm1.multiplyInto(dimm2, null);
+				Assert.fail("Mandatory exception was not detected (null 2-nd argument)");
+			} catch (NullPointerException exc) {
+			}
+			try(final DenseInMemoryDoubleGateMatrix	incompatible = new DenseInMemoryDoubleGateMatrix(size, size, false)) {
+				dimm1.multiplyInto(dimm2, incompatible);
+				Assert.fail("Mandatory exception was not detected (incompatible target)");
+			} catch (IllegalArgumentException exc) {
+			}
+		}
+	}
+
+	@Test
+	public void splitTest() throws CalculationException, IOException {
+		final int		size = 512;
+		final float[]	source = random(size * size, 9);
+		
+		for (int qubitNo = 0; qubitNo < 4; qubitNo++) {
+			for (int qubitValue = 0; qubitValue <= 1; qubitValue++) {
+				final long	mask = 1L << qubitNo, val = qubitValue == 0 ? 0 : mask;
+				
+				for (int index = 0, count = 0; index < 2 * size; index++) {
+					Assert.assertEquals(count, AbstractGateMatrix.countReduced(index, mask, val));
+					if ((index & mask) == val) {
+						count++;
+					}
+				}
+			}
+		}
+		
+		try(final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(size, size, true)) {
+			load(dimm, source);
+			
+			for (int qubitNo : new int[] {0, 3, 8}) {
+				dimm.setParallelMode(false);
+				try(final GateMatrix	serial = dimm.reduce(qubitNo, 1)) {
+					dimm.setParallelMode(true);
+					try(final GateMatrix	parallel = dimm.reduce(qubitNo, 1)) {
+						Assert.assertArrayEquals(store(serial), store(parallel), 0.0f);
+					}
+				}
+			}
+			try(final GateMatrix	transposed = dimm.transpose()) {
+				Assert.assertArrayEquals(transpose(source, size, size), store(transposed), 0.0f);
+			}
+			try {
+				dimm.forEach((x,y,r,i)->{
+					if (y == size / 2) {
+						throw new CalculationException(new IOException("test"));
+					}
+					return true;
+				});
+				Assert.fail("Mandatory exception was not detected (calculation exception in the parallel kernel)");
+			} catch (CalculationException exc) {
+			}
+		}
+	}
+
+	@Test
+	public void parallelContextTest() throws CalculationException, IOException {
+		final int				size = 512;
+		final ParallelContext	context = new ParallelContext(2);
+		final Set<ForkJoinPool>	pools = ConcurrentHashMap.newKeySet();
+		
+		Assert.assertEquals(2, context.getParallelism());
+		
+		try(final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(size, size, true)) {
+			Assert.assertSame(ParallelContext.COMMON, dimm.getParallelContext());
+			Assert.assertSame(ParallelContext.COMMON, dimm.setParallelContext(context));
+			dimm.setParallelMode(true);
+			
+			dimm.forEach((x, y, real, image) -> {
+				pools.add(ForkJoinTask.getPool());
+				return true;
+			});
+			Assert.assertEquals(Collections.singleton(context.getPool()), pools);
+			
+			try(final GateMatrix	transposed = dimm.transpose()) {
+				Assert.assertSame(context, ((AbstractGateMatrix)transposed).getParallelContext());
+				try(final GateMatrix	product = transposed.multiply(dimm)) {
+					Assert.assertSame(context, ((AbstractGateMatrix)product).getParallelContext());
+				}
+			}
+			
+			try {dimm.setParallelContext(null);
+				Assert.fail("Mandatory exception was not detected (null 1-st argument)");
+			} catch (NullPointerException exc) {
+			}
+		} finally {
+			context.getPool().shutdown();
+		}
+	}
+
+	static void load(final GateMatrix matrix, final float... content) throws IOException {
+		try(final ByteArrayOutputStream	baos = new ByteArrayOutputStream()) {
+			try(final DataOutputStream	dos = new DataOutputStream(baos)) {
+				for (float item : content) {
+					dos.writeFloat(item);
+				}
+			}
+			try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+				final DataInputStream		dis = new DataInputStream(bais)) {
+				matrix.download(dis);
+			}
+		}
+	}
+
+	static float[] store(final GateMatrix matrix) throws IOException {
+		try(final ByteArrayOutputStream	baos = new ByteArrayOutputStream()) {
+			try(final DataOutputStream	dos = new DataOutputStream(baos)) {
+				matrix.upload(dos);
+			}
+			try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+				final DataInputStream		dis = new DataInputStream(bais)) {
+				final float[]	result = new float[(int) (2 * matrix.getWidth() * matrix.getHeight())];
+				
+				for (int index = 0; index < result.length; index++) {
+					result[index] = dis.readFloat();
+				}
+				return result;
+			}
+		}
+	}
+
+	static float[] random(final int size, final long seed) {
+		final Random	rnd = new Random(seed);
+		final float[]	result = new float[2 * size];
+		
+		for (int index = 0; index < result.length; index++) {
+			result[index] = rnd.nextFloat() - 0.5f;
+		}
+		return result;
+	}
+	
+	static float[] multiply(final float[] left, final float[] right, final int leftHeight, final int leftWidth, final int rightWidth) {
+		final float[]	result = new float[2 * leftHeight * rightWidth];
+		
+		for (int y = 0; y < leftHeight; y++) {
+			for (int x = 0; x < rightWidth; x++) {
+				double	real = 0, image = 0;
+				
+				for (int k = 0; k < leftWidth; k++) {
+					final float	lr = left[2 * (y * leftWidth + k)], li = left[2 * (y * leftWidth + k) + 1];
+					final float	rr = right[2 * (k * rightWidth + x)], ri = right[2 * (k * rightWidth + x) + 1];
+					
+					real += lr * rr - li * ri;
+					image += li * rr + lr * ri;
+				}
+				result[2 * (y * rightWidth + x)] = (float)real;
+				result[2 * (y * rightWidth + x) + 1] = (float)image;
+			}
+		}
+		return result;
+	}
+
+	static float[] transpose(final float[] source, final int width, final int height) {
+		final float[]	result = new float[source.length];
+		
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				result[2 * (x * height + y)] = source[2 * (y * width + x)];
+				result[2 * (x * height + y) + 1] = source[2 * (y * width + x) + 1];
+			}
+		}
+		return result;
+	}
 }
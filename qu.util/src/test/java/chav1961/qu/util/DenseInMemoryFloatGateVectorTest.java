@@ -0,0 +1,165 @@
+package chav1961.qu.util;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+
+public class DenseInMemoryFloatGateVectorTest {
+	@Test
+	public void basicTest() throws CalculationException {
+		try(final DenseInMemoryFloatGateVector	dimv = new DenseInMemoryFloatGateVector(1, 4, true)) {
+			Assert.assertEquals(4, dimv.getHeight());
+			Assert.assertEquals(1, dimv.getWidth());
+			Assert.assertEquals(GateMatrixType.DENSE_MATRIX, dimv.getType());
+			Assert.assertEquals(float.class, dimv.getValueClass());
+		}
+		
+		try {new DenseInMemoryFloatGateVector(0, 1, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new DenseInMemoryFloatGateVector(3, 3, true).close();
+			Assert.fail("Mandatory exception was not detected (neither 1-st nor 2-nd argument is 1)");
+		} catch (IllegalArgumentException exc) {
+		}
+	}
+
+	@Test
+	public void calculationTest() throws CalculationException, IOException {
+		final float[]	matrix = DenseInMemoryFloatGateMatrixTest.random(8 * 8, 1);
+		final float[]	vector = DenseInMemoryFloatGateMatrixTest.random(8, 2);
+		
+		try(final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(8, 8, true);
+			final DenseInMemoryFloatGateVector	dimv = new DenseInMemoryFloatGateVector(1, 8, true)) {
+			
+			DenseInMemoryFloatGateMatrixTest.load(dimm, matrix);
+			DenseInMemoryFloatGateMatrixTest.load(dimv, vector);
+			
+			try(final GateMatrix	result = dimm.multiply(dimv)) {
+				Assert.assertTrue(result instanceof DenseInMemoryFloatGateVector);
+				Assert.assertEquals(1, result.getWidth());
+				Assert.assertEquals(8, result.getHeight());
+				Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.multiply(matrix, vector, 8, 8, 1), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+			}
+			try(final GateMatrix	transposed = dimv.transpose()) {
+				Assert.assertEquals(8, transposed.getWidth());
+				Assert.assertEquals(1, transposed.getHeight());
+				Assert.assertArrayEquals(vector, DenseInMemoryFloatGateMatrixTest.store(transposed), 0.0001f);
+
+				try(final GateMatrix	result = transposed.multiply(dimm)) {
+					Assert.assertTrue(result instanceof DenseInMemoryFloatGateVector);
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.multiply(vector, matrix, 1, 8, 8), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				try(final GateMatrix	result = transposed.multiply(dimv)) {
+					Assert.assertEquals(1, result.getWidth());
+					Assert.assertEquals(1, result.getHeight());
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.multiply(vector, vector, 1, 8, 1), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+			}
+			dimv.setParallelMode(true);
+			try(final GateMatrix	transposed = dimv.transpose()) {
+				transposed.setParallelMode(true);
+				
+				try(final GateMatrix	result = transposed.multiply(dimm)) {
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.multiply(vector, matrix, 1, 8, 8), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void rowMatrixTest() throws CalculationException, IOException {
+		final float[]	matrix = DenseInMemoryFloatGateMatrixTest.random(8 * 8, 1);
+		final float[]	row = DenseInMemoryFloatGateMatrixTest.random(8, 2);
+		
+		try(final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(8, 8, true);
+			final DenseInMemoryFloatGateMatrix	dimr = new DenseInMemoryFloatGateMatrix(8, 1, true)) {
+			
+			DenseInMemoryFloatGateMatrixTest.load(dimm, matrix);
+			DenseInMemoryFloatGateMatrixTest.load(dimr, row);
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				dimr.setParallelMode(parallel);
+				try(final GateMatrix	transposed = dimr.transpose()) {
+					Assert.assertTrue(transposed instanceof DenseInMemoryFloatGateVector);
+					Assert.assertEquals(1, transposed.getWidth());
+					Assert.assertEquals(8, transposed.getHeight());
+					Assert.assertArrayEquals(row, DenseInMemoryFloatGateMatrixTest.store(transposed), 0.0f);
+				}
+				try(final GateMatrix	result = dimr.multiplyAndTranspose(dimm)) {
+					Assert.assertTrue(result instanceof DenseInMemoryFloatGateVector);
+					Assert.assertEquals(1, result.getWidth());
+					Assert.assertEquals(8, result.getHeight());
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.multiply(row, matrix, 1, 8, 8), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void matrixByVectorTest() throws CalculationException, IOException {
+		final int		size = 13;
+		final float[]	matrix = DenseInMemoryFloatGateMatrixTest.random(size * size, 3);
+		final float[]	vector = DenseInMemoryFloatGateMatrixTest.random(size, 4);
+		final float[]	expected = DenseInMemoryFloatGateMatrixTest.multiply(matrix, vector, size, size, 1);
+		
+		try(final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateVector	dimv = new DenseInMemoryFloatGateVector(1, size, true);
+			final DenseInMemoryFloatGateMatrix	dimmv = new DenseInMemoryFloatGateMatrix(1, size, true)) {
+			
+			DenseInMemoryFloatGateMatrixTest.load(dimm, matrix);
+			DenseInMemoryFloatGateMatrixTest.load(dimv, vector);
+			DenseInMemoryFloatGateMatrixTest.load(dimmv, vector);
+			
+			for (boolean parallel : new boolean[] {false, true}) {
+				dimm.setParallelMode(parallel);
+				
+				try(final GateMatrix	result = dimm.multiply(dimv)) {
+					Assert.assertTrue(result instanceof DenseInMemoryFloatGateVector);
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				try(final GateMatrix	result = dimm.multiply(dimmv)) {
+					Assert.assertTrue(result instanceof DenseInMemoryFloatGateVector);
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				try(final GateMatrix	result = dimm.multiplyAndTranspose(dimv)) {
+					Assert.assertEquals(size, result.getWidth());
+					Assert.assertEquals(1, result.getHeight());
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void parallelForEachTest() throws CalculationException, IOException {
+		final int		size = 1 << 18;
+		final long[]	count = new long[1];
+
+		try(final DenseInMemoryFloatGateVector	dimv = new DenseInMemoryFloatGateVector(1, size, true)) {
+			dimv.forEach((x,y,r,i)->{
+				synchronized(count) {
+					count[0]++;
+				}
+				return true;
+			});
+			Assert.assertEquals(size, count[0]);
+
+			try {
+				dimv.forEach((x,y,r,i)->{
+					if (y == size / 2) {
+						throw new CalculationException(new IOException("test"));
+					}
+					return true;
+				});
+				Assert.fail("Mandatory exception was not detected (calculation exception in the parallel kernel)");
+			} catch (CalculationException exc) {
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package chav1961.qu.util;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+
+public class DenseInMemoryFloatPlanarGateMatrixTest {
+	@Test
+	public void basicTest() throws CalculationException {
+		try(final DenseInMemoryFloatPlanarGateMatrix	dimm = new DenseInMemoryFloatPlanarGateMatrix(3, 3, true)) {
+			Assert.assertEquals(3, dimm.getHeight());
+			Assert.assertEquals(3, dimm.getWidth());
+			Assert.assertEquals(GateMatrixType.DENSE_MATRIX, dimm.getType());
+			Assert.assertEquals(float.class, dimm.getValueClass());
+		}
+		
+		try {new DenseInMemoryFloatPlanarGateMatrix(0, 1, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new DenseInMemoryFloatPlanarGateMatrix(4, 3, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st and 2-nd argument are not equals)");
+		} catch (IllegalArgumentException exc) {
+		}
+	}
+
+	@Test
+	public void calculationTest() throws CalculationException, IOException {
+		final int		size = 80;
+		final float[]	left = DenseInMemoryFloatGateMatrixTest.random(size * size, 1), right = DenseInMemoryFloatGateMatrixTest.random(size * size, 2);
+		final float[]	expected = DenseInMemoryFloatGateMatrixTest.multiply(left, right, size, size, size);
+		
+		try(final DenseInMemoryFloatPlanarGateMatrix	dimm1 = new DenseInMemoryFloatPlanarGateMatrix(size, size, true);
+			final DenseInMemoryFloatPlanarGateMatrix	dimm2 = new DenseInMemoryFloatPlanarGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix			dimm3 = new DenseInMemoryFloatGateMatrix(size, size, true)) {
+			
+			DenseInMemoryFloatGateMatrixTest.load(dimm1, left);
+			DenseInMemoryFloatGateMatrixTest.load(dimm2, right);
+			DenseInMemoryFloatGateMatrixTest.load(dimm3, right);
+			Assert.assertArrayEquals(left, DenseInMemoryFloatGateMatrixTest.store(dimm1), 0.0f);
+			
+			for (boolean parallel : new boolean[] {false, true}) {
+				dimm1.setParallelMode(parallel);
+				
+				try(final GateMatrix	result = dimm1.multiply(dimm2)) {
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = dimm1.multiply(dimm3)) {
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = new DenseInMemoryFloatPlanarGateMatrix(size, size, false)) {
+					Assert.assertSame(result, dimm1.multiplyInto(dimm2, result));
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = dimm1.multiplyAndTranspose(dimm2)) {
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(expected, size, size), DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = dimm1.transpose()) {
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(left, size, size), DenseInMemoryFloatGateMatrixTest.store(result), 0.0f);
+				}
+				try(final GateMatrix	reduced = dimm1.reduce(0, 0)) {
+					final float[]	content = DenseInMemoryFloatGateMatrixTest.store(reduced);
+					
+					Assert.assertEquals(size / 2, reduced.getWidth());
+					Assert.assertEquals(size / 2, reduced.getHeight());
+					Assert.assertEquals(left[2 * (2 * size + 4)], content[2 * (size / 2 + 2)], 0.0f);
+					Assert.assertEquals(left[2 * (6 * size + 8) + 1], content[2 * (3 * size / 2 + 4) + 1], 0.0f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void parallelForEachTest() throws CalculationException, IOException {
+		final int		size = 512;
+
+		try(final DenseInMemoryFloatPlanarGateMatrix	dimm = new DenseInMemoryFloatPlanarGateMatrix(size, size, true)) {
+			try {
+				dimm.forEach((x,y,r,i)->{
+					if (y == size / 2) {
+						throw new CalculationException(new IOException("test"));
+					}
+					return true;
+				});
+				Assert.fail("Mandatory exception was not detected (calculation exception in the parallel kernel)");
+			} catch (CalculationException exc) {
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package chav1961.qu.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+public class DenseLargeGateMatrixTest {
+	@Test
+	public void basicTest() throws CalculationException {
+		try(final DenseLargeGateMatrix	dlgm = new DenseLargeGateMatrix(3, 3, true)) {
+			Assert.assertEquals(3, dlgm.getHeight());
+			Assert.assertEquals(3, dlgm.getWidth());
+			Assert.assertEquals(GateMatrixType.DENSE_MATRIX, dlgm.getType());
+			Assert.assertEquals(float.class, dlgm.getValueClass());
+		}
+		try(final DenseLargeGateMatrix	dlgm = new DenseLargeGateMatrix(64, 64, true, 1000)) {
+			Assert.assertEquals(512, dlgm.getWindowSize());
+		}
+		try(final DenseLargeGateMatrix	dlgm = new DenseLargeGateMatrix(64, 64, true, 300)) {
+			Assert.assertEquals(296, dlgm.getWindowSize());
+		}
+
+		try {new DenseLargeGateMatrix(0, 1, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new DenseLargeGateMatrix(4, 4, true, 4).close();
+			Assert.fail("Mandatory exception was not detected (4-th argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+	}
+
+	@Test
+	public void streamingTest() throws CalculationException, IOException {
+		final int		size = 64;
+		final float[]	content = DenseInMemoryFloatGateMatrixTest.random(size * size, 1), vector = DenseInMemoryFloatGateMatrixTest.random(size, 2);
+
+		for (long windowSize : new long[] {2000, 296, 1 << 20}) {
+			try(final DenseLargeGateMatrix			dlgm = new DenseLargeGateMatrix(size, size, true, windowSize);
+				final DenseLargeGateMatrix			column = new DenseLargeGateMatrix(1, size, true, windowSize);
+				final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(size, size, true)) {
+
+				DenseInMemoryFloatGateMatrixTest.load(dlgm, content);
+				DenseInMemoryFloatGateMatrixTest.load(column, vector);
+				DenseInMemoryFloatGateMatrixTest.load(dimm, content);
+				Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(dlgm), 0.0f);
+
+				final Piece		piece = Piece.of(5, 7, 40, 30);
+				final float[]	expected = new float[(int) (2 * piece.width() * piece.height())], floats = new float[expected.length];
+				final double[]	doubles = new double[expected.length];
+
+				dimm.extract(piece, expected, 0);
+				dlgm.extract(piece, floats, 0);
+				dlgm.extract(piece, doubles, 0);
+				Assert.assertArrayEquals(expected, floats, 0.0f);
+				for (int index = 0; index < expected.length; index++) {
+					Assert.assertEquals(expected[index], doubles[index], 0.0);
+				}
+
+				final AtomicLong	counter = new AtomicLong();
+
+				dlgm.forEach(piece, (x,y,r,i)->{
+					Assert.assertEquals(content[(int) (2 * (y * size + x))], r, 0.0f);
+					Assert.assertEquals(content[(int) (2 * (y * size + x) + 1)], i, 0.0f);
+					counter.incrementAndGet();
+					return true;
+				});
+				Assert.assertEquals(piece.width() * piece.height(), counter.get());
+
+				try(final GateMatrix	result = dlgm.transpose()) {
+					Assert.assertTrue(result instanceof DenseLargeGateMatrix);
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(content, size, size), DenseInMemoryFloatGateMatrixTest.store(result), 0.0f);
+				}
+				try(final GateMatrix	result = column.transpose()) {
+					Assert.assertEquals(size, result.getWidth());
+					Assert.assertEquals(1, result.getHeight());
+					Assert.assertArrayEquals(vector, DenseInMemoryFloatGateMatrixTest.store(result), 0.0f);
+				}
+				for (int qubit = 0; qubit < 6; qubit++) {
+					try(final GateMatrix	result = dlgm.reduce(qubit, 1);
+						final GateMatrix	expectedResult = dimm.reduce(qubit, 1)) {
+						Assert.assertTrue(result instanceof DenseLargeGateMatrix);
+						Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expectedResult), DenseInMemoryFloatGateMatrixTest.store(result), 0.0f);
+					}
+				}
+				try(final GateMatrix	result = dlgm.cast(GateMatrixType.SPARSE_MATRIX)) {
+					Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(result.cast(GateMatrixType.DENSE_MATRIX)), 0.0f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void cacheTest() throws CalculationException, IOException {
+		final int		size = 64;
+		final float[]	content = DenseInMemoryFloatGateMatrixTest.random(size * size, 1);
+
+		try(final DenseLargeGateMatrix	dlgm = new DenseLargeGateMatrix(size, size, true, 1024)) {
+			Assert.assertEquals(DenseLargeGateMatrix.DEFAULT_CACHE_SIZE, dlgm.setCacheSize(4));
+			Assert.assertEquals(4, dlgm.getCacheSize());
+			dlgm.setPrefetchDepth(0);
+
+			DenseInMemoryFloatGateMatrixTest.load(dlgm, content);
+			dlgm.flush();
+
+			final long	hits = dlgm.getCacheHits(), misses = dlgm.getCacheMisses();
+			final Piece	piece = Piece.of(0, 0, size, 4);
+
+			dlgm.forEach(piece, (x,y,r,i)->true);
+			Assert.assertEquals(hits + 2, dlgm.getCacheHits());
+			Assert.assertEquals(misses + 2, dlgm.getCacheMisses());
+			dlgm.forEach(piece, (x,y,r,i)->true);
+			Assert.assertEquals(hits + 6, dlgm.getCacheHits());
+			Assert.assertEquals(misses + 2, dlgm.getCacheMisses());
+
+			dlgm.setCacheSize(1);
+			Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(dlgm), 0.0f);
+
+			try {dlgm.setCacheSize(0);
+				Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+			} catch (IllegalArgumentException exc) {
+			}
+		}
+	}
+
+	@Test
+	public void prefetchTest() throws CalculationException, IOException, InterruptedException, ExecutionException {
+		final int		size = 64;
+		final float[]	content = DenseInMemoryFloatGateMatrixTest.random(size * size, 1);
+
+		try(final DenseLargeGateMatrix	dlgm = new DenseLargeGateMatrix(size, size, true, 1024)) {
+			Assert.assertEquals(DenseLargeGateMatrix.DEFAULT_PREFETCH_DEPTH, dlgm.setPrefetchDepth(3));
+			Assert.assertEquals(3, dlgm.getPrefetchDepth());
+			dlgm.setCacheSize(8);
+
+			DenseInMemoryFloatGateMatrixTest.load(dlgm, content);
+			AbstractLargeGateMatrix.awaitPrefetch();
+
+			final long	hits = dlgm.getCacheHits(), misses = dlgm.getCacheMisses();
+
+			dlgm.forEach(Piece.of(0, 0, size, 1), (x,y,r,i)->true);
+			AbstractLargeGateMatrix.awaitPrefetch();
+			Assert.assertEquals(misses + 1, dlgm.getCacheMisses());
+			dlgm.forEach(Piece.of(0, 2, size, 6), (x,y,r,i)->true);
+			Assert.assertEquals(hits + 6, dlgm.getCacheHits());
+			Assert.assertEquals(misses + 1, dlgm.getCacheMisses());
+
+			final float[]	row = new float[2 * size];
+
+			dlgm.extract(Piece.of(0, 40, size, 1), row, 0);
+			AbstractLargeGateMatrix.awaitPrefetch();
+			dlgm.extract(Piece.of(0, 42, size, 1), row, 0);
+			Assert.assertEquals(misses + 3, dlgm.getCacheMisses());
+			Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(dlgm), 0.0f);
+
+			try {dlgm.setPrefetchDepth(-1);
+				Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+			} catch (IllegalArgumentException exc) {
+			}
+		}
+	}
+
+	@Test
+	public void persistenceTest() throws CalculationException, IOException {
+		final int		size = 64;
+		final float[]	content = DenseInMemoryFloatGateMatrixTest.random(size * size, 1);
+		final File		file = File.createTempFile("test", ".matrix");
+		final File		temporary;
+
+		try {
+			try(final DenseLargeGateMatrix	dlgm = new DenseLargeGateMatrix(size, size, true)) {
+				Assert.assertTrue(dlgm.isTemporary());
+				temporary = dlgm.getFile();
+				Assert.assertTrue(temporary.exists());
+			}
+			Assert.assertFalse(temporary.exists());
+
+			try {DenseLargeGateMatrix.create(file, size, size, true).close();
+				Assert.fail("Mandatory exception was not detected (existent file)");
+			} catch (CalculationException exc) {
+			}
+			try {DenseLargeGateMatrix.open(file, true).close();
+				Assert.fail("Mandatory exception was not detected (not a matrix file)");
+			} catch (CalculationException exc) {
+			}
+			file.delete();
+
+			try(final DenseLargeGateMatrix	dlgm = DenseLargeGateMatrix.create(file, size, size, true)) {
+				Assert.assertFalse(dlgm.isTemporary());
+				Assert.assertEquals(file, dlgm.getFile());
+				DenseInMemoryFloatGateMatrixTest.load(dlgm, content);
+			}
+			Assert.assertTrue(file.exists());
+			Assert.assertEquals(DenseLargeGateMatrix.HEADER_SIZE + size * size * DenseLargeGateMatrix.CELL_SIZE, file.length());
+
+			try(final DenseLargeGateMatrix	dlgm = DenseLargeGateMatrix.open(file, true)) {
+				Assert.assertEquals(size, dlgm.getWidth());
+				Assert.assertEquals(size, dlgm.getHeight());
+				Assert.assertEquals(GateMatrixType.DENSE_MATRIX, dlgm.getType());
+				Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(dlgm), 0.0f);
+			}
+
+			final DenseLargeGateMatrix	reopened = DenseLargeGateMatrix.open(file, true);
+
+			reopened.close();
+			reopened.close();
+			Assert.assertTrue(file.exists());
+
+			try {DenseLargeGateMatrix.open(null, true).close();
+				Assert.fail("Mandatory exception was not detected (null 1-st argument)");
+			} catch (NullPointerException exc) {
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void multiplyTest() throws CalculationException, IOException {
+		final int		height = 40, depth = 40, width = 40;
+		final float[]	left = DenseInMemoryFloatGateMatrixTest.random(height * depth, 1), right = DenseInMemoryFloatGateMatrixTest.random(depth * width, 2);
+		final float[]	vector = DenseInMemoryFloatGateMatrixTest.random(depth, 3);
+		final float[]	expected = DenseInMemoryFloatGateMatrixTest.multiply(left, right, height, depth, width);
+		final float[]	expectedVector = DenseInMemoryFloatGateMatrixTest.multiply(left, vector, height, depth, 1);
+
+		try(final DenseLargeGateMatrix			dlgm = new DenseLargeGateMatrix(depth, height, true, 296);
+			final DenseLargeGateMatrix			another = new DenseLargeGateMatrix(width, depth, true, 296);
+			final DenseLargeGateMatrix			column = new DenseLargeGateMatrix(1, depth, true, 296);
+			final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(width, depth, true)) {
+
+			DenseInMemoryFloatGateMatrixTest.load(dlgm, left);
+			DenseInMemoryFloatGateMatrixTest.load(another, right);
+			DenseInMemoryFloatGateMatrixTest.load(column, vector);
+			DenseInMemoryFloatGateMatrixTest.load(dimm, right);
+			Assert.assertEquals(DenseLargeGateMatrix.DEFAULT_MEMORY_BUDGET, dlgm.getMemoryBudget());
+
+			for (long budget : new long[] {DenseLargeGateMatrix.MIN_MEMORY_BUDGET, 2400, 7000, DenseLargeGateMatrix.DEFAULT_MEMORY_BUDGET}) {
+				dlgm.setMemoryBudget(budget);
+				for (boolean parallel : new boolean[] {false, true}) {
+					dlgm.setParallelMode(parallel);
+					for (GateMatrix operand : new GateMatrix[] {another, dimm}) {
+						try(final GateMatrix	result = dlgm.multiply(operand)) {
+							Assert.assertTrue(result instanceof DenseLargeGateMatrix);
+							Assert.assertEquals(budget, ((DenseLargeGateMatrix)result).getMemoryBudget());
+							Assert.assertEquals(width, result.getWidth());
+							Assert.assertEquals(height, result.getHeight());
+							Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+						}
+						try(final GateMatrix	result = dlgm.multiplyAndTranspose(operand)) {
+							Assert.assertEquals(height, result.getWidth());
+							Assert.assertEquals(width, result.getHeight());
+							Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(expected, width, height), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+						}
+					}
+					try(final GateMatrix	result = dlgm.multiply(column)) {
+						Assert.assertEquals(1, result.getWidth());
+						Assert.assertArrayEquals(expectedVector, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+					}
+				}
+			}
+
+			try {dlgm.setMemoryBudget(DenseLargeGateMatrix.MIN_MEMORY_BUDGET - 1);
+				Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+			} catch (IllegalArgumentException exc) {
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package chav1961.qu.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+public class LongCommutationalInMemoryMatrixTest {
+	@Test
+	public void basicTest() throws CalculationException {
+		try(final LongCommutationalInMemoryMatrix	lcimm = new LongCommutationalInMemoryMatrix(3, 3, true)) {
+			Assert.assertEquals(3, lcimm.getHeight());
+			Assert.assertEquals(3, lcimm.getWidth());
+			Assert.assertEquals(GateMatrixType.COMMITATION_MATRIX, lcimm.getType());
+			Assert.assertEquals(long.class, lcimm.getValueClass());
+		}
+
+		try {new LongCommutationalInMemoryMatrix(0, 1, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new LongCommutationalInMemoryMatrix(4, 3, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st and 2-nd argument are not equals)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new CommutationalInMemoryMatrix(1L << 32, 1L << 32, true).close();
+			Assert.fail("Mandatory exception was not detected (int-indexed matrix is too long)");
+		} catch (IllegalArgumentException exc) {
+		}
+	}
+
+	@Test
+	public void chunkedArrayTest() {
+		final ChunkedLongArray	longs = new ChunkedLongArray(21, 3);
+		final ChunkedFloatArray	floats = new ChunkedFloatArray(21, 3);
+		final float[]			content = DenseInMemoryFloatGateMatrixTest.random(21, 1), result = new float[21];
+
+		Assert.assertEquals(21, longs.length());
+		for (long index = 0; index < longs.length(); index++) {
+			longs.set(index, index * 3);
+		}
+		for (long index = 0; index < longs.length(); index++) {
+			Assert.assertEquals(index * 3, longs.get(index));
+		}
+
+		floats.set(1, content, 1, 19);
+		floats.get(0, result, 0, 21);
+		Assert.assertEquals(0, result[0], 0.0001f);
+		Assert.assertEquals(content[10], floats.get(10), 0.0001f);
+		for (int index = 1; index < 20; index++) {
+			Assert.assertEquals(content[index], result[index], 0.0001f);
+		}
+		floats.fill(5, 18, 1.0f);
+		for (long index = 0; index < floats.length(); index++) {
+			Assert.assertEquals(index >= 5 && index < 18 ? 1.0f : result[(int) index], floats.copy().get(index), 0.0001f);
+		}
+
+		try {new ChunkedFloatArray(-1);
+			Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new ChunkedLongArray(1, 31);
+			Assert.fail("Mandatory exception was not detected (2-nd argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+	}
+
+	@Test
+	public void calculationTest() throws CalculationException, IOException {
+		final int		size = 1 << 10;
+		final int[]		left = new int[size], right = new int[size];
+		final float[]	vector = DenseInMemoryFloatGateMatrixTest.random(size, 2);
+
+		for (int index = 0; index < size; index++) {
+			left[index] = (index * 5 + 3) % size;
+			right[index] = (index & ~0b11) | ((index & 1) << 1) | ((index & 2) >> 1);
+		}
+
+		try(final CommutationalInMemoryMatrix		cimm1 = new CommutationalInMemoryMatrix(size, size, true);
+			final CommutationalInMemoryMatrix		cimm2 = new CommutationalInMemoryMatrix(size, size, true);
+			final LongCommutationalInMemoryMatrix	lcimm1 = new LongCommutationalInMemoryMatrix(size, size, true, new ChunkedLongArray(size, 7));
+			final LongCommutationalInMemoryMatrix	lcimm2 = new LongCommutationalInMemoryMatrix(size, size, true, new ChunkedLongArray(size, 7));
+			final BitPermutationMatrix				bpm = BitPermutationMatrix.swap(10, 0, 9, true);
+			final DenseInMemoryFloatGateVector		column = new DenseInMemoryFloatGateVector(1, size, false);
+			final LongDenseInMemoryFloatGateVector	longColumn = new LongDenseInMemoryFloatGateVector(1, size, false, new ChunkedFloatArray(2 * size, 5))) {
+
+			for (GateMatrix matrix : new GateMatrix[] {cimm1, lcimm1}) {
+				matrix.setFastMode(true);
+				matrix.download(new DataSource(left));
+			}
+			for (GateMatrix matrix : new GateMatrix[] {cimm2, lcimm2}) {
+				matrix.setFastMode(true);
+				matrix.download(new DataSource(right));
+			}
+			DenseInMemoryFloatGateMatrixTest.load(column, vector);
+			DenseInMemoryFloatGateMatrixTest.load(longColumn, vector);
+			Assert.assertArrayEquals(left, CommutationalInMemoryMatrixTest.columns(lcimm1));
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				cimm1.setParallelMode(parallel);
+				lcimm1.setParallelMode(parallel);
+
+				for (GateMatrix another : new GateMatrix[] {lcimm2, cimm2, bpm}) {
+					try(final GateMatrix	result = lcimm1.multiply(another);
+						final GateMatrix	expected = cimm1.multiply(another == lcimm2 ? cimm2 : another)) {
+						Assert.assertTrue(result instanceof LongCommutationalInMemoryMatrix);
+						Assert.assertArrayEquals(CommutationalInMemoryMatrixTest.columns(expected), CommutationalInMemoryMatrixTest.columns(result));
+					}
+				}
+				try(final GateMatrix	result = lcimm1.multiply(longColumn);
+					final GateMatrix	expected = cimm1.multiply(column)) {
+					Assert.assertTrue(result instanceof LongDenseInMemoryFloatGateVector);
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expected), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				try(final GateMatrix	result = lcimm1.transpose();
+					final GateMatrix	expected = cimm1.transpose()) {
+					Assert.assertArrayEquals(CommutationalInMemoryMatrixTest.columns(expected), CommutationalInMemoryMatrixTest.columns(result));
+				}
+				for (int qubit : new int[] {0, 1, 5}) {
+					try(final GateMatrix	result = lcimm2.reduce(qubit, 1);
+						final GateMatrix	expected = cimm2.reduce(qubit, 1)) {
+						Assert.assertEquals(expected.getType(), result.getType());
+						Assert.assertEquals(expected.getHeight(), result.getHeight());
+						Assert.assertArrayEquals(toArray(expected), toArray(result), 0.0001f);
+					}
+				}
+
+				final AtomicLong	counter = new AtomicLong();
+
+				lcimm1.forEach(Piece.of(0, 0, size, size), (x,y,r,i)->{
+					Assert.assertEquals(left[(int) y], x);
+					counter.incrementAndGet();
+					return true;
+				});
+				Assert.assertEquals(size, counter.get());
+			}
+			try(final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(size, size, false);
+				final SparseInMemoryFloatGateMatrix	simm = new SparseInMemoryFloatGateMatrix(size, size, false);
+				final DenseLargeGateMatrix			dlgm = new DenseLargeGateMatrix(size, size, false)) {
+				final float[]	dense = DenseInMemoryFloatGateMatrixTest.random(size * size, 3);
+
+				DenseInMemoryFloatGateMatrixTest.load(dimm, dense);
+				DenseInMemoryFloatGateMatrixTest.load(dlgm, dense);
+				DenseInMemoryFloatGateMatrixTest.load(simm, SparseInMemoryFloatGateMatrixTest.sparse(size, 4));
+
+				for (boolean parallel : new boolean[] {false, true}) {
+					lcimm1.setParallelMode(parallel);
+
+					for (GateMatrix another : new GateMatrix[] {dimm, simm, dlgm, column}) {
+						try(final GateMatrix	result = lcimm1.multiply(another);
+							final GateMatrix	expected = cimm1.multiply(another)) {
+							Assert.assertEquals(expected.getWidth(), result.getWidth());
+							Assert.assertArrayEquals(toArray(expected), toArray(result), 0.0001f);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void partialPermutationTest() throws CalculationException, IOException {
+		final int				size = 64;
+		final int[]				permutation = new int[size];
+		final ChunkedLongArray	partial = new ChunkedLongArray(size, 4);
+
+		for (int index = 0; index < size; index++) {
+			permutation[index] = (index * 5 + 3) % size;
+			partial.set(index, index % 3 == 0 ? -1 : (index * 7 + 1) % size);
+		}
+
+		try(final LongCommutationalInMemoryMatrix	lcimm = new LongCommutationalInMemoryMatrix(size, size, true, partial);
+			final LongCommutationalInMemoryMatrix	right = new LongCommutationalInMemoryMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix		dimm = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix		dense = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final SparseInMemoryFloatGateMatrix		simm = new SparseInMemoryFloatGateMatrix(size, size, false);
+			final DenseLargeGateMatrix				dlgm = new DenseLargeGateMatrix(size, size, false);
+			final DenseInMemoryFloatGateVector		column = new DenseInMemoryFloatGateVector(1, size, false)) {
+			final float[]	content = DenseInMemoryFloatGateMatrixTest.random(size * size, 5);
+
+			right.setFastMode(true);
+			right.download(new DataSource(permutation));
+			DenseInMemoryFloatGateMatrixTest.load(dimm, toArray(lcimm));
+			DenseInMemoryFloatGateMatrixTest.load(dense, content);
+			DenseInMemoryFloatGateMatrixTest.load(dlgm, content);
+			DenseInMemoryFloatGateMatrixTest.load(simm, SparseInMemoryFloatGateMatrixTest.sparse(size, 6));
+			DenseInMemoryFloatGateMatrixTest.load(column, DenseInMemoryFloatGateMatrixTest.random(size, 7));
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				lcimm.setParallelMode(parallel);
+				dimm.setParallelMode(parallel);
+
+				for (GateMatrix another : new GateMatrix[] {right, dense, simm, dlgm, column}) {
+					try(final GateMatrix	result = lcimm.multiply(another);
+						final GateMatrix	expected = dimm.multiply(another)) {
+						Assert.assertArrayEquals(toArray(expected), toArray(result), 0.0001f);
+					}
+				}
+				try(final GateMatrix	result = lcimm.transpose();
+					final GateMatrix	expected = dimm.transpose()) {
+					Assert.assertArrayEquals(toArray(expected), toArray(result), 0.0f);
+				}
+				for (int qubit : new int[] {0, 3}) {
+					try(final GateMatrix	result = lcimm.reduce(qubit, 1);
+						final GateMatrix	expected = dimm.reduce(qubit, 1)) {
+						Assert.assertArrayEquals(toArray(expected), toArray(result), 0.0f);
+					}
+				}
+			}
+		}
+	}
+
+	private static float[] toArray(final GateMatrix matrix) throws CalculationException {
+		final float[]	result = new float[(int) (2 * matrix.getWidth() * matrix.getHeight())];
+
+		matrix.extract(Piece.of(0, 0, matrix.getWidth(), matrix.getHeight()), result, 0);
+		return result;
+	}
+}
@@ -0,0 +1,129 @@
+package chav1961.qu.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+public class LongDenseInMemoryFloatGateVectorTest {
+	@Test
+	public void basicTest() throws CalculationException {
+		try(final LongDenseInMemoryFloatGateVector	ldv = new LongDenseInMemoryFloatGateVector(1, 3, true)) {
+			Assert.assertEquals(3, ldv.getHeight());
+			Assert.assertEquals(1, ldv.getWidth());
+			Assert.assertEquals(GateMatrixType.DENSE_MATRIX, ldv.getType());
+			Assert.assertEquals(float.class, ldv.getValueClass());
+		}
+
+		try {new LongDenseInMemoryFloatGateVector(2, 3, true).close();
+			Assert.fail("Mandatory exception was not detected (neither 1-st nor 2-nd argument is 1)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new DenseInMemoryFloatGateVector(1, 1L << 31, true).close();
+			Assert.fail("Mandatory exception was not detected (int-indexed vector is too long)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new DenseInMemoryFloatGateMatrix(1L << 31, 2, true).close();
+			Assert.fail("Mandatory exception was not detected (int-indexed matrix is too wide)");
+		} catch (IllegalArgumentException exc) {
+		}
+	}
+
+	@Test
+	public void calculationTest() throws CalculationException, IOException {
+		final int		size = 1 << 10;
+		final float[]	left = DenseInMemoryFloatGateMatrixTest.random(size, 1), right = DenseInMemoryFloatGateMatrixTest.random(size, 2);
+
+		try(final DenseInMemoryFloatGateVector		row = new DenseInMemoryFloatGateVector(size, 1, false);
+			final DenseInMemoryFloatGateVector		column = new DenseInMemoryFloatGateVector(1, size, false);
+			final LongDenseInMemoryFloatGateVector	longRow = new LongDenseInMemoryFloatGateVector(size, 1, true, new ChunkedFloatArray(2 * size, 6));
+			final LongDenseInMemoryFloatGateVector	longColumn = new LongDenseInMemoryFloatGateVector(1, size, true, new ChunkedFloatArray(2 * size, 6));
+			final BitPermutationMatrix				bpm = BitPermutationMatrix.of(true, 3, 1, 2, 0, 5, 4, 6, 7, 9, 8);
+			final DenseInMemoryFloatGateMatrix		dimm = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final SparseInMemoryFloatGateMatrix		simm = new SparseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatGateVector		scalar = new DenseInMemoryFloatGateVector(1, 1, false, new float[] {0, 1})) {
+
+			DenseInMemoryFloatGateMatrixTest.load(row, left);
+			DenseInMemoryFloatGateMatrixTest.load(longRow, left);
+			DenseInMemoryFloatGateMatrixTest.load(column, right);
+			DenseInMemoryFloatGateMatrixTest.load(longColumn, right);
+			DenseInMemoryFloatGateMatrixTest.load(dimm, DenseInMemoryFloatGateMatrixTest.random(size * size, 3));
+			DenseInMemoryFloatGateMatrixTest.load(simm, SparseInMemoryFloatGateMatrixTest.sparse(size, 4));
+			Assert.assertArrayEquals(left, DenseInMemoryFloatGateMatrixTest.store(longRow), 0.0001f);
+
+			final float[]	part = new float[20];
+
+			longColumn.extract(Piece.of(0, 30, 1, 10), part, 0);
+			for (int index = 0; index < part.length; index++) {
+				Assert.assertEquals(right[60 + index], part[index], 0.0001f);
+			}
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				longRow.setParallelMode(parallel);
+				longColumn.setParallelMode(parallel);
+				bpm.setParallelMode(parallel);
+
+				try(final GateMatrix	result = longRow.multiply(longColumn);
+					final GateMatrix	expected = row.multiply(column)) {
+					Assert.assertEquals(1, result.getWidth());
+					Assert.assertEquals(1, result.getHeight());
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expected), DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = longRow.multiply(column);
+					final GateMatrix	expected = row.multiply(column)) {
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expected), DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				for (GateMatrix another : new GateMatrix[] {dimm, simm}) {
+					try(final GateMatrix	result = longRow.multiply(another);
+						final GateMatrix	expected = row.multiply(another)) {
+						Assert.assertTrue(result instanceof LongDenseInMemoryFloatGateVector);
+						Assert.assertEquals(size, result.getWidth());
+						Assert.assertEquals(1, result.getHeight());
+						Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expected), DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+					}
+					try(final GateMatrix	result = longRow.multiplyAndTranspose(another)) {
+						Assert.assertEquals(1, result.getWidth());
+						Assert.assertEquals(size, result.getHeight());
+					}
+				}
+				try(final GateMatrix	result = longColumn.multiply(scalar)) {
+					final float[]	expected = new float[2 * size];
+
+					for (int index = 0; index < size; index++) {
+						expected[2 * index] = -right[2 * index + 1];
+						expected[2 * index + 1] = right[2 * index];
+					}
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				try(final GateMatrix	result = longColumn.transpose()) {
+					Assert.assertEquals(size, result.getWidth());
+					Assert.assertArrayEquals(right, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				try(final GateMatrix	result = bpm.multiply(longColumn);
+					final GateMatrix	expected = bpm.multiply(column)) {
+					Assert.assertTrue(result instanceof LongDenseInMemoryFloatGateVector);
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expected), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+
+				final AtomicLong	counter = new AtomicLong();
+
+				longRow.forEach((x,y,r,i)->{
+					Assert.assertEquals(left[(int) (2 * x)], r, 0.0001f);
+					counter.incrementAndGet();
+					return true;
+				});
+				Assert.assertEquals(size, counter.get());
+			}
+			try {longColumn.multiply(longRow);
+				Assert.fail("Mandatory exception was not detected (outer product of the long-indexed column)");
+			} catch (IllegalArgumentException exc) {
+			}
+		}
+	}
+}
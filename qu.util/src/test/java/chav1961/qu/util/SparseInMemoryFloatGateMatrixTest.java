@@ -0,0 +1,447 @@
+package chav1961.qu.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chav1961.purelib.basic.exceptions.CalculationException;
+import chav1961.qu.api.interfaces.GateMatrix;
+import chav1961.qu.api.interfaces.GateMatrixType;
+import chav1961.qu.api.interfaces.Piece;
+
+public class SparseInMemoryFloatGateMatrixTest {
+	@Test
+	public void basicTest() throws CalculationException {
+		try(final SparseInMemoryFloatGateMatrix	simm = new SparseInMemoryFloatGateMatrix(3, 3, true)) {
+			Assert.assertEquals(3, simm.getHeight());
+			Assert.assertEquals(3, simm.getWidth());
+			Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, simm.getType());
+			Assert.assertEquals(float.class, simm.getValueClass());
+			Assert.assertEquals(0, simm.getNonZeroCount());
+		}
+
+		try {new SparseInMemoryFloatGateMatrix(0, 1, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new SparseInMemoryFloatGateMatrix(1, 0, true).close();
+			Assert.fail("Mandatory exception was not detected (2-nd argument out of range)");
+		} catch (IllegalArgumentException exc) {
+		}
+		try {new SparseInMemoryFloatGateMatrix(4, 3, true).close();
+			Assert.fail("Mandatory exception was not detected (1-st and 2-nd argument are not equals)");
+		} catch (IllegalArgumentException exc) {
+		}
+	}
+
+	@Test
+	public void serializationTest() throws CalculationException, IOException {
+		final float[]	content = new float[]{1,0, 0,0, 0,0,  0,0, 0,0, 2,-1,  0,0, 0,3, 0,0};
+
+		try(final SparseInMemoryFloatGateMatrix	simm = new SparseInMemoryFloatGateMatrix(3, 3, false)) {
+			DenseInMemoryFloatGateMatrixTest.load(simm, content);
+			Assert.assertEquals(3, simm.getNonZeroCount());
+			Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(simm), 0.0001f);
+
+			simm.setFastMode(true);
+			try(final ByteArrayOutputStream	baos = new ByteArrayOutputStream()) {
+				try(final DataOutputStream	dos = new DataOutputStream(baos)) {
+					simm.upload(dos);
+				}
+				try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+					final DataInputStream		dis = new DataInputStream(bais)) {
+
+					Assert.assertEquals(0, dis.readInt());
+					Assert.assertEquals(0, dis.readInt());
+					Assert.assertEquals(1, dis.readFloat(), 0.0001f);
+					Assert.assertEquals(0, dis.readFloat(), 0.0001f);
+					Assert.assertEquals(1, dis.readInt());
+					Assert.assertEquals(2, dis.readInt());
+					Assert.assertEquals(2, dis.readFloat(), 0.0001f);
+					Assert.assertEquals(-1, dis.readFloat(), 0.0001f);
+					Assert.assertEquals(2, dis.readInt());
+					Assert.assertEquals(1, dis.readInt());
+					Assert.assertEquals(0, dis.readFloat(), 0.0001f);
+					Assert.assertEquals(3, dis.readFloat(), 0.0001f);
+					Assert.assertEquals(0, dis.available());
+				}
+
+				try(final SparseInMemoryFloatGateMatrix	another = new SparseInMemoryFloatGateMatrix(3, 3, false)) {
+					another.setFastMode(true);
+					try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+						final DataInputStream		dis = new DataInputStream(bais)) {
+						another.download(dis);
+					}
+					another.setFastMode(false);
+					Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(another), 0.0001f);
+				}
+
+				try(final SparseInMemoryFloatGateMatrix	another = new SparseInMemoryFloatGateMatrix(3, 3, false)) {
+					another.setFastMode(true);
+					try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+						final DataInputStream		dis = new DataInputStream(bais)) {
+						another.download(Piece.of(1, 1, 2, 2), dis);
+						Assert.fail("Mandatory exception was not detected (value outside the piece)");
+					} catch (IOException exc) {
+					}
+				}
+			}
+		}
+
+		try(final SparseInMemoryFloatGateMatrix	simm = new SparseInMemoryFloatGateMatrix(3, 3, false)) {
+			DenseInMemoryFloatGateMatrixTest.load(simm, content);
+			load(simm, Piece.of(1, 1, 2, 1), 0,0, 7,7);
+			Assert.assertArrayEquals(new float[]{1,0, 0,0, 0,0,  0,0, 0,0, 7,7,  0,0, 0,3, 0,0}, DenseInMemoryFloatGateMatrixTest.store(simm), 0.0001f);
+			Assert.assertEquals(3, simm.getNonZeroCount());
+		}
+
+		try(final SparseInMemoryFloatGateMatrix	simm = new SparseInMemoryFloatGateMatrix(3, 3, false)) {
+			final AtomicInteger	counter = new AtomicInteger();
+
+			try(final ByteArrayInputStream	bais = new ByteArrayInputStream(new byte[9 * 8]);
+				final DataInputStream		dis = new DataInputStream(bais)) {
+				simm.download(Piece.of(0, 0, 3, 3), dis, (x,y,r,i)->{counter.incrementAndGet(); return true;});
+			}
+			Assert.assertEquals(9, counter.get());
+			Assert.assertEquals(0, simm.getNonZeroCount());
+		}
+	}
+
+	@Test
+	public void parallelForEachTest() throws CalculationException, IOException {
+		final int		size = 512;
+
+		try(final SparseInMemoryFloatGateMatrix	simm = new SparseInMemoryFloatGateMatrix(size, size, true)) {
+			final AtomicInteger	counter = new AtomicInteger();
+
+			simm.forEach((x,y,r,i)->{counter.incrementAndGet(); return true;});
+			Assert.assertEquals(size * size, counter.get());
+
+			try {
+				simm.forEach((x,y,r,i)->{
+					if (y == size / 2) {
+						throw new CalculationException(new IOException("test"));
+					}
+					return true;
+				});
+				Assert.fail("Mandatory exception was not detected (calculation exception in the parallel kernel)");
+			} catch (CalculationException exc) {
+			}
+		}
+	}
+
+	@Test
+	public void calculationTest() throws CalculationException, IOException {
+		final int		size = 16;
+		final float[]	source = sparse(size, 1), dense = DenseInMemoryFloatGateMatrixTest.random(size * size, 2);
+
+		try(final SparseInMemoryFloatGateMatrix	simm = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix	dimm = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatGateMatrix	right = new DenseInMemoryFloatGateMatrix(size, size, false)) {
+
+			DenseInMemoryFloatGateMatrixTest.load(simm, source);
+			DenseInMemoryFloatGateMatrixTest.load(dimm, source);
+			DenseInMemoryFloatGateMatrixTest.load(right, dense);
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				simm.setParallelMode(parallel);
+
+				try(final GateMatrix	result = simm.transpose()) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(source, size, size), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				for (int qubit = 0; qubit < 4; qubit++) {
+					for (int value = 0; value < 2; value++) {
+						try(final GateMatrix	result = simm.reduce(qubit, value);
+							final GateMatrix	expected = dimm.reduce(qubit, value)) {
+							Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+							Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.store(expected), DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+						}
+					}
+				}
+				try(final GateMatrix	result = simm.multiply(right)) {
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.multiply(source, dense, size, size, size), DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = simm.multiplyAndTranspose(right)) {
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(DenseInMemoryFloatGateMatrixTest.multiply(source, dense, size, size, size), size, size), DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+			}
+			simm.setParallelMode(false);
+
+			final float[]	extracted = new float[2 * 3 * 5];
+			final float[]	expected = new float[2 * 3 * 5];
+
+			simm.extract(Piece.of(4, 2, 3, 5), extracted, 0);
+			dimm.extract(Piece.of(4, 2, 3, 5), expected, 0);
+			Assert.assertArrayEquals(expected, extracted, 0.0001f);
+
+			final AtomicInteger	counter = new AtomicInteger();
+
+			simm.forEach((x,y,r,i)->{counter.incrementAndGet(); return true;});
+			Assert.assertEquals(size * size, counter.get());
+
+			counter.set(0);
+			simm.setFastMode(true);
+			simm.forEach((x,y,r,i)->{
+				Assert.assertTrue(r != 0 || i != 0);
+				Assert.assertEquals(source[2 * (int)(y * size + x)], r, 0.0001f);
+				counter.incrementAndGet();
+				return true;
+			});
+			Assert.assertEquals(simm.getNonZeroCount(), counter.get());
+		}
+	}
+
+	@Test
+	public void multiplyTest() throws CalculationException, IOException {
+		final int		size = 256;
+		final float[]	source = sparse(size, 3), dense = DenseInMemoryFloatGateMatrixTest.random(size * size, 4), vector = DenseInMemoryFloatGateMatrixTest.random(size, 5);
+		final float[]	expected = DenseInMemoryFloatGateMatrixTest.multiply(source, dense, size, size, size);
+		final float[]	expectedVector = DenseInMemoryFloatGateMatrixTest.multiply(source, vector, size, size, 1);
+
+		try(final SparseInMemoryFloatGateMatrix	simm = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix	right = new DenseInMemoryFloatGateMatrix(size, size, false);
+			final DenseInMemoryFloatGateVector	column = new DenseInMemoryFloatGateVector(1, size, false)) {
+
+			DenseInMemoryFloatGateMatrixTest.load(simm, source);
+			DenseInMemoryFloatGateMatrixTest.load(right, dense);
+			DenseInMemoryFloatGateMatrixTest.load(column, vector);
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				simm.setParallelMode(parallel);
+
+				try(final GateMatrix	result = simm.multiply(right)) {
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = simm.multiplyAndTranspose(right)) {
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(expected, size, size), DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = simm.multiply(column)) {
+					Assert.assertEquals(1, result.getWidth());
+					Assert.assertEquals(size, result.getHeight());
+					Assert.assertArrayEquals(expectedVector, DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = simm.multiplyAndTranspose(column)) {
+					Assert.assertEquals(size, result.getWidth());
+					Assert.assertEquals(1, result.getHeight());
+					Assert.assertArrayEquals(expectedVector, DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+			}
+		}
+
+		final int[]	pointers = new int[] {0, 0, 10, 11, 12, 100, 100};
+
+		for (int yFrom = 0; yFrom < pointers.length - 1; yFrom++) {
+			for (int yTo = yFrom + 2; yTo < pointers.length; yTo++) {
+				final int	split = SparseInMemoryFloatGateMatrix.splitRows(pointers, yFrom, yTo);
+
+				Assert.assertTrue(split > yFrom && split < yTo);
+			}
+		}
+		Assert.assertEquals(4, SparseInMemoryFloatGateMatrix.splitRows(pointers, 0, 6));
+	}
+
+	@Test
+	public void sparseProductTest() throws CalculationException, IOException {
+		final int		size = 256;
+		final float[]	banded = banded(size, 6), dense = sparse(size, 7);
+
+		try(final SparseInMemoryFloatGateMatrix	left = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final SparseInMemoryFloatGateMatrix	right = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final SparseInMemoryFloatGateMatrix	filled = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final SparseInMemoryFloatGateMatrix	sparseTarget = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix	denseTarget = new DenseInMemoryFloatGateMatrix(size, size, true)) {
+
+			DenseInMemoryFloatGateMatrixTest.load(left, banded);
+			DenseInMemoryFloatGateMatrixTest.load(right, banded);
+			DenseInMemoryFloatGateMatrixTest.load(filled, dense);
+
+			final float[]	expected = DenseInMemoryFloatGateMatrixTest.multiply(banded, banded, size, size, size);
+			final float[]	expectedFilled = DenseInMemoryFloatGateMatrixTest.multiply(dense, dense, size, size, size);
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				left.setParallelMode(parallel);
+				filled.setParallelMode(parallel);
+
+				try(final GateMatrix	result = left.multiply(right)) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = left.multiplyAndTranspose(right)) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(expected, size, size), DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				try(final GateMatrix	result = filled.multiply(filled)) {
+					Assert.assertEquals(GateMatrixType.DENSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(expectedFilled, DenseInMemoryFloatGateMatrixTest.store(result), 0.001f);
+				}
+				Assert.assertSame(sparseTarget, filled.multiplyInto(filled, sparseTarget));
+				Assert.assertArrayEquals(expectedFilled, DenseInMemoryFloatGateMatrixTest.store(sparseTarget), 0.001f);
+				Assert.assertSame(denseTarget, left.multiplyInto(right, denseTarget));
+				Assert.assertArrayEquals(expected, DenseInMemoryFloatGateMatrixTest.store(denseTarget), 0.001f);
+				left.multiplyAndTransposeInto(right, sparseTarget);
+				Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(expected, size, size), DenseInMemoryFloatGateMatrixTest.store(sparseTarget), 0.001f);
+				left.multiplyAndTransposeInto(right, denseTarget);
+				Assert.assertArrayEquals(DenseInMemoryFloatGateMatrixTest.transpose(expected, size, size), DenseInMemoryFloatGateMatrixTest.store(denseTarget), 0.001f);
+			}
+		}
+	}
+
+	@Test
+	public void castTest() throws CalculationException, IOException {
+		final int		size = 512;
+		final int[]		permutation = new int[size];
+		final float[]	content = sparse(size, 8), vector = DenseInMemoryFloatGateMatrixTest.random(size, 9), ones = new float[2 * size * size];
+
+		for (int index = 0; index < size; index++) {
+			permutation[index] = (index * 5 + 3) % size;
+			ones[2 * (index * size + permutation[index])] = 1;
+		}
+
+		try(final SparseInMemoryFloatGateMatrix		simm = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final SparseInMemoryFloatGateMatrix		simmOnes = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix		dimm = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix		dimmOnes = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateVector		column = new DenseInMemoryFloatGateVector(1, size, true)) {
+
+			DenseInMemoryFloatGateMatrixTest.load(simm, content);
+			DenseInMemoryFloatGateMatrixTest.load(simmOnes, ones);
+			DenseInMemoryFloatGateMatrixTest.load(dimm, content);
+			DenseInMemoryFloatGateMatrixTest.load(dimmOnes, ones);
+			DenseInMemoryFloatGateMatrixTest.load(column, vector);
+			Assert.assertSame(simm, simm.cast(GateMatrixType.SPARSE_MATRIX));
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				for (GateMatrix matrix : new GateMatrix[] {simm, simmOnes, dimm, dimmOnes, column}) {
+					matrix.setParallelMode(parallel);
+				}
+
+				try(final GateMatrix	result = simm.cast(GateMatrixType.DENSE_MATRIX)) {
+					Assert.assertEquals(GateMatrixType.DENSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				try(final GateMatrix	result = dimm.cast(GateMatrixType.SPARSE_MATRIX)) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertEquals(simm.getNonZeroCount(), ((SparseInMemoryFloatGateMatrix)result).getNonZeroCount());
+					Assert.assertArrayEquals(simm.getRowPointers(), ((SparseInMemoryFloatGateMatrix)result).getRowPointers());
+					Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(result.cast(GateMatrixType.DENSE_MATRIX)), 0.0001f);
+				}
+				try(final GateMatrix	result = column.cast(GateMatrixType.SPARSE_MATRIX)) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(vector, DenseInMemoryFloatGateMatrixTest.store(result.cast(GateMatrixType.DENSE_MATRIX)), 0.0001f);
+				}
+				for (GateMatrix matrix : new GateMatrix[] {simmOnes, dimmOnes}) {
+					try(final GateMatrix	result = matrix.cast(GateMatrixType.COMMITATION_MATRIX)) {
+						Assert.assertEquals(GateMatrixType.COMMITATION_MATRIX, result.getType());
+						Assert.assertArrayEquals(permutation, CommutationalInMemoryMatrixTest.columns(result));
+					}
+				}
+				for (GateMatrix matrix : new GateMatrix[] {simm, dimm}) {
+					try{matrix.cast(GateMatrixType.COMMITATION_MATRIX);
+						Assert.fail("Mandatory exception was not detected (matrix is not a permutation)");
+					} catch (IllegalStateException exc) {
+					}
+				}
+			}
+			try{simm.cast(null);
+				Assert.fail("Mandatory exception was not detected (null 1-st argument)");
+			} catch (NullPointerException exc) {
+			}
+		}
+	}
+
+	@Test
+	public void optimizeTest() throws CalculationException, IOException {
+		final int		size = 512;
+		final float[]	content = sparse(size, 10), dense = DenseInMemoryFloatGateMatrixTest.random(size * size, 11), ones = new float[2 * size * size];
+
+		for (int index = 0; index < size; index++) {
+			ones[2 * (index * size + (index * 3 + 1) % size)] = 1;
+		}
+
+		try(final SparseInMemoryFloatGateMatrix		simm = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final SparseInMemoryFloatGateMatrix		simmDense = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final SparseInMemoryFloatGateMatrix		simmOnes = new SparseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix		dimm = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix		dimmDense = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final DenseInMemoryFloatGateMatrix		dimmOnes = new DenseInMemoryFloatGateMatrix(size, size, true);
+			final CommutationalInMemoryMatrix		cimm = new CommutationalInMemoryMatrix(size, size, true)) {
+
+			DenseInMemoryFloatGateMatrixTest.load(simm, content);
+			DenseInMemoryFloatGateMatrixTest.load(simmDense, dense);
+			DenseInMemoryFloatGateMatrixTest.load(simmOnes, ones);
+			DenseInMemoryFloatGateMatrixTest.load(dimm, content);
+			DenseInMemoryFloatGateMatrixTest.load(dimmDense, dense);
+			DenseInMemoryFloatGateMatrixTest.load(dimmOnes, ones);
+
+			for (boolean parallel : new boolean[] {false, true}) {
+				for (GateMatrix matrix : new GateMatrix[] {simm, simmDense, simmOnes, dimm, dimmDense, dimmOnes, cimm}) {
+					matrix.setParallelMode(parallel);
+				}
+				Assert.assertSame(simm, simm.optimize());
+				Assert.assertSame(dimmDense, dimmDense.optimize());
+				Assert.assertSame(cimm, cimm.optimize());
+
+				try(final GateMatrix	result = dimm.optimize()) {
+					Assert.assertEquals(GateMatrixType.SPARSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(simm.getRowPointers(), ((SparseInMemoryFloatGateMatrix)result).getRowPointers());
+					Assert.assertArrayEquals(content, DenseInMemoryFloatGateMatrixTest.store(result.cast(GateMatrixType.DENSE_MATRIX)), 0.0001f);
+				}
+				try(final GateMatrix	result = simmDense.optimize()) {
+					Assert.assertEquals(GateMatrixType.DENSE_MATRIX, result.getType());
+					Assert.assertArrayEquals(dense, DenseInMemoryFloatGateMatrixTest.store(result), 0.0001f);
+				}
+				for (GateMatrix matrix : new GateMatrix[] {simmOnes, dimmOnes}) {
+					try(final GateMatrix	result = matrix.optimize()) {
+						Assert.assertEquals(GateMatrixType.COMMITATION_MATRIX, result.getType());
+						Assert.assertArrayEquals(ones, DenseInMemoryFloatGateMatrixTest.store(result.cast(GateMatrixType.DENSE_MATRIX)), 0.0001f);
+					}
+				}
+			}
+		}
+	}
+
+	static float[] banded(final int size, final long seed) {
+		final float[]	result = DenseInMemoryFloatGateMatrixTest.random(size * size, seed);
+
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				if (Math.abs(x - y) > 2) {
+					result[2 * (y * size + x)] = result[2 * (y * size + x) + 1] = 0;
+				}
+			}
+		}
+		return result;
+	}
+
+	static float[] sparse(final int size, final long seed) {
+		final float[]	result = DenseInMemoryFloatGateMatrixTest.random(size * size, seed);
+
+		for (int index = 0; index < result.length; index += 2) {
+			if (index % 7 != 0 && index % 11 != 0) {
+				result[index] = result[index + 1] = 0;
+			}
+		}
+		return result;
+	}
+
+	private static void load(final GateMatrix matrix, final Piece piece, final float... content) throws IOException {
+		try(final ByteArrayOutputStream	baos = new ByteArrayOutputStream()) {
+			try(final DataOutputStream	dos = new DataOutputStream(baos)) {
+				for (float item : content) {
+					dos.writeFloat(item);
+				}
+			}
+			try(final ByteArrayInputStream	bais = new ByteArrayInputStream(baos.toByteArray());
+				final DataInputStream		dis = new DataInputStream(bais)) {
+				matrix.download(piece, dis);
+			}
+		}
+	}
+}